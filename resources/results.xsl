@@ -22,6 +22,19 @@
 
 <h2>Multi-Genome Alignment Report</h2>
 
+<xsl:if test="MultiGenomeAlignmentSummaries/Provisional">
+	<p>
+		<b>Provisional report:</b>
+		alignments completed for <xsl:value-of select="MultiGenomeAlignmentSummaries/Provisional/CompletedChunkCount"/>
+		of <xsl:value-of select="MultiGenomeAlignmentSummaries/Provisional/ChunkCount"/> chunks of sequences<xsl:if test="MultiGenomeAlignmentSummaries/Provisional/OutstandingReferenceGenomes/ReferenceGenome">;
+		still running for
+		<xsl:for-each select="MultiGenomeAlignmentSummaries/Provisional/OutstandingReferenceGenomes/ReferenceGenome">
+			<xsl:if test="position() &gt; 1">, </xsl:if>
+			<xsl:value-of select="@name"/>
+		</xsl:for-each></xsl:if>.
+	</p>
+</xsl:if>
+
 <xsl:variable name="datasetCount"><xsl:value-of select="count(MultiGenomeAlignmentSummaries/MultiGenomeAlignmentSummary)"/></xsl:variable>
 
 <!-- Variables taken from results for first dataset -->
@@ -63,12 +76,19 @@
 <p/>
 
 <xsl:param name="image"/>
-
-<xsl:if test="$image">
-	<img>
-		<xsl:attribute name="src">data:image/png;base64,<xsl:value-of select="$image"/></xsl:attribute>
-	</img>
-</xsl:if>
+<xsl:param name="imageFile"/>
+<xsl:param name="imageType" select="'image/png'"/>
+
+<xsl:choose>
+	<xsl:when test="$imageFile">
+		<img src="{$imageFile}"/>
+	</xsl:when>
+	<xsl:when test="$image">
+		<img>
+			<xsl:attribute name="src">data:<xsl:value-of select="$imageType"/>;base64,<xsl:value-of select="$image"/></xsl:attribute>
+		</img>
+	</xsl:when>
+</xsl:choose>
 
 <br/>
 Sequences were sampled<xsl:if test="$trimLength != ''">,
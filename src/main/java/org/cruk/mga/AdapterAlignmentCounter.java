@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.cruk.util.CompressionUtils;
+
+/**
+ * Counts the distinct sampled sequences for each dataset with alignments to
+ * adapter sequences in exonerate alignment output.
+ *
+ * Only the first field of each line is read, containing the dataset id and
+ * sequence number separated by an underscore. The bytes of each line are
+ * scanned directly within a buffer by an {@link AlignmentLineScanner} and
+ * aligned sequences are recorded in a bit set for each dataset, sized from
+ * the sampled count, so no objects are created for each line.
+ *
+ * Bit sets are private to each call to {@link #count(String)}, so separate
+ * files can be counted in parallel.
+ */
+public class AdapterAlignmentCounter
+{
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private IdDictionary datasets;
+    private int[] sampledCounts;
+
+    /**
+     * Creates a new AdapterAlignmentCounter.
+     *
+     * @param datasets the dictionary of dataset identifiers, the codes of which are used as dataset indexes
+     * @param sampledCounts the number of sampled sequences for each dataset
+     */
+    public AdapterAlignmentCounter(IdDictionary datasets, int[] sampledCounts)
+    {
+        this.datasets = datasets;
+        this.sampledCounts = sampledCounts;
+    }
+
+    /**
+     * Counts the distinct sequences for each dataset with alignments in the
+     * given adapter alignment file.
+     *
+     * @param file the adapter alignment file
+     * @return the number of aligned sequences for each dataset
+     * @throws IOException
+     */
+    public int[] count(String file) throws IOException
+    {
+        long[][] alignedSequences = new long[datasets.size()][];
+
+        AlignmentLineScanner scanner = new AlignmentLineScanner(CompressionUtils.openInputStream(new File(file)), "file " + file, BUFFER_SIZE);
+        try
+        {
+            int datasetIndex = -1;
+            while (scanner.nextLine())
+            {
+                // look up the dataset only when it differs from that of the previous line
+                if (scanner.isNewDataset())
+                {
+                    datasetIndex = scanner.getDatasetCode(datasets);
+                    if (datasetIndex == -1)
+                        throw new RuntimeException("Missing sequence count file for dataset " + scanner.getDatasetId() + " corresponding to adapter alignment file " + file);
+                    if (alignedSequences[datasetIndex] == null)
+                        alignedSequences[datasetIndex] = new long[(sampledCounts[datasetIndex] >>> 6) + 1];
+                }
+
+                int sequenceId = scanner.getSequenceId();
+                if (sequenceId > sampledCounts[datasetIndex])
+                    throw new RuntimeException("Sequence number " + sequenceId + " for dataset " + datasets.getId(datasetIndex) + " out of range, maximum value should be " + sampledCounts[datasetIndex] + " at line " + scanner.getLineNumber() + " in file " + file);
+
+                alignedSequences[datasetIndex][sequenceId >>> 6] |= 1L << sequenceId;
+            }
+        }
+        finally
+        {
+            scanner.close();
+        }
+
+        int[] counts = new int[alignedSequences.length];
+        for (int i = 0; i < alignedSequences.length; i++)
+        {
+            if (alignedSequences[i] == null) continue;
+            for (long word : alignedSequences[i])
+            {
+                counts[i] += Long.bitCount(word);
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,878 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.cruk.util.CompressionUtils;
+import org.cruk.util.TaskUtils;
+
+/**
+ * Aggregates alignments of sampled sequences to reference genomes from bowtie
+ * alignment files in any order, recording for each sequence the fewest
+ * mismatches with which it aligned, the aligned length and the set of
+ * reference genomes for which it aligned with that number of mismatches.
+ *
+ * Sequence identifiers assigned when sampling are numbered consecutively from
+ * 1 for each dataset, so the results for each sequence are held in primitive
+ * arrays indexed by dataset and sequence identifier. The reference genomes for
+ * each sequence are held as a bit set with a bit for each reference genome
+ * index. Datasets are identified by their code in a run-level dictionary
+ * and reference genomes by index, so no lookups by identifier are made for
+ * each alignment. Alignment files need not be sorted.
+ *
+ * Alignment files are added in groups, e.g. the alignments for a chunk of
+ * sequences to each of the reference genomes, where no two groups contain
+ * alignments for the same sequence, and groups can then be processed in
+ * parallel. Totals of all alignments for each dataset and reference genome
+ * are accumulated in a private {@link AlignmentSummaryMatrix} for each group,
+ * holding rows only for the datasets in the range being aggregated, and
+ * merged once complete.
+ *
+ * The best alignments for each sequence and the totals can be written to a
+ * partial summary file, e.g. for a single chunk of sequences, which is much
+ * smaller than the alignment files from which it was created. Partial summary
+ * files can be added in place of alignment files and are combined in the same
+ * way, so that report generation need only reduce the partial summaries.
+ *
+ * Aggregation can be restricted to a range of datasets so that, for runs with
+ * very large numbers of datasets, the best alignments need only be held for
+ * a partition of the datasets at a time, with successive passes over the
+ * alignment and partial summary files for each partition. Alignments and
+ * summary records for datasets outside the range are skipped.
+ */
+public class AlignmentAggregator
+{
+    public static final String ALIGNMENT_FILE_SUFFIX = ".bowtie.alignment";
+    public static final String SUMMARY_FILE_SUFFIX = ".alignment.summary";
+
+    static final byte[] SUMMARY_MAGIC = new byte[] { 'M', 'G', 'A', 'S' };
+    static final int SUMMARY_VERSION = 1;
+
+    private static final byte NOT_ALIGNED = Byte.MAX_VALUE;
+    private static final int SUMMARY_FILE = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private IdDictionary datasets;
+    private int[] sampledCounts;
+    private IdDictionary referenceGenomes;
+    private int referenceGenomeCount;
+    private int words;
+    private boolean allocateOnDemand;
+
+    // range of dataset indexes for which alignments are aggregated
+    private int datasetRangeStart;
+    private int datasetRangeEnd;
+
+    // fewest mismatches, aligned length and bit set of best aligned reference
+    // genomes for each dataset and sequence identifier
+    private byte[][] bestMismatchCounts;
+    private short[][] alignedLengths;
+    private long[][] bestGenomeMasks;
+
+    // totals of all alignments for each dataset and reference genome
+    private AlignmentSummaryMatrix totals;
+
+    private Map<String, List<String>> fileGroups = new LinkedHashMap<String, List<String>>();
+    private Map<String, Integer> fileReferenceGenomeIndexes = new HashMap<String, Integer>();
+
+    /**
+     * Creates a new AlignmentAggregator, allocating arrays for all sampled
+     * sequences in each dataset being aggregated.
+     *
+     * @param datasets the dictionary of dataset identifiers, the codes of which are used as dataset indexes
+     * @param sampledCounts the number of sampled sequences for each dataset
+     * @param referenceGenomes the dictionary of reference genome identifiers, the codes of which are used as reference genome indexes
+     */
+    public AlignmentAggregator(IdDictionary datasets, int[] sampledCounts, IdDictionary referenceGenomes)
+    {
+        this(datasets, sampledCounts, referenceGenomes, false);
+    }
+
+    /**
+     * Creates a new AlignmentAggregator.
+     *
+     * Arrays for each dataset can be allocated on demand, growing as required
+     * to accommodate the largest sequence identifier seen, e.g. when reading
+     * alignments for a single chunk containing a subset of the sequences. In
+     * that case groups of files are processed in turn rather than in parallel.
+     *
+     * @param datasets the dictionary of dataset identifiers, the codes of which are used as dataset indexes
+     * @param sampledCounts the number of sampled sequences for each dataset
+     * @param referenceGenomes the dictionary of reference genome identifiers, the codes of which are used as reference genome indexes
+     * @param allocateOnDemand to allocate arrays for each dataset on demand
+     */
+    public AlignmentAggregator(IdDictionary datasets, int[] sampledCounts, IdDictionary referenceGenomes, boolean allocateOnDemand)
+    {
+        this.datasets = datasets;
+        this.sampledCounts = sampledCounts;
+        this.referenceGenomes = referenceGenomes;
+        this.referenceGenomeCount = referenceGenomes.size();
+        this.allocateOnDemand = allocateOnDemand;
+
+        words = getWords(referenceGenomeCount);
+
+        int datasetCount = datasets.size();
+        bestMismatchCounts = new byte[datasetCount][];
+        alignedLengths = new short[datasetCount][];
+        bestGenomeMasks = new long[datasetCount][];
+        totals = new AlignmentSummaryMatrix(datasetCount, referenceGenomeCount);
+
+        setDatasetRange(0, datasetCount);
+    }
+
+    /**
+     * Restricts subsequent aggregation to datasets with indexes in the given
+     * range, releasing the best alignments held for all datasets. Arrays for
+     * datasets in the range are allocated when aggregating.
+     *
+     * Totals continue to accumulate, so each dataset should be within the
+     * range for only one call to {@link #aggregate(int)}.
+     *
+     * @param start the first dataset index in the range
+     * @param end the dataset index following the last in the range
+     */
+    public void setDatasetRange(int start, int end)
+    {
+        datasetRangeStart = start;
+        datasetRangeEnd = end;
+
+        Arrays.fill(bestMismatchCounts, null);
+        Arrays.fill(alignedLengths, null);
+        Arrays.fill(bestGenomeMasks, null);
+    }
+
+    /**
+     * @param datasetIndex the dataset index
+     * @return true if alignments for the given dataset are being aggregated
+     */
+    private boolean isInDatasetRange(int datasetIndex)
+    {
+        return datasetIndex >= datasetRangeStart && datasetIndex < datasetRangeEnd;
+    }
+
+    private static int getWords(int referenceGenomeCount)
+    {
+        return Math.max((referenceGenomeCount + 63) >>> 6, 1);
+    }
+
+    /**
+     * Allocates or grows the arrays for the given dataset.
+     *
+     * @param datasetIndex the dataset index
+     * @param capacity the number of sequences, including the unused sequence identifier 0
+     */
+    private void allocate(int datasetIndex, int capacity)
+    {
+        byte[] mismatches = bestMismatchCounts[datasetIndex];
+        int length = mismatches == null ? 0 : mismatches.length;
+        if (capacity <= length) return;
+
+        mismatches = mismatches == null ? new byte[capacity] : Arrays.copyOf(mismatches, capacity);
+        Arrays.fill(mismatches, length, capacity, NOT_ALIGNED);
+        bestMismatchCounts[datasetIndex] = mismatches;
+
+        short[] lengths = alignedLengths[datasetIndex];
+        alignedLengths[datasetIndex] = lengths == null ? new short[capacity] : Arrays.copyOf(lengths, capacity);
+
+        long[] masks = bestGenomeMasks[datasetIndex];
+        bestGenomeMasks[datasetIndex] = masks == null ? new long[capacity * words] : Arrays.copyOf(masks, capacity * words);
+    }
+
+    /**
+     * Ensures the arrays for the given dataset can hold the given sequence,
+     * growing these if allocating on demand.
+     *
+     * @param datasetIndex the dataset index
+     * @param sequenceId the sequence identifier
+     */
+    private void ensureCapacity(int datasetIndex, int sequenceId)
+    {
+        byte[] mismatches = bestMismatchCounts[datasetIndex];
+        if (mismatches != null && sequenceId < mismatches.length) return;
+        int capacity = mismatches == null ? INITIAL_CAPACITY : 2 * mismatches.length;
+        capacity = Math.min(Math.max(capacity, sequenceId + 1), sampledCounts[datasetIndex] + 1);
+        allocate(datasetIndex, capacity);
+    }
+
+    /**
+     * Allocates arrays for all sampled sequences in each dataset in the range
+     * being aggregated, unless allocating on demand.
+     */
+    private void allocateDatasetRange()
+    {
+        if (!allocateOnDemand)
+        {
+            for (int i = datasetRangeStart; i < datasetRangeEnd; i++)
+            {
+                allocate(i, sampledCounts[i] + 1);
+            }
+        }
+    }
+
+    /**
+     * Adds an alignment file to be processed.
+     *
+     * @param alignmentFile the alignment file
+     * @param referenceGenomeIndex the index of the reference genome to which sequences were aligned
+     * @param group the group of files, none of which contain alignments for the same sequences as files in other groups
+     */
+    public void addAlignmentFile(String alignmentFile, int referenceGenomeIndex, String group)
+    {
+        List<String> files = fileGroups.get(group);
+        if (files == null)
+        {
+            files = new ArrayList<String>();
+            fileGroups.put(group, files);
+        }
+        files.add(alignmentFile);
+        fileReferenceGenomeIndexes.put(alignmentFile, referenceGenomeIndex);
+    }
+
+    /**
+     * Adds a partial summary file, written using {@link #writeSummary(OutputStream)},
+     * to be processed.
+     *
+     * @param summaryFile the partial summary file
+     * @param group the group of files, none of which contain alignments for the same sequences as files in other groups
+     */
+    public void addSummaryFile(String summaryFile, String group)
+    {
+        addAlignmentFile(summaryFile, SUMMARY_FILE, group);
+    }
+
+    /**
+     * Removes all alignment and partial summary files added so far, e.g. once
+     * these have been processed, so that further files can be added and
+     * processed as these become available.
+     */
+    public void clearFiles()
+    {
+        fileGroups.clear();
+        fileReferenceGenomeIndexes.clear();
+    }
+
+    /**
+     * Processes all alignment and partial summary files, using the given
+     * number of threads to process groups of files in parallel.
+     *
+     * @param threads the number of threads
+     * @throws IOException
+     */
+    public void aggregate(int threads) throws IOException
+    {
+        allocateDatasetRange();
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final List<String> files : fileGroups.values())
+        {
+            tasks.add(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    aggregate(files);
+                    return null;
+                }
+            });
+        }
+        TaskUtils.invokeAll(tasks, allocateOnDemand ? 1 : threads, "alignment-aggregator");
+    }
+
+    /**
+     * Processes a group of alignment and partial summary files.
+     *
+     * @param files the alignment and partial summary files
+     * @throws IOException
+     */
+    private void aggregate(List<String> files) throws IOException
+    {
+        AlignmentSummaryMatrix groupTotals = new AlignmentSummaryMatrix(datasetRangeStart, datasetRangeEnd, referenceGenomeCount);
+
+        for (String file : files)
+        {
+            int referenceGenomeIndex = fileReferenceGenomeIndexes.get(file);
+            if (referenceGenomeIndex == SUMMARY_FILE)
+                mergeSummary(file, groupTotals);
+            else
+                aggregate(file, referenceGenomeIndex, groupTotals);
+        }
+
+        totals.merge(groupTotals);
+    }
+
+    /**
+     * Processes an alignment file.
+     *
+     * @param file the alignment file
+     * @param referenceGenomeIndex the index of the reference genome to which sequences were aligned
+     * @param groupTotals the totals for the group of files
+     * @throws IOException
+     */
+    private void aggregate(String file, int referenceGenomeIndex, AlignmentSummaryMatrix groupTotals) throws IOException
+    {
+        long[] counters = groupTotals.getCounters();
+        int word = referenceGenomeIndex >>> 6;
+        long bit = 1L << referenceGenomeIndex;
+
+        AlignmentParser parser = openParser(file);
+
+        int datasetIndex = -1;
+        boolean skipDataset = false;
+        int sampledCount = 0;
+        byte[] mismatches = null;
+        short[] lengths = null;
+        long[] masks = null;
+
+        while (parser.next())
+        {
+            if (parser.isNewDataset())
+            {
+                datasetIndex = parser.getDatasetCode(datasets);
+                if (datasetIndex == -1)
+                    throw new RuntimeException("Unexpected dataset " + parser.getDatasetId() + " at line " + parser.getLineNumber() + " in file " + file);
+                skipDataset = !isInDatasetRange(datasetIndex);
+                sampledCount = sampledCounts[datasetIndex];
+                mismatches = null;
+            }
+
+            if (skipDataset) continue;
+
+            int sequenceId = parser.getSequenceId();
+            if (sequenceId < 1 || sequenceId > sampledCount)
+                throw new RuntimeException("Sequence number " + sequenceId + " for dataset " + datasets.getId(datasetIndex) + " out of range, maximum value should be " + sampledCount + " at line " + parser.getLineNumber() + " in file " + file);
+
+            if (mismatches == null || sequenceId >= mismatches.length)
+            {
+                ensureCapacity(datasetIndex, sequenceId);
+                mismatches = bestMismatchCounts[datasetIndex];
+                lengths = alignedLengths[datasetIndex];
+                masks = bestGenomeMasks[datasetIndex];
+            }
+
+            int mismatchCount = parser.getMismatchCount();
+            if (mismatchCount >= NOT_ALIGNED)
+                throw new RuntimeException("Too many mismatches (" + mismatchCount + ") at line " + parser.getLineNumber() + " in file " + file);
+
+            int alignedLength = parser.getAlignedLength();
+            if (alignedLength > Short.MAX_VALUE)
+                throw new RuntimeException("Aligned length (" + alignedLength + ") too long at line " + parser.getLineNumber() + " in file " + file);
+
+            int totalsOffset = groupTotals.getOffset(datasetIndex, referenceGenomeIndex);
+            counters[totalsOffset + AlignmentSummaryMatrix.ALIGNED_COUNT]++;
+            counters[totalsOffset + AlignmentSummaryMatrix.ALIGNED_SEQUENCE_LENGTH] += alignedLength;
+            counters[totalsOffset + AlignmentSummaryMatrix.MISMATCH_COUNT] += mismatchCount;
+
+            int offset = sequenceId * words;
+            int bestMismatchCount = mismatches[sequenceId];
+            if (mismatchCount < bestMismatchCount)
+            {
+                mismatches[sequenceId] = (byte)mismatchCount;
+                lengths[sequenceId] = (short)alignedLength;
+                for (int i = 0; i < words; i++) masks[offset + i] = 0L;
+                masks[offset + word] = bit;
+            }
+            else if (mismatchCount == bestMismatchCount)
+            {
+                masks[offset + word] |= bit;
+            }
+        }
+
+        parser.close();
+    }
+
+    /**
+     * Writes a partial summary containing the best alignments for each aligned
+     * sequence and the totals of all alignments for each reference genome,
+     * for the datasets in the range being aggregated.
+     *
+     * The summary begins with a header containing the reference genome and
+     * dataset identifiers, followed by a section for each dataset containing
+     * the number of aligned sequences, the totals for each reference genome
+     * and then a record for each aligned sequence giving the sequence
+     * identifier, fewest mismatches, aligned length and bit set of best
+     * aligned reference genomes.
+     *
+     * @param outputStream the output stream
+     * @throws IOException
+     */
+    public void writeSummary(OutputStream outputStream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+
+        out.write(SUMMARY_MAGIC);
+        out.writeInt(SUMMARY_VERSION);
+
+        out.writeInt(referenceGenomeCount);
+        for (String referenceGenomeId : referenceGenomes.getIds())
+        {
+            out.writeUTF(referenceGenomeId);
+        }
+
+        out.writeInt(datasetRangeEnd - datasetRangeStart);
+        for (int datasetIndex = datasetRangeStart; datasetIndex < datasetRangeEnd; datasetIndex++)
+        {
+            out.writeUTF(datasets.getId(datasetIndex));
+        }
+
+        for (int datasetIndex = datasetRangeStart; datasetIndex < datasetRangeEnd; datasetIndex++)
+        {
+            byte[] mismatches = bestMismatchCounts[datasetIndex];
+            short[] lengths = alignedLengths[datasetIndex];
+            long[] masks = bestGenomeMasks[datasetIndex];
+            int capacity = mismatches == null ? 0 : mismatches.length;
+
+            int alignedCount = 0;
+            for (int sequenceId = 1; sequenceId < capacity; sequenceId++)
+            {
+                if (mismatches[sequenceId] != NOT_ALIGNED) alignedCount++;
+            }
+            out.writeInt(alignedCount);
+
+            for (int i = 0; i < referenceGenomeCount; i++)
+            {
+                out.writeLong(totals.get(datasetIndex, i, AlignmentSummaryMatrix.ALIGNED_COUNT));
+                out.writeLong(totals.get(datasetIndex, i, AlignmentSummaryMatrix.ALIGNED_SEQUENCE_LENGTH));
+                out.writeLong(totals.get(datasetIndex, i, AlignmentSummaryMatrix.MISMATCH_COUNT));
+            }
+
+            for (int sequenceId = 1; sequenceId < capacity; sequenceId++)
+            {
+                if (mismatches[sequenceId] == NOT_ALIGNED) continue;
+                out.writeInt(sequenceId);
+                out.writeByte(mismatches[sequenceId]);
+                out.writeShort(lengths[sequenceId]);
+                for (int i = 0; i < words; i++)
+                {
+                    out.writeLong(masks[sequenceId * words + i]);
+                }
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Opens a partial summary file, reading and checking the header.
+     *
+     * @param summaryFile the partial summary file
+     * @return the data input stream positioned after the magic number and version
+     * @throws IOException
+     */
+    private static DataInputStream openSummary(String summaryFile) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(CompressionUtils.openInputStream(new File(summaryFile))));
+        try
+        {
+            readSummaryHeader(in, "file " + summaryFile);
+        }
+        catch (RuntimeException e)
+        {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    /**
+     * Reads and checks the magic number and version at the start of a partial
+     * summary.
+     *
+     * @param in the data input stream
+     * @param source a description of the source of the partial summary, used in error messages
+     * @throws IOException
+     */
+    private static void readSummaryHeader(DataInputStream in, String source) throws IOException
+    {
+        try
+        {
+            for (int i = 0; i < SUMMARY_MAGIC.length; i++)
+            {
+                if (in.readByte() != SUMMARY_MAGIC[i])
+                    throw new RuntimeException("Unrecognized alignment summary format in " + source);
+            }
+            int version = in.readInt();
+            if (version != SUMMARY_VERSION)
+                throw new RuntimeException("Unsupported alignment summary format version (" + version + ") in " + source);
+        }
+        catch (EOFException e)
+        {
+            throw new RuntimeException("Unexpected end of file in alignment summary " + source);
+        }
+    }
+
+    /**
+     * Reads the reference genome identifiers from the header of the given
+     * partial summary file.
+     *
+     * @param summaryFile the partial summary file
+     * @return the reference genome identifiers
+     * @throws IOException
+     */
+    public static List<String> readSummaryReferenceGenomeIds(String summaryFile) throws IOException
+    {
+        try (DataInputStream in = openSummary(summaryFile))
+        {
+            int referenceGenomeCount = in.readInt();
+            List<String> referenceGenomeIds = new ArrayList<String>();
+            for (int i = 0; i < referenceGenomeCount; i++)
+            {
+                referenceGenomeIds.add(in.readUTF());
+            }
+            return referenceGenomeIds;
+        }
+    }
+
+    /**
+     * Merges the best alignments and totals from a partial summary file.
+     *
+     * @param file the partial summary file
+     * @param groupTotals the totals for the group of files
+     * @throws IOException
+     */
+    private void mergeSummary(String file, AlignmentSummaryMatrix groupTotals) throws IOException
+    {
+        try (DataInputStream in = openSummary(file))
+        {
+            mergeSummary(in, "file " + file, groupTotals);
+        }
+    }
+
+    /**
+     * Merges the best alignments and totals from a partial summary, written
+     * using {@link #writeSummary(OutputStream)}, read from the given input
+     * stream, e.g. where a number of partial summaries are held in a single
+     * file. The input stream is left positioned after the partial summary.
+     *
+     * The partial summary is merged directly, so should not contain
+     * alignments for the same sequences as files being aggregated in
+     * parallel.
+     *
+     * @param in the data input stream
+     * @param source a description of the source of the partial summary, used in error messages
+     * @throws IOException
+     */
+    public void mergeSummary(DataInputStream in, String source) throws IOException
+    {
+        allocateDatasetRange();
+        readSummaryHeader(in, source);
+        mergeSummary(in, source, totals);
+    }
+
+    /**
+     * Merges the best alignments and totals from a partial summary, following
+     * the magic number and version.
+     *
+     * @param in the data input stream
+     * @param source a description of the source of the partial summary, used in error messages
+     * @param groupTotals the totals for the group of files
+     * @throws IOException
+     */
+    private void mergeSummary(DataInputStream in, String source, AlignmentSummaryMatrix groupTotals) throws IOException
+    {
+        try
+        {
+            int summaryReferenceGenomeCount = in.readInt();
+            int[] referenceGenomeIndexes = new int[summaryReferenceGenomeCount];
+            for (int i = 0; i < summaryReferenceGenomeCount; i++)
+            {
+                String referenceGenomeId = in.readUTF();
+                referenceGenomeIndexes[i] = referenceGenomes.getCode(referenceGenomeId);
+                if (referenceGenomeIndexes[i] == -1)
+                    throw new RuntimeException("Unexpected reference genome " + referenceGenomeId + " in " + source);
+            }
+            int summaryWords = getWords(summaryReferenceGenomeCount);
+
+            int summaryDatasetCount = in.readInt();
+            int[] datasetIndexes = new int[summaryDatasetCount];
+            for (int i = 0; i < summaryDatasetCount; i++)
+            {
+                String datasetId = in.readUTF();
+                datasetIndexes[i] = datasets.getCode(datasetId);
+                if (datasetIndexes[i] == -1)
+                    throw new RuntimeException("Unexpected dataset " + datasetId + " in " + source);
+            }
+
+            long[] counters = groupTotals.getCounters();
+            long[] summaryMask = new long[summaryWords];
+
+            // sizes of the totals and each record for a dataset, used when
+            // skipping datasets outside the range being aggregated
+            long totalsSize = summaryReferenceGenomeCount * 24L;
+            long recordSize = 7 + summaryWords * 8L;
+
+            for (int d = 0; d < summaryDatasetCount; d++)
+            {
+                int datasetIndex = datasetIndexes[d];
+                int sampledCount = sampledCounts[datasetIndex];
+                int alignedCount = in.readInt();
+
+                if (!isInDatasetRange(datasetIndex))
+                {
+                    skipFully(in, totalsSize + alignedCount * recordSize);
+                    continue;
+                }
+
+                for (int i = 0; i < summaryReferenceGenomeCount; i++)
+                {
+                    int offset = groupTotals.getOffset(datasetIndex, referenceGenomeIndexes[i]);
+                    counters[offset + AlignmentSummaryMatrix.ALIGNED_COUNT] += in.readLong();
+                    counters[offset + AlignmentSummaryMatrix.ALIGNED_SEQUENCE_LENGTH] += in.readLong();
+                    counters[offset + AlignmentSummaryMatrix.MISMATCH_COUNT] += in.readLong();
+                }
+
+                for (int n = 0; n < alignedCount; n++)
+                {
+                    int sequenceId = in.readInt();
+                    int mismatchCount = in.readByte();
+                    int alignedLength = in.readShort();
+                    for (int i = 0; i < summaryWords; i++)
+                    {
+                        summaryMask[i] = in.readLong();
+                    }
+
+                    if (sequenceId < 1 || sequenceId > sampledCount)
+                        throw new RuntimeException("Sequence number " + sequenceId + " for dataset " + datasets.getId(datasetIndex) + " out of range, maximum value should be " + sampledCount + " in " + source);
+
+                    ensureCapacity(datasetIndex, sequenceId);
+                    byte[] mismatches = bestMismatchCounts[datasetIndex];
+                    long[] masks = bestGenomeMasks[datasetIndex];
+                    int offset = sequenceId * words;
+
+                    int bestMismatchCount = mismatches[sequenceId];
+                    if (mismatchCount > bestMismatchCount) continue;
+                    if (mismatchCount < bestMismatchCount)
+                    {
+                        mismatches[sequenceId] = (byte)mismatchCount;
+                        alignedLengths[datasetIndex][sequenceId] = (short)alignedLength;
+                        for (int i = 0; i < words; i++) masks[offset + i] = 0L;
+                    }
+
+                    // map reference genomes from the summary to those for this aggregator
+                    for (int word = 0; word < summaryWords; word++)
+                    {
+                        long mask = summaryMask[word];
+                        while (mask != 0)
+                        {
+                            int referenceGenomeIndex = referenceGenomeIndexes[(word << 6) + Long.numberOfTrailingZeros(mask)];
+                            mask &= mask - 1;
+                            masks[offset + (referenceGenomeIndex >>> 6)] |= 1L << referenceGenomeIndex;
+                        }
+                    }
+                }
+            }
+        }
+        catch (EOFException e)
+        {
+            throw new RuntimeException("Unexpected end of file in alignment summary " + source);
+        }
+    }
+
+    /**
+     * Skips the given number of bytes from the input stream.
+     *
+     * @param in the input stream
+     * @param n the number of bytes to skip
+     * @throws IOException
+     */
+    private static void skipFully(InputStream in, long n) throws IOException
+    {
+        while (n > 0)
+        {
+            long skipped = in.skip(n);
+            if (skipped <= 0)
+            {
+                if (in.read() == -1) throw new EOFException();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Opens a parser for the given alignment file, detecting whether this is
+     * in the binary alignment format or is bowtie text output.
+     *
+     * @param alignmentFile the alignment file
+     * @return the alignment parser
+     * @throws IOException
+     */
+    static AlignmentParser openParser(String alignmentFile) throws IOException
+    {
+        InputStream inputStream = CompressionUtils.openInputStream(new File(alignmentFile));
+        if (BinaryAlignmentWriter.isBinaryAlignmentFormat(inputStream))
+            return new BinaryAlignmentParser(inputStream, "file " + alignmentFile);
+        else
+            return new BowtieAlignmentParser(inputStream, "file " + alignmentFile);
+    }
+
+    /**
+     * Selects the bowtie alignment files from the given results files,
+     * preferring the compact binary format where both binary and text
+     * versions of the same alignment file are present.
+     *
+     * @param resultsFiles the results files
+     * @return the alignment files
+     */
+    public static List<String> selectAlignmentFiles(String[] resultsFiles)
+    {
+        Set<String> binaryAlignmentFiles = new HashSet<String>();
+        for (String resultsFile : resultsFiles)
+        {
+            if (resultsFile.endsWith(ALIGNMENT_FILE_SUFFIX + BinaryAlignmentWriter.FILE_EXTENSION))
+            {
+                binaryAlignmentFiles.add(resultsFile);
+            }
+        }
+        List<String> alignmentFiles = new ArrayList<String>(binaryAlignmentFiles);
+        for (String resultsFile : resultsFiles)
+        {
+            if (resultsFile.endsWith(ALIGNMENT_FILE_SUFFIX) && !binaryAlignmentFiles.contains(resultsFile + BinaryAlignmentWriter.FILE_EXTENSION))
+            {
+                alignmentFiles.add(resultsFile);
+            }
+        }
+        return alignmentFiles;
+    }
+
+    /**
+     * Determines the chunk of sequences and reference genome for the given
+     * alignment file from its name, i.e. runId.chunk.referenceGenomeId.bowtie.alignment,
+     * or the chunk for a partial summary file, i.e. runId.chunk.alignment.summary.
+     *
+     * @param file the alignment or partial summary file
+     * @param runId the run identifier
+     * @return the chunk and the reference genome identifier, which is null for a partial summary file
+     */
+    public static String[] getChunkAndReferenceGenomeId(String file, String runId)
+    {
+        String name = new File(file).getName();
+        if (name.startsWith(runId + ".")) name = name.substring(runId.length() + 1);
+
+        if (name.endsWith(SUMMARY_FILE_SUFFIX))
+        {
+            String chunk = name.substring(0, name.length() - SUMMARY_FILE_SUFFIX.length());
+            if (chunk.isEmpty())
+                throw new RuntimeException("Error determining chunk for file: " + new File(file).getAbsolutePath());
+            return new String[] { chunk, null };
+        }
+
+        if (name.endsWith(BinaryAlignmentWriter.FILE_EXTENSION)) name = name.substring(0, name.length() - BinaryAlignmentWriter.FILE_EXTENSION.length());
+        if (name.endsWith(ALIGNMENT_FILE_SUFFIX)) name = name.substring(0, name.length() - ALIGNMENT_FILE_SUFFIX.length());
+        int index = name.indexOf(".");
+        if (index == -1 || index == name.length() - 1)
+            throw new RuntimeException("Error determining reference genome for file: " + new File(file).getAbsolutePath());
+        return new String[] { name.substring(0, index), name.substring(index + 1) };
+    }
+
+    /**
+     * @return the number of words in the bit set of reference genomes for each sequence
+     */
+    public int getWords()
+    {
+        return words;
+    }
+
+    /**
+     * @param datasetIndex the dataset index
+     * @return the number of sampled sequences for the dataset
+     */
+    public int getSampledCount(int datasetIndex)
+    {
+        return sampledCounts[datasetIndex];
+    }
+
+    /**
+     * @param datasetIndex the dataset index
+     * @param sequenceId the sequence identifier
+     * @return true if the sequence aligned to any reference genome
+     */
+    public boolean isAligned(int datasetIndex, int sequenceId)
+    {
+        return bestMismatchCounts[datasetIndex][sequenceId] != NOT_ALIGNED;
+    }
+
+    /**
+     * @param datasetIndex the dataset index
+     * @param sequenceId the sequence identifier
+     * @return the fewest mismatches with which the sequence aligned
+     */
+    public int getBestMismatchCount(int datasetIndex, int sequenceId)
+    {
+        return bestMismatchCounts[datasetIndex][sequenceId];
+    }
+
+    /**
+     * @param datasetIndex the dataset index
+     * @param sequenceId the sequence identifier
+     * @return the aligned length of the sequence
+     */
+    public int getAlignedLength(int datasetIndex, int sequenceId)
+    {
+        return alignedLengths[datasetIndex][sequenceId];
+    }
+
+    /**
+     * Returns a word from the bit set of reference genomes for which the
+     * given sequence aligned with the fewest mismatches.
+     *
+     * @param datasetIndex the dataset index
+     * @param sequenceId the sequence identifier
+     * @param word the word within the bit set
+     * @return the bits for reference genome indexes 64 * word to 64 * word + 63
+     */
+    public long getBestGenomeMask(int datasetIndex, int sequenceId, int word)
+    {
+        return bestGenomeMasks[datasetIndex][sequenceId * words + word];
+    }
+
+    /**
+     * Returns the totals of all alignments for each dataset and reference
+     * genome, i.e. the aligned count, aligned sequence length and mismatch
+     * count metrics.
+     *
+     * @return the alignment summary matrix of totals
+     */
+    public AlignmentSummaryMatrix getTotals()
+    {
+        return totals;
+    }
+}
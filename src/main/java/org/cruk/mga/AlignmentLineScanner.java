@@ -0,0 +1,340 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Scans lines of alignment output for sampled sequences directly within a
+ * large buffer, parsing the read name at the start of each line into the
+ * dataset identifier and sequence number, separated by the last underscore.
+ *
+ * The bytes of the current line are accessed with {@link #getBuffer()},
+ * {@link #getLineStart()} and {@link #getLineEnd()} so that parsers for
+ * specific alignment formats can extract other fields without creating any
+ * objects for each line. The dataset identifier is only created as a string
+ * on request, e.g. when the dataset changes.
+ */
+public class AlignmentLineScanner
+{
+    private InputStream inputStream;
+    private String source;
+
+    private byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfStream = false;
+
+    private int lineNumber = 0;
+    private int lineStart;
+    private int lineEnd;
+    private int readNameEnd;
+
+    private byte[] datasetId = new byte[64];
+    private int datasetIdLength = -1;
+    private boolean newDataset;
+
+    private int sequenceId;
+
+    /**
+     * Creates a new AlignmentLineScanner for reading from the given stream.
+     *
+     * @param inputStream the input stream
+     * @param source the source of the alignments, e.g. file name, used in error messages
+     * @param bufferSize the initial size of the buffer
+     */
+    public AlignmentLineScanner(InputStream inputStream, String source, int bufferSize)
+    {
+        this.inputStream = inputStream;
+        this.source = source;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads the next line and parses the read name, which ends at the first
+     * tab character or the end of the line.
+     *
+     * @return true if a line was read, false if the end of the stream has been reached
+     * @throws IOException
+     */
+    public boolean nextLine() throws IOException
+    {
+        int start = position;
+        int end = -1;
+
+        while (true)
+        {
+            for (int i = start; i < limit; i++)
+            {
+                if (buffer[i] == '\n')
+                {
+                    end = i;
+                    break;
+                }
+            }
+            if (end != -1) break;
+
+            if (endOfStream)
+            {
+                // last line without a terminating new line
+                if (position == limit) return false;
+                end = limit;
+                break;
+            }
+
+            start = limit - position;
+            fill();
+            start += position;
+        }
+
+        lineNumber++;
+        lineStart = position;
+        position = Math.min(end + 1, limit);
+        if (end > lineStart && buffer[end - 1] == '\r') end--;
+        lineEnd = end;
+
+        parseReadName();
+
+        return true;
+    }
+
+    /**
+     * Moves any unread content to the start of the buffer, growing the buffer
+     * if it is full, and reads more content from the input stream.
+     *
+     * @throws IOException
+     */
+    private void fill() throws IOException
+    {
+        int remaining = limit - position;
+        if (position > 0)
+        {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+            position = 0;
+            limit = remaining;
+        }
+        else if (limit == buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        int n = inputStream.read(buffer, limit, buffer.length - limit);
+        if (n == -1)
+            endOfStream = true;
+        else
+            limit += n;
+    }
+
+    /**
+     * Parses the dataset identifier and sequence number from the read name
+     * of the current line.
+     */
+    private void parseReadName()
+    {
+        readNameEnd = indexOf('\t', lineStart, lineEnd);
+        if (readNameEnd == -1) readNameEnd = lineEnd;
+
+        int separator = readNameEnd - 1;
+        while (separator >= lineStart && buffer[separator] != '_') separator--;
+        if (separator < lineStart || separator == readNameEnd - 1)
+            throw incorrectSequenceIdentifier();
+
+        long value = 0;
+        for (int i = separator + 1; i < readNameEnd; i++)
+        {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9 || (value = value * 10 + digit) > Integer.MAX_VALUE)
+                throw incorrectSequenceIdentifier();
+        }
+        sequenceId = (int)value;
+
+        setDatasetId(lineStart, separator);
+    }
+
+    /**
+     * Records the dataset identifier occupying the given region of the
+     * buffer, noting whether it differs from that of the previous line.
+     *
+     * @param start the start of the dataset identifier
+     * @param end the end of the dataset identifier (exclusive)
+     */
+    private void setDatasetId(int start, int end)
+    {
+        int length = end - start;
+        newDataset = length != datasetIdLength;
+        if (!newDataset)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                if (datasetId[i] != buffer[start + i])
+                {
+                    newDataset = true;
+                    break;
+                }
+            }
+        }
+        if (newDataset)
+        {
+            if (length > datasetId.length) datasetId = new byte[Math.max(length, 2 * datasetId.length)];
+            System.arraycopy(buffer, start, datasetId, 0, length);
+            datasetIdLength = length;
+        }
+    }
+
+    private RuntimeException incorrectSequenceIdentifier()
+    {
+        return error("Incorrect sequence identifier (" + text(lineStart, readNameEnd) + ")");
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given character within
+     * the given region of the buffer.
+     *
+     * @param c the character
+     * @param start the start of the region
+     * @param end the end of the region (exclusive)
+     * @return the index or -1 if not found
+     */
+    public int indexOf(char c, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (buffer[i] == c) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the text occupying the given region of the buffer.
+     *
+     * @param start the start of the region
+     * @param end the end of the region (exclusive)
+     * @return the text
+     */
+    public String text(int start, int end)
+    {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates an exception for an error in the current line, appending the
+     * line number and source to the given message.
+     *
+     * @param message the error message
+     * @return the exception
+     */
+    public RuntimeException error(String message)
+    {
+        return new RuntimeException(message + " at line " + lineNumber + " in " + source);
+    }
+
+    /**
+     * @return the buffer containing the current line
+     */
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * @return the start of the current line within the buffer
+     */
+    public int getLineStart()
+    {
+        return lineStart;
+    }
+
+    /**
+     * @return the end of the current line within the buffer (exclusive), excluding any line terminator
+     */
+    public int getLineEnd()
+    {
+        return lineEnd;
+    }
+
+    /**
+     * @return the end of the read name within the buffer (exclusive), i.e. the position of the first tab or the end of the line
+     */
+    public int getReadNameEnd()
+    {
+        return readNameEnd;
+    }
+
+    /**
+     * @return true if the dataset of the current line differs from that of the previous line
+     */
+    public boolean isNewDataset()
+    {
+        return newDataset;
+    }
+
+    /**
+     * @return the dataset identifier for the current line
+     */
+    public String getDatasetId()
+    {
+        return new String(datasetId, 0, datasetIdLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the code for the dataset of the current line from the given
+     * dictionary, without creating a string for the dataset identifier.
+     *
+     * @param datasets the dictionary of dataset identifiers
+     * @return the dataset code or -1 if not present in the dictionary
+     */
+    public int getDatasetCode(IdDictionary datasets)
+    {
+        return datasets.getCode(datasetId, 0, datasetIdLength);
+    }
+
+    /**
+     * @return the sequence number for the current line
+     */
+    public int getSequenceId()
+    {
+        return sequenceId;
+    }
+
+    /**
+     * @return the number of the current line
+     */
+    public int getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    /**
+     * Closes the input stream.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        inputStream.close();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface for parsers that read alignments of sampled sequences to a
+ * reference genome, providing only those fields needed for the MGA report.
+ */
+public interface AlignmentParser extends Closeable
+{
+    /**
+     * Parses the next alignment.
+     *
+     * @return true if an alignment was read, false if the end of the stream has been reached
+     * @throws IOException
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return true if the dataset of the current alignment differs from that of the previous alignment
+     */
+    boolean isNewDataset();
+
+    /**
+     * Returns the dataset identifier for the current alignment; this may
+     * create a new string so should only be called when the dataset changes.
+     *
+     * @return the dataset identifier
+     */
+    String getDatasetId();
+
+    /**
+     * Returns the code for the dataset of the current alignment from the
+     * given dictionary, without creating a string for the dataset identifier.
+     * The same dictionary should be used for all alignments read by a parser.
+     *
+     * @param datasets the dictionary of dataset identifiers
+     * @return the dataset code or -1 if not present in the dictionary
+     */
+    int getDatasetCode(IdDictionary datasets);
+
+    /**
+     * @return the sequence identifier for the current alignment
+     */
+    int getSequenceId();
+
+    /**
+     * @return the aligned length for the current alignment
+     */
+    int getAlignedLength();
+
+    /**
+     * @return the number of mismatches for the current alignment
+     */
+    int getMismatchCount();
+
+    /**
+     * @return the line or record number of the current alignment
+     */
+    int getLineNumber();
+}
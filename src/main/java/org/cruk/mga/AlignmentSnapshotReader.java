@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cruk.util.CompressionUtils;
+
+/**
+ * Reads a snapshot of the aggregated alignments for a run written by
+ * {@link AlignmentSnapshotWriter}.
+ *
+ * The header is read when the reader is created. The best alignments and
+ * totals are merged into an {@link AlignmentAggregator} in a separate pass
+ * over the snapshot for each partition of the datasets being summarized, so
+ * these need not be partitioned in the same way as when the snapshot was
+ * written.
+ */
+public class AlignmentSnapshotReader
+{
+    private File file;
+    private List<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries = new ArrayList<MultiGenomeAlignmentSummary>();
+    private List<String> referenceGenomeIds = new ArrayList<String>();
+    private int partitionCount;
+
+    /**
+     * Creates a new AlignmentSnapshotReader, reading the header of the given
+     * snapshot file.
+     *
+     * @param file the snapshot file
+     * @throws IOException
+     */
+    public AlignmentSnapshotReader(File file) throws IOException
+    {
+        this.file = file;
+        try (DataInputStream in = new DataInputStream(CompressionUtils.openInputStream(file)))
+        {
+            readHeader(in, true);
+        }
+    }
+
+    /**
+     * Reads the snapshot header.
+     *
+     * @param in the data input stream
+     * @param store whether to store the dataset counts and reference genome identifiers or skip over these
+     * @throws IOException
+     */
+    private void readHeader(DataInputStream in, boolean store) throws IOException
+    {
+        try
+        {
+            for (int i = 0; i < AlignmentSnapshotWriter.MAGIC.length; i++)
+            {
+                if (in.readByte() != AlignmentSnapshotWriter.MAGIC[i])
+                    throw new RuntimeException("Unrecognized alignment snapshot format in file " + file);
+            }
+            int version = in.readInt();
+            if (version != AlignmentSnapshotWriter.VERSION)
+                throw new RuntimeException("Unsupported alignment snapshot format version (" + version + ") in file " + file);
+
+            int datasetCount = in.readInt();
+            for (int i = 0; i < datasetCount; i++)
+            {
+                String datasetId = in.readUTF();
+                long sequenceCount = in.readLong();
+                int sampledCount = in.readInt();
+                int adapterCount = in.readInt();
+                if (store)
+                {
+                    MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = new MultiGenomeAlignmentSummary();
+                    multiGenomeAlignmentSummary.setDatasetId(datasetId);
+                    multiGenomeAlignmentSummary.setSequenceCount(sequenceCount);
+                    multiGenomeAlignmentSummary.setSampledCount(sampledCount);
+                    multiGenomeAlignmentSummary.setAdapterCount(adapterCount);
+                    multiGenomeAlignmentSummaries.add(multiGenomeAlignmentSummary);
+                }
+            }
+
+            int referenceGenomeCount = in.readInt();
+            for (int i = 0; i < referenceGenomeCount; i++)
+            {
+                String referenceGenomeId = in.readUTF();
+                if (store) referenceGenomeIds.add(referenceGenomeId);
+            }
+
+            partitionCount = in.readInt();
+        }
+        catch (EOFException e)
+        {
+            throw new RuntimeException("Unexpected end of file in alignment snapshot file " + file);
+        }
+    }
+
+    /**
+     * @return new multi-genome alignment summaries for each dataset, containing the sequence, sampled and adapter counts
+     */
+    public List<MultiGenomeAlignmentSummary> getMultiGenomeAlignmentSummaries()
+    {
+        return multiGenomeAlignmentSummaries;
+    }
+
+    /**
+     * @return the reference genome identifiers
+     */
+    public List<String> getReferenceGenomeIds()
+    {
+        return referenceGenomeIds;
+    }
+
+    /**
+     * Merges the best alignments and totals for the datasets in the range
+     * being aggregated by the given aggregator.
+     *
+     * @param aggregator the alignment aggregator
+     * @throws IOException
+     */
+    public void merge(AlignmentAggregator aggregator) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(CompressionUtils.openInputStream(file)))
+        {
+            readHeader(in, false);
+            for (int i = 0; i < partitionCount; i++)
+            {
+                aggregator.mergeSummary(in, "partition " + (i + 1) + " of snapshot file " + file);
+            }
+        }
+    }
+}
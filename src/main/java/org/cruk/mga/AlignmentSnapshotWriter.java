@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a snapshot of the aggregated alignments for a run, from which the
+ * alignment summaries and reports can be recreated without rereading the
+ * alignment files, e.g. after changing the expected species for datasets in
+ * the sample sheet or the plot width.
+ *
+ * The snapshot begins with the magic number "MGAR", the format version, the
+ * sequence, sampled and adapter counts for each dataset, the reference genome
+ * identifiers and the number of partitions of the datasets. This is followed
+ * by a partial summary, as written by
+ * {@link AlignmentAggregator#writeSummary(OutputStream)}, containing the best
+ * alignments for each aligned sequence and the totals for the datasets in
+ * each partition.
+ */
+public class AlignmentSnapshotWriter implements Closeable
+{
+    public static final byte[] MAGIC = new byte[] { 'M', 'G', 'A', 'R' };
+    public static final int VERSION = 1;
+
+    private DataOutputStream out;
+
+    /**
+     * Creates a new AlignmentSnapshotWriter, writing the header.
+     *
+     * @param outputStream the output stream
+     * @param datasetSummaries the multi-genome alignment summary for each dataset, ordered by dataset index
+     * @param referenceGenomes the dictionary of reference genome identifiers
+     * @param partitionCount the number of partitions of the datasets that will be written
+     * @throws IOException
+     */
+    public AlignmentSnapshotWriter(OutputStream outputStream, MultiGenomeAlignmentSummary[] datasetSummaries, IdDictionary referenceGenomes, int partitionCount) throws IOException
+    {
+        out = new DataOutputStream(outputStream);
+
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+
+        out.writeInt(datasetSummaries.length);
+        for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : datasetSummaries)
+        {
+            out.writeUTF(multiGenomeAlignmentSummary.getDatasetId());
+            out.writeLong(multiGenomeAlignmentSummary.getSequenceCount());
+            out.writeInt(multiGenomeAlignmentSummary.getSampledCount());
+            out.writeInt(multiGenomeAlignmentSummary.getAdapterCount());
+        }
+
+        out.writeInt(referenceGenomes.size());
+        for (String referenceGenomeId : referenceGenomes.getIds())
+        {
+            out.writeUTF(referenceGenomeId);
+        }
+
+        out.writeInt(partitionCount);
+    }
+
+    /**
+     * Writes the best alignments and totals for the partition of datasets
+     * currently being aggregated by the given aggregator.
+     *
+     * @param aggregator the alignment aggregator
+     * @throws IOException
+     */
+    public void writePartition(AlignmentAggregator aggregator) throws IOException
+    {
+        aggregator.writeSummary(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
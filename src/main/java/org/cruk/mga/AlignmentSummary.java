@@ -23,6 +23,8 @@
 
 package org.cruk.mga;
 
+import static org.cruk.mga.AlignmentSummaryMatrix.*;
+
 import java.io.Serializable;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -32,25 +34,41 @@ import org.apache.commons.lang3.builder.ToStringStyle;
  * Class used to represent the summary of an alignment of a sequence
  * dataset against a specific reference genome.
  *
+ * The counters are held in an {@link AlignmentSummaryMatrix}, shared by the
+ * alignment summaries for all datasets and reference genomes in a run, with
+ * each alignment summary providing a view of its block of counters.
+ *
  * @author eldrid01
  */
 public class AlignmentSummary implements Serializable
 {
-    private static final long serialVersionUID = 1121576146340427575L;
+    private static final long serialVersionUID = -6248016471405925182L;
 
     private String referenceGenomeId;
-    private int alignedCount = 0;
-    private int totalAlignedSequenceLength = 0;
-    private int totalMismatchCount = 0;
-    private int uniquelyAlignedCount = 0;
-    private int totalUniquelyAlignedSequenceLength = 0;
-    private int totalUniquelyAlignedMismatchCount = 0;
-    private int preferentiallyAlignedCount = 0;
-    private int totalPreferentiallyAlignedSequenceLength = 0;
-    private int totalPreferentiallyAlignedMismatchCount = 0;
-    private int assignedCount = 0;
-    private int totalAssignedSequenceLength = 0;
-    private int totalAssignedMismatchCount = 0;
+    private long[] counters;
+    private int offset;
+
+    /**
+     * Creates a new AlignmentSummary with its own counters.
+     */
+    public AlignmentSummary()
+    {
+        this(new AlignmentSummaryMatrix(1, 1), 0, 0);
+    }
+
+    /**
+     * Creates a new AlignmentSummary backed by the counters for the given
+     * dataset and reference genome within an alignment summary matrix.
+     *
+     * @param matrix the alignment summary matrix
+     * @param datasetIndex the dataset index
+     * @param referenceGenomeIndex the reference genome index
+     */
+    public AlignmentSummary(AlignmentSummaryMatrix matrix, int datasetIndex, int referenceGenomeIndex)
+    {
+        counters = matrix.getCounters();
+        offset = matrix.getOffset(datasetIndex, referenceGenomeIndex);
+    }
 
     /**
      * @return the referenceGenomeId
@@ -73,7 +91,7 @@ public class AlignmentSummary implements Serializable
      */
     public int getAlignedCount()
     {
-        return alignedCount;
+        return (int)counters[offset + ALIGNED_COUNT];
     }
 
     /**
@@ -81,15 +99,25 @@ public class AlignmentSummary implements Serializable
      */
     public void incrementAlignedCount()
     {
-        alignedCount++;
+        counters[offset + ALIGNED_COUNT]++;
+    }
+
+    /**
+     * Adds the given number of aligned sequences to the aligned sequence count.
+     *
+     * @param count the number of aligned sequences.
+     */
+    public void addAlignedCount(int count)
+    {
+        counters[offset + ALIGNED_COUNT] += count;
     }
 
     /**
      * @return the total aligned sequence length.
      */
-    public int getTotalAlignedSequenceLength()
+    public long getTotalAlignedSequenceLength()
     {
-        return totalAlignedSequenceLength;
+        return counters[offset + ALIGNED_SEQUENCE_LENGTH];
     }
 
     /**
@@ -99,15 +127,15 @@ public class AlignmentSummary implements Serializable
      */
     public void addAlignedSequenceLength(int alignedSequenceLength)
     {
-        totalAlignedSequenceLength += alignedSequenceLength;
+        counters[offset + ALIGNED_SEQUENCE_LENGTH] += alignedSequenceLength;
     }
 
     /**
      * @return the total number of mismatches in aligned sequences.
      */
-    public int getTotalMismatchCount()
+    public long getTotalMismatchCount()
     {
-        return totalMismatchCount;
+        return counters[offset + MISMATCH_COUNT];
     }
 
     /**
@@ -117,7 +145,7 @@ public class AlignmentSummary implements Serializable
      */
     public void addMismatchCount(int mismatchCount)
     {
-        totalMismatchCount += mismatchCount;
+        counters[offset + MISMATCH_COUNT] += mismatchCount;
     }
 
     /**
@@ -125,7 +153,7 @@ public class AlignmentSummary implements Serializable
      */
     public float getErrorRate()
     {
-        return totalAlignedSequenceLength == 0 ? 0.0f : (float)totalMismatchCount / totalAlignedSequenceLength;
+        return getTotalAlignedSequenceLength() == 0 ? 0.0f : (float)getTotalMismatchCount() / getTotalAlignedSequenceLength();
     }
 
     /**
@@ -133,7 +161,7 @@ public class AlignmentSummary implements Serializable
      */
     public int getUniquelyAlignedCount()
     {
-        return uniquelyAlignedCount;
+        return (int)counters[offset + UNIQUELY_ALIGNED_COUNT];
     }
 
     /**
@@ -141,15 +169,15 @@ public class AlignmentSummary implements Serializable
      */
     public void incrementUniquelyAlignedCount()
     {
-        uniquelyAlignedCount++;
+        counters[offset + UNIQUELY_ALIGNED_COUNT]++;
     }
 
     /**
      * @return the total uniquely aligned sequence length.
      */
-    public int getTotalUniquelyAlignedSequenceLength()
+    public long getTotalUniquelyAlignedSequenceLength()
     {
-        return totalUniquelyAlignedSequenceLength;
+        return counters[offset + UNIQUELY_ALIGNED_SEQUENCE_LENGTH];
     }
 
     /**
@@ -159,15 +187,15 @@ public class AlignmentSummary implements Serializable
      */
     public void addUniquelyAlignedSequenceLength(int alignedLength)
     {
-        totalUniquelyAlignedSequenceLength += alignedLength;
+        counters[offset + UNIQUELY_ALIGNED_SEQUENCE_LENGTH] += alignedLength;
     }
 
     /**
      * @return the total number of mismatches in uniquely aligned sequences.
      */
-    public int getTotalUniquelyAlignedMismatchCount()
+    public long getTotalUniquelyAlignedMismatchCount()
     {
-        return totalUniquelyAlignedMismatchCount;
+        return counters[offset + UNIQUELY_ALIGNED_MISMATCH_COUNT];
     }
 
     /**
@@ -177,7 +205,7 @@ public class AlignmentSummary implements Serializable
      */
     public void addUniquelyAlignedMismatchCount(int mismatchCount)
     {
-        totalUniquelyAlignedMismatchCount += mismatchCount;
+        counters[offset + UNIQUELY_ALIGNED_MISMATCH_COUNT] += mismatchCount;
     }
 
     /**
@@ -185,7 +213,7 @@ public class AlignmentSummary implements Serializable
      */
     public float getUniquelyAlignedErrorRate()
     {
-        return totalUniquelyAlignedSequenceLength == 0 ? 0.0f : (float)totalUniquelyAlignedMismatchCount / totalUniquelyAlignedSequenceLength;
+        return getTotalUniquelyAlignedSequenceLength() == 0 ? 0.0f : (float)getTotalUniquelyAlignedMismatchCount() / getTotalUniquelyAlignedSequenceLength();
     }
 
 
@@ -194,7 +222,7 @@ public class AlignmentSummary implements Serializable
      */
     public int getPreferentiallyAlignedCount()
     {
-        return preferentiallyAlignedCount;
+        return (int)counters[offset + PREFERENTIALLY_ALIGNED_COUNT];
     }
 
     /**
@@ -202,15 +230,15 @@ public class AlignmentSummary implements Serializable
      */
     public void incrementPreferentiallyAlignedCount()
     {
-        preferentiallyAlignedCount++;
+        counters[offset + PREFERENTIALLY_ALIGNED_COUNT]++;
     }
 
     /**
      * @return the total preferentially aligned sequence length.
      */
-    public int getTotalPreferentiallyAlignedSequenceLength()
+    public long getTotalPreferentiallyAlignedSequenceLength()
     {
-        return totalPreferentiallyAlignedSequenceLength;
+        return counters[offset + PREFERENTIALLY_ALIGNED_SEQUENCE_LENGTH];
     }
 
     /**
@@ -220,15 +248,15 @@ public class AlignmentSummary implements Serializable
      */
     public void addPreferentiallyAlignedSequenceLength(int alignedLength)
     {
-        totalPreferentiallyAlignedSequenceLength += alignedLength;
+        counters[offset + PREFERENTIALLY_ALIGNED_SEQUENCE_LENGTH] += alignedLength;
     }
 
     /**
      * @return the total number of mismatches in preferentially aligned sequences.
      */
-    public int getTotalPreferentiallyAlignedMismatchCount()
+    public long getTotalPreferentiallyAlignedMismatchCount()
     {
-        return totalPreferentiallyAlignedMismatchCount;
+        return counters[offset + PREFERENTIALLY_ALIGNED_MISMATCH_COUNT];
     }
 
     /**
@@ -238,7 +266,7 @@ public class AlignmentSummary implements Serializable
      */
     public void addPreferentiallyAlignedMismatchCount(int mismatchCount)
     {
-        totalPreferentiallyAlignedMismatchCount += mismatchCount;
+        counters[offset + PREFERENTIALLY_ALIGNED_MISMATCH_COUNT] += mismatchCount;
     }
 
     /**
@@ -246,7 +274,7 @@ public class AlignmentSummary implements Serializable
      */
     public float getPreferentiallyAlignedErrorRate()
     {
-        return totalPreferentiallyAlignedSequenceLength == 0 ? 0.0f : (float)totalPreferentiallyAlignedMismatchCount / totalPreferentiallyAlignedSequenceLength;
+        return getTotalPreferentiallyAlignedSequenceLength() == 0 ? 0.0f : (float)getTotalPreferentiallyAlignedMismatchCount() / getTotalPreferentiallyAlignedSequenceLength();
     }
 
     /**
@@ -254,7 +282,7 @@ public class AlignmentSummary implements Serializable
      */
     public int getAssignedCount()
     {
-        return assignedCount;
+        return (int)counters[offset + ASSIGNED_COUNT];
     }
 
     /**
@@ -262,15 +290,15 @@ public class AlignmentSummary implements Serializable
      */
     public void incrementAssignedCount()
     {
-        assignedCount++;
+        counters[offset + ASSIGNED_COUNT]++;
     }
 
     /**
      * @return the total assigned sequence length.
      */
-    public int getTotalAssignedSequenceLength()
+    public long getTotalAssignedSequenceLength()
     {
-        return totalAssignedSequenceLength;
+        return counters[offset + ASSIGNED_SEQUENCE_LENGTH];
     }
 
     /**
@@ -280,15 +308,15 @@ public class AlignmentSummary implements Serializable
      */
     public void addAssignedSequenceLength(int alignedLength)
     {
-        totalAssignedSequenceLength += alignedLength;
+        counters[offset + ASSIGNED_SEQUENCE_LENGTH] += alignedLength;
     }
 
     /**
      * @return the total number of mismatches in assigned sequences.
      */
-    public int getTotalAssignedMismatchCount()
+    public long getTotalAssignedMismatchCount()
     {
-        return totalAssignedMismatchCount;
+        return counters[offset + ASSIGNED_MISMATCH_COUNT];
     }
 
     /**
@@ -298,7 +326,7 @@ public class AlignmentSummary implements Serializable
      */
     public void addAssignedMismatchCount(int mismatchCount)
     {
-        totalAssignedMismatchCount += mismatchCount;
+        counters[offset + ASSIGNED_MISMATCH_COUNT] += mismatchCount;
     }
 
     /**
@@ -306,7 +334,21 @@ public class AlignmentSummary implements Serializable
      */
     public float getAssignedErrorRate()
     {
-        return totalAssignedSequenceLength == 0 ? 0.0f : (float)totalAssignedMismatchCount / totalAssignedSequenceLength;
+        return getTotalAssignedSequenceLength() == 0 ? 0.0f : (float)getTotalAssignedMismatchCount() / getTotalAssignedSequenceLength();
+    }
+
+    /**
+     * Adds the counts from the given alignment summary, e.g. one accumulated
+     * separately by another thread, to this one.
+     *
+     * @param alignmentSummary the alignment summary to merge.
+     */
+    public void merge(AlignmentSummary alignmentSummary)
+    {
+        for (int i = 0; i < METRIC_COUNT; i++)
+        {
+            counters[offset + i] += alignmentSummary.counters[alignmentSummary.offset + i];
+        }
     }
 
     @Override
@@ -314,7 +356,7 @@ public class AlignmentSummary implements Serializable
     {
         ToStringBuilder sb = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE);
         sb.append("referenceGenomeId", referenceGenomeId);
-        sb.append("alignedCount", alignedCount);
+        sb.append("alignedCount", getAlignedCount());
         return sb.toString();
     }
 }
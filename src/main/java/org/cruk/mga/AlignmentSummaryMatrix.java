@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.Serializable;
+
+/**
+ * Dense matrix of alignment summary counters indexed by dataset, reference
+ * genome and metric, held in a single primitive array that backs the
+ * {@link AlignmentSummary} instances for a run.
+ *
+ * The counters for a dataset and reference genome are contiguous, starting at
+ * the offset given by {@link #getOffset(int, int)}, with the metric constants
+ * giving the position of each counter within that block.
+ *
+ * A matrix can hold rows for a range of datasets only, e.g. for a worker
+ * accumulating counts for a partition of the datasets, in which case it is
+ * still indexed by dataset index and can be merged into a matrix holding
+ * rows for all datasets.
+ */
+public class AlignmentSummaryMatrix implements Serializable
+{
+    private static final long serialVersionUID = -3197463905170520337L;
+
+    public static final int ALIGNED_COUNT = 0;
+    public static final int ALIGNED_SEQUENCE_LENGTH = 1;
+    public static final int MISMATCH_COUNT = 2;
+    public static final int UNIQUELY_ALIGNED_COUNT = 3;
+    public static final int UNIQUELY_ALIGNED_SEQUENCE_LENGTH = 4;
+    public static final int UNIQUELY_ALIGNED_MISMATCH_COUNT = 5;
+    public static final int PREFERENTIALLY_ALIGNED_COUNT = 6;
+    public static final int PREFERENTIALLY_ALIGNED_SEQUENCE_LENGTH = 7;
+    public static final int PREFERENTIALLY_ALIGNED_MISMATCH_COUNT = 8;
+    public static final int ASSIGNED_COUNT = 9;
+    public static final int ASSIGNED_SEQUENCE_LENGTH = 10;
+    public static final int ASSIGNED_MISMATCH_COUNT = 11;
+
+    public static final int METRIC_COUNT = 12;
+
+    private int datasetStart;
+    private int datasetCount;
+    private int referenceGenomeCount;
+    private long[] counters;
+
+    /**
+     * Creates a new AlignmentSummaryMatrix with all counters set to zero.
+     *
+     * @param datasetCount the number of datasets
+     * @param referenceGenomeCount the number of reference genomes
+     */
+    public AlignmentSummaryMatrix(int datasetCount, int referenceGenomeCount)
+    {
+        this(0, datasetCount, referenceGenomeCount);
+    }
+
+    /**
+     * Creates a new AlignmentSummaryMatrix with all counters set to zero,
+     * holding rows for datasets with indexes in the given range only.
+     *
+     * @param datasetStart the first dataset index in the range
+     * @param datasetEnd the dataset index following the last in the range
+     * @param referenceGenomeCount the number of reference genomes
+     */
+    public AlignmentSummaryMatrix(int datasetStart, int datasetEnd, int referenceGenomeCount)
+    {
+        this.datasetStart = datasetStart;
+        this.datasetCount = datasetEnd - datasetStart;
+        this.referenceGenomeCount = referenceGenomeCount;
+        counters = new long[datasetCount * referenceGenomeCount * METRIC_COUNT];
+    }
+
+    /**
+     * @return the first dataset index for which counters are held
+     */
+    public int getDatasetStart()
+    {
+        return datasetStart;
+    }
+
+    /**
+     * @return the number of datasets for which counters are held
+     */
+    public int getDatasetCount()
+    {
+        return datasetCount;
+    }
+
+    /**
+     * @return the number of reference genomes
+     */
+    public int getReferenceGenomeCount()
+    {
+        return referenceGenomeCount;
+    }
+
+    /**
+     * Returns the offset of the block of counters for the given dataset and
+     * reference genome within the array returned by {@link #getCounters()}.
+     *
+     * @param datasetIndex the dataset index
+     * @param referenceGenomeIndex the reference genome index
+     * @return the offset
+     */
+    public int getOffset(int datasetIndex, int referenceGenomeIndex)
+    {
+        return ((datasetIndex - datasetStart) * referenceGenomeCount + referenceGenomeIndex) * METRIC_COUNT;
+    }
+
+    /**
+     * Returns the backing array of counters, for use in update loops.
+     *
+     * @return the counters
+     */
+    public long[] getCounters()
+    {
+        return counters;
+    }
+
+    /**
+     * @param datasetIndex the dataset index
+     * @param referenceGenomeIndex the reference genome index
+     * @param metric the metric
+     * @return the counter for the given dataset, reference genome and metric
+     */
+    public long get(int datasetIndex, int referenceGenomeIndex, int metric)
+    {
+        return counters[getOffset(datasetIndex, referenceGenomeIndex) + metric];
+    }
+
+    /**
+     * Adds the given value to the counter for the given dataset, reference
+     * genome and metric.
+     *
+     * @param datasetIndex the dataset index
+     * @param referenceGenomeIndex the reference genome index
+     * @param metric the metric
+     * @param value the value to add
+     */
+    public void add(int datasetIndex, int referenceGenomeIndex, int metric, long value)
+    {
+        counters[getOffset(datasetIndex, referenceGenomeIndex) + metric] += value;
+    }
+
+    /**
+     * Adds all counters from the given matrix, which must have the same
+     * number of reference genomes and hold rows for a range of datasets
+     * within that of this matrix, to this one.
+     *
+     * Counters are otherwise updated without synchronization, so workers in
+     * parallel aggregation should each accumulate counts in a private matrix
+     * and merge this into a shared matrix on completion; merging is
+     * synchronized on this matrix for that purpose.
+     *
+     * @param matrix the matrix to merge
+     */
+    public synchronized void merge(AlignmentSummaryMatrix matrix)
+    {
+        if (matrix.referenceGenomeCount != referenceGenomeCount
+                || matrix.datasetStart < datasetStart
+                || matrix.datasetStart + matrix.datasetCount > datasetStart + datasetCount)
+            throw new IllegalArgumentException("Cannot merge alignment summary matrices with different dimensions");
+        long[] other = matrix.counters;
+        int offset = matrix.datasetCount == 0 ? 0 : getOffset(matrix.datasetStart, 0);
+        for (int i = 0; i < other.length; i++)
+        {
+            counters[offset + i] += other[i];
+        }
+    }
+
+    /**
+     * @return a copy of this matrix
+     */
+    public AlignmentSummaryMatrix copy()
+    {
+        AlignmentSummaryMatrix copy = new AlignmentSummaryMatrix(datasetStart, datasetStart + datasetCount, referenceGenomeCount);
+        System.arraycopy(counters, 0, copy.counters, 0, counters.length);
+        return copy;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser for alignments in the compact binary format written by
+ * {@link BinaryAlignmentWriter}.
+ */
+public class BinaryAlignmentParser implements AlignmentParser
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private InputStream inputStream;
+    private String source;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    private int recordNumber = 0;
+
+    private List<String> datasetIds = new ArrayList<String>();
+    private int[] datasetCodes = new int[0];
+    private int datasetOrdinal = -1;
+    private boolean newDataset;
+
+    private int sequenceId;
+    private int alignedLength;
+    private int mismatchCount;
+
+    /**
+     * Creates a new BinaryAlignmentParser for reading from the given stream,
+     * reading and checking the header.
+     *
+     * @param inputStream the input stream
+     * @param source the source of the alignments, e.g. file name, used in error messages
+     * @throws IOException
+     */
+    public BinaryAlignmentParser(InputStream inputStream, String source) throws IOException
+    {
+        this.inputStream = inputStream;
+        this.source = source;
+
+        for (int i = 0; i < BinaryAlignmentWriter.MAGIC.length; i++)
+        {
+            if (readByte() != BinaryAlignmentWriter.MAGIC[i])
+                throw new RuntimeException("Unrecognized binary alignment format in " + source);
+        }
+        int version = readVarint();
+        if (version != BinaryAlignmentWriter.VERSION)
+            throw new RuntimeException("Unsupported binary alignment format version (" + version + ") in " + source);
+    }
+
+    @Override
+    public boolean next() throws IOException
+    {
+        if (position == limit)
+        {
+            fill();
+            if (position == limit) return false;
+        }
+
+        recordNumber++;
+
+        int ordinal = readVarint();
+        if (ordinal == datasetIds.size())
+        {
+            int length = readVarint();
+            if (length < 0 || length > BinaryAlignmentWriter.MAX_DATASET_ID_LENGTH)
+                throw new IOException("Invalid dataset identifier length (" + length + ") at record " + recordNumber + " in " + source);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = readByte();
+            datasetIds.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        else if (ordinal > datasetIds.size())
+        {
+            throw new RuntimeException("Invalid dataset ordinal (" + ordinal + ") at record " + recordNumber + " in " + source);
+        }
+        newDataset = ordinal != datasetOrdinal;
+        datasetOrdinal = ordinal;
+
+        sequenceId = readVarint();
+        alignedLength = readVarint();
+        mismatchCount = readVarint();
+
+        return true;
+    }
+
+    private int readVarint() throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            byte b = readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new RuntimeException("Malformed integer at record " + recordNumber + " in " + source);
+    }
+
+    private byte readByte() throws IOException
+    {
+        if (position == limit)
+        {
+            fill();
+            if (position == limit)
+                throw new RuntimeException("Unexpected end of file at record " + recordNumber + " in " + source);
+        }
+        return buffer[position++];
+    }
+
+    private void fill() throws IOException
+    {
+        position = 0;
+        limit = 0;
+        int n = inputStream.read(buffer, 0, buffer.length);
+        if (n > 0) limit = n;
+    }
+
+    @Override
+    public boolean isNewDataset()
+    {
+        return newDataset;
+    }
+
+    @Override
+    public String getDatasetId()
+    {
+        return datasetIds.get(datasetOrdinal);
+    }
+
+    @Override
+    public int getDatasetCode(IdDictionary datasets)
+    {
+        // dataset codes are resolved once for each ordinal in the file
+        if (datasetCodes.length < datasetIds.size())
+        {
+            int resolved = datasetCodes.length;
+            datasetCodes = Arrays.copyOf(datasetCodes, datasetIds.size());
+            for (int i = resolved; i < datasetCodes.length; i++)
+            {
+                datasetCodes[i] = datasets.getCode(datasetIds.get(i));
+            }
+        }
+        return datasetCodes[datasetOrdinal];
+    }
+
+    @Override
+    public int getSequenceId()
+    {
+        return sequenceId;
+    }
+
+    @Override
+    public int getAlignedLength()
+    {
+        return alignedLength;
+    }
+
+    @Override
+    public int getMismatchCount()
+    {
+        return mismatchCount;
+    }
+
+    @Override
+    public int getLineNumber()
+    {
+        return recordNumber;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        inputStream.close();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writer for the compact binary alignment format containing only those fields
+ * of bowtie alignments that are used in creating the MGA report.
+ *
+ * The format consists of a header containing the magic bytes MGAB and a format
+ * version, followed by a record for each alignment made up of the following
+ * variable-length encoded unsigned integers: dataset ordinal, sequence
+ * identifier, aligned length and number of mismatches. Datasets are numbered
+ * in the order in which they first appear; the first record for each dataset
+ * has its identifier, a length-prefixed UTF-8 string of at most
+ * {@link #MAX_DATASET_ID_LENGTH} bytes, inserted after the dataset ordinal.
+ */
+public class BinaryAlignmentWriter implements Closeable
+{
+    public static final byte[] MAGIC = new byte[] { 'M', 'G', 'A', 'B' };
+    public static final int VERSION = 1;
+
+    public static final String FILE_EXTENSION = ".bin";
+
+    public static final int MAX_DATASET_ID_LENGTH = 4096;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private OutputStream outputStream;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int count = 0;
+
+    private Map<String, Integer> datasetOrdinals = new HashMap<String, Integer>();
+    private String datasetId;
+    private int datasetOrdinal;
+
+    /**
+     * Creates a new BinaryAlignmentWriter, writing the header to the given
+     * output stream.
+     *
+     * @param outputStream the output stream
+     * @throws IOException
+     */
+    public BinaryAlignmentWriter(OutputStream outputStream) throws IOException
+    {
+        this.outputStream = outputStream;
+        System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+        count = MAGIC.length;
+        writeVarint(VERSION);
+    }
+
+    /**
+     * Sets the dataset for subsequent alignments.
+     *
+     * @param datasetId the dataset identifier
+     */
+    public void setDatasetId(String datasetId)
+    {
+        this.datasetId = datasetId;
+        Integer ordinal = datasetOrdinals.get(datasetId);
+        datasetOrdinal = ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Writes an alignment for the current dataset.
+     *
+     * @param sequenceId the sequence identifier
+     * @param alignedLength the aligned length
+     * @param mismatchCount the number of mismatches
+     * @throws IOException
+     */
+    public void write(int sequenceId, int alignedLength, int mismatchCount) throws IOException
+    {
+        if (datasetId == null) throw new IllegalStateException("Dataset not set");
+
+        if (datasetOrdinal == -1)
+        {
+            byte[] bytes = datasetId.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_DATASET_ID_LENGTH)
+                throw new IllegalArgumentException("Dataset identifier exceeds maximum length of " + MAX_DATASET_ID_LENGTH + " bytes");
+            datasetOrdinal = datasetOrdinals.size();
+            datasetOrdinals.put(datasetId, datasetOrdinal);
+            writeVarint(datasetOrdinal);
+            writeVarint(bytes.length);
+            for (byte b : bytes) writeByte(b);
+        }
+        else
+        {
+            writeVarint(datasetOrdinal);
+        }
+
+        writeVarint(sequenceId);
+        writeVarint(alignedLength);
+        writeVarint(mismatchCount);
+    }
+
+    private void writeVarint(int value) throws IOException
+    {
+        if (value < 0) throw new IllegalArgumentException("Negative value cannot be written: " + value);
+        while ((value & ~0x7f) != 0)
+        {
+            writeByte((byte)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((byte)value);
+    }
+
+    private void writeByte(byte b) throws IOException
+    {
+        if (count == buffer.length) flushBuffer();
+        buffer[count++] = b;
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        outputStream.write(buffer, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Flushes any buffered content to the underlying stream.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        outputStream.close();
+    }
+
+    /**
+     * Returns whether the given stream contains alignments in the binary format
+     * by checking for the magic bytes at the start, leaving the position of
+     * the stream unchanged.
+     *
+     * @param inputStream the input stream; must support mark and reset
+     * @return true if the stream begins with the binary alignment format magic bytes
+     * @throws IOException
+     */
+    public static boolean isBinaryAlignmentFormat(InputStream inputStream) throws IOException
+    {
+        inputStream.mark(MAGIC.length);
+        try
+        {
+            for (int i = 0; i < MAGIC.length; i++)
+            {
+                if (inputStream.read() != MAGIC[i]) return false;
+            }
+            return true;
+        }
+        finally
+        {
+            inputStream.reset();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parser for bowtie alignment output that scans the bytes of each line
+ * directly within a large buffer rather than splitting lines into fields.
+ *
+ * Only the fields required for the MGA report are extracted: the dataset and
+ * sequence identifier from the read name (dataset id and sequence number
+ * separated by an underscore), the aligned length given by the width of the
+ * sequence field and the number of mismatches given by the number of
+ * comma-separated mismatch descriptors. No objects are created for each line
+ * other than the dataset identifier which is only created on request, e.g.
+ * when the dataset changes. Lines and read names are scanned using an
+ * {@link AlignmentLineScanner}.
+ */
+public class BowtieAlignmentParser implements AlignmentParser
+{
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int SEQUENCE_FIELD = 4;
+    private static final int MISMATCH_FIELD = 7;
+
+    private AlignmentLineScanner scanner;
+
+    private int alignedLength;
+    private int mismatchCount;
+
+    /**
+     * Creates a new BowtieAlignmentParser for reading from the given stream.
+     *
+     * @param inputStream the input stream
+     * @param source the source of the alignments, e.g. file name, used in error messages
+     */
+    public BowtieAlignmentParser(InputStream inputStream, String source)
+    {
+        this(inputStream, source, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new BowtieAlignmentParser for reading from the given stream.
+     *
+     * @param inputStream the input stream
+     * @param source the source of the alignments, e.g. file name, used in error messages
+     * @param bufferSize the initial size of the buffer
+     */
+    public BowtieAlignmentParser(InputStream inputStream, String source, int bufferSize)
+    {
+        scanner = new AlignmentLineScanner(inputStream, source, bufferSize);
+    }
+
+    @Override
+    public boolean next() throws IOException
+    {
+        if (!scanner.nextLine()) return false;
+        parseFields();
+        return true;
+    }
+
+    /**
+     * Parses the aligned length and number of mismatches from the fields
+     * following the read name in the current line.
+     */
+    private void parseFields()
+    {
+        byte[] buffer = scanner.getBuffer();
+        int end = scanner.getLineEnd();
+
+        int tab = scanner.getReadNameEnd();
+        if (tab == end) throw incorrectFieldCount();
+
+        // skip to the sequence field, the width of which is the aligned length
+        int fieldStart = tab + 1;
+        for (int field = 1; field < SEQUENCE_FIELD; field++)
+        {
+            tab = scanner.indexOf('\t', fieldStart, end);
+            if (tab == -1) throw incorrectFieldCount();
+            fieldStart = tab + 1;
+        }
+        tab = scanner.indexOf('\t', fieldStart, end);
+        if (tab == -1) throw incorrectFieldCount();
+        alignedLength = tab - fieldStart;
+
+        // skip to the mismatch descriptors field and count commas
+        fieldStart = tab + 1;
+        for (int field = SEQUENCE_FIELD + 1; field < MISMATCH_FIELD; field++)
+        {
+            tab = scanner.indexOf('\t', fieldStart, end);
+            if (tab == -1) throw incorrectFieldCount();
+            fieldStart = tab + 1;
+        }
+        int fieldEnd = scanner.indexOf('\t', fieldStart, end);
+        if (fieldEnd == -1) fieldEnd = end;
+
+        if (fieldEnd == fieldStart)
+        {
+            mismatchCount = 0;
+        }
+        else
+        {
+            int count = 1;
+            for (int i = fieldStart; i < fieldEnd; i++)
+            {
+                if (buffer[i] == ',') count++;
+            }
+            mismatchCount = count;
+        }
+    }
+
+    private RuntimeException incorrectFieldCount()
+    {
+        return scanner.error("Incorrect number of fields");
+    }
+
+    @Override
+    public boolean isNewDataset()
+    {
+        return scanner.isNewDataset();
+    }
+
+    @Override
+    public String getDatasetId()
+    {
+        return scanner.getDatasetId();
+    }
+
+    @Override
+    public int getDatasetCode(IdDictionary datasets)
+    {
+        return scanner.getDatasetCode(datasets);
+    }
+
+    @Override
+    public int getSequenceId()
+    {
+        return scanner.getSequenceId();
+    }
+
+    @Override
+    public int getAlignedLength()
+    {
+        return alignedLength;
+    }
+
+    @Override
+    public int getMismatchCount()
+    {
+        return mismatchCount;
+    }
+
+    @Override
+    public int getLineNumber()
+    {
+        return scanner.getLineNumber();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        scanner.close();
+    }
+}
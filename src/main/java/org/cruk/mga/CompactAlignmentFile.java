@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import org.cruk.util.CommandLineUtility;
+import org.cruk.util.CompressionUtils;
+
+/**
+ * Utility for converting bowtie alignment output into the compact binary
+ * alignment format read by {@link BinaryAlignmentParser}, retaining only the
+ * dataset and sequence identifiers, aligned length and number of mismatches
+ * for each alignment.
+ */
+public class CompactAlignmentFile extends CommandLineUtility
+{
+    private String alignmentFilename;
+
+    /**
+     * Runs the CompactAlignmentFile utility with the given command-line arguments.
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        CompactAlignmentFile compactAlignmentFile = new CompactAlignmentFile(args);
+        compactAlignmentFile.execute();
+    }
+
+    /**
+     * Initializes a new CompactAlignmentFile utility instance with the given command-line arguments.
+     *
+     * @param args
+     */
+    private CompactAlignmentFile(String[] args)
+    {
+        super("alignment_file", args);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setupOptions()
+    {
+        Option option = new Option("o", "output-file", true, "Output file for alignments in compact binary format");
+        option.setRequired(true);
+        options.addOption(option);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void parseCommandLine(CommandLine commandLine) throws ParseException
+    {
+        outputFilename = commandLine.getOptionValue("output-file");
+
+        String[] args = commandLine.getArgs();
+
+        if (args.length == 0)
+        {
+            error("Error parsing command line: missing alignment filename", true);
+        }
+        if (args.length > 1)
+        {
+            error("Error parsing command line: additional arguments and/or unrecognized options");
+        }
+
+        alignmentFilename = args[0];
+    }
+
+    /**
+     * Runs the alignment file conversion utility.
+     *
+     * @throws Exception
+     */
+    protected void run() throws Exception
+    {
+        File alignmentFile = new File(alignmentFilename);
+
+        BowtieAlignmentParser parser = new BowtieAlignmentParser(CompressionUtils.openInputStream(alignmentFile), "file " + alignmentFilename);
+        BinaryAlignmentWriter writer = new BinaryAlignmentWriter(out);
+
+        while (parser.next())
+        {
+            if (parser.isNewDataset()) writer.setDatasetId(parser.getDatasetId());
+            writer.write(parser.getSequenceId(), parser.getAlignedLength(), parser.getMismatchCount());
+        }
+
+        parser.close();
+        writer.flush();
+
+        if (out.checkError())
+        {
+            throw new IOException("Error writing to " + outputFilename);
+        }
+    }
+}
@@ -31,25 +31,38 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PatternOptionBuilder;
+import org.cruk.mga.export.MetricsTableWriter;
+import org.cruk.mga.export.ProvisionalStatus;
+import org.cruk.mga.export.ReferenceGenome;
+import org.cruk.mga.report.DataReportWriter;
+import org.cruk.mga.report.MGAReportWriter;
 import org.cruk.mga.report.SummaryPlotter;
 import org.cruk.mga.report.XMLReportWriter;
 import org.cruk.util.CommandLineUtility;
+import org.cruk.util.CompressionUtils;
 import org.cruk.util.OrderedProperties;
+import org.cruk.util.RunManifest;
+import org.cruk.util.TaskUtils;
 
 import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReader;
@@ -57,23 +70,28 @@ import com.opencsv.CSVReaderBuilder;
 import com.opencsv.ICSVParser;
 import com.opencsv.exceptions.CsvValidationException;
 
-import nu.xom.Builder;
-import nu.xom.Document;
-import nu.xom.Element;
-import nu.xom.ParsingException;
-import nu.xom.ValidityException;
 
 public class CreateReport extends CommandLineUtility
 {
+    public static final int DEFAULT_UPDATE_INTERVAL = 300;
+    public static final int DEFAULT_WATCH_TIMEOUT = 86400;
+
     protected MGAConfig config;
     protected String[] resultsFiles;
+    protected boolean parallelParsing;
+    protected long maxSequencesInMemory;
+    protected String snapshotFilename;
+    protected String fromSnapshotFilename;
+    protected String watchDirectoryName;
+    protected String bowtieIndexDirectoryName;
+    protected int updateInterval;
+    protected int watchTimeout;
 
     protected ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping = new ReferenceGenomeSpeciesMapping();
     protected Map<String, MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries = new TreeMap<>();
+    protected AlignmentSummaryMatrix alignmentSummaryMatrix;
     protected Map<String, String> datasetDisplayLabels = new HashMap<>();
 
-    protected Builder xmlParser = new Builder();
-
     /**
      * Runs the CreateReport utility with the given command-line arguments.
      *
@@ -110,6 +128,10 @@ public class CreateReport extends CommandLineUtility
         options.addOption("x", "xsl-stylesheet-file", true, "XSL stylesheet file");
         options.addOption("d", "separate-dataset-reports", false, "To create individual reports for each dataset");
         options.addOption("p", "dataset-report-filename-prefix", true, "File name prefix for creating separate report for each dataset");
+        options.addOption(new Option(null, "link-image", false, "To link to the summary plot image file from the HTML report rather than embedding the image"));
+        options.addOption(new Option(null, "svg-plot", false, "To create the summary plot as a scalable vector graphics (SVG) file rather than a PNG image"));
+        options.addOption(new Option(null, "json-yaml-reports", false, "To also write the report data as JSON and YAML files for loading into other systems"));
+        options.addOption("P", "parallel-parsing", false, "To read and summarize alignments in parallel, processing chunks of sequences and datasets in separate threads");
 
         option = new Option("m", "minimum-sequence-count", true, "The minimum number of sequences to display on the x-axis.");
         option.setType(PatternOptionBuilder.NUMBER_VALUE);
@@ -130,6 +152,41 @@ public class CreateReport extends CommandLineUtility
         option.setType(PatternOptionBuilder.NUMBER_VALUE);
         option.setArgName("<int>");
         options.addOption(option);
+
+        option = new Option(null, "max-sequences-in-memory", true, "The maximum number of sampled sequences for which best alignments are held in memory at any one time; datasets are summarized in successive passes over the alignment files if the total number of sampled sequences is greater than this (default: no limit)");
+        option.setType(PatternOptionBuilder.NUMBER_VALUE);
+        option.setArgName("<int>");
+        options.addOption(option);
+
+        option = new Option(null, "metrics-table-format", true, "To also write a table of the metrics for each dataset and reference genome for bulk loading, in either " + MetricsTableWriter.TSV_FORMAT + " or " + MetricsTableWriter.COLUMNAR_FORMAT + " format");
+        option.setArgName("<format>");
+        options.addOption(option);
+
+        option = new Option(null, "snapshot-file", true, "File in which to save a snapshot of the aggregated alignments, from which the report can be recreated without rereading the results files");
+        option.setArgName("<file>");
+        options.addOption(option);
+
+        option = new Option(null, "from-snapshot", true, "Snapshot file from which to recreate the report, reapplying the sample sheet and reference genome mapping, in place of the results files");
+        option.setArgName("<file>");
+        options.addOption(option);
+
+        option = new Option(null, "watch-directory", true, "Directory to watch for results files, in place of the results files, as alignments are completed, periodically writing a provisional report until alignments to all reference genomes are complete; the sequence and sampled counts are read once, from the run manifest file, when this has been written");
+        option.setArgName("<dir>");
+        options.addOption(option);
+
+        option = new Option(null, "bowtie-index-dir", true, "Directory containing the bowtie indexes for the reference genomes to which sequences are being aligned, used to determine which are outstanding when watching for results files");
+        option.setArgName("<dir>");
+        options.addOption(option);
+
+        option = new Option(null, "update-interval", true, "The interval in seconds between scans for completed results files and updates to the provisional report when watching for results files (default: " + DEFAULT_UPDATE_INTERVAL + ")");
+        option.setType(PatternOptionBuilder.NUMBER_VALUE);
+        option.setArgName("<seconds>");
+        options.addOption(option);
+
+        option = new Option(null, "watch-timeout", true, "The maximum time in seconds to wait for further results files to be completed when watching for results files, after which CreateReport exits with an error (default: " + DEFAULT_WATCH_TIMEOUT + ")");
+        option.setType(PatternOptionBuilder.NUMBER_VALUE);
+        option.setArgName("<seconds>");
+        options.addOption(option);
     }
 
     /**
@@ -154,6 +211,28 @@ public class CreateReport extends CommandLineUtility
 
         config.setDatasetReportFilenamePrefix(commandLine.getOptionValue("dataset-report-filename-prefix", "results_"));
 
+        config.setLinkImage(commandLine.hasOption("link-image"));
+
+        config.setSvgPlot(commandLine.hasOption("svg-plot"));
+
+        config.setJsonYamlReports(commandLine.hasOption("json-yaml-reports"));
+
+        String metricsTableFormat = commandLine.getOptionValue("metrics-table-format");
+        if (metricsTableFormat != null && !metricsTableFormat.equals(MetricsTableWriter.TSV_FORMAT) && !metricsTableFormat.equals(MetricsTableWriter.COLUMNAR_FORMAT))
+        {
+            error("Error: unrecognized metrics table format: " + metricsTableFormat);
+        }
+        config.setMetricsTableFormat(metricsTableFormat);
+
+        parallelParsing = commandLine.hasOption("parallel-parsing");
+
+        Number maxSequencesInMemoryN = (Number)commandLine.getParsedOptionValue("max-sequences-in-memory");
+        maxSequencesInMemory = maxSequencesInMemoryN == null ? Long.MAX_VALUE : maxSequencesInMemoryN.longValue();
+        if (maxSequencesInMemory < 1)
+        {
+            error("Error: invalid maximum number of sequences in memory.");
+        }
+
         config.setPlotWidth((Number)commandLine.getParsedOptionValue("plot-width"));
 
         config.setMinimumSequenceCount((Number)commandLine.getParsedOptionValue("minimum-sequence-count"));
@@ -162,25 +241,161 @@ public class CreateReport extends CommandLineUtility
 
         config.setTrimLength((Number)commandLine.getParsedOptionValue("trim-length"));
 
+        snapshotFilename = commandLine.getOptionValue("snapshot-file");
+
+        fromSnapshotFilename = commandLine.getOptionValue("from-snapshot");
+
+        watchDirectoryName = commandLine.getOptionValue("watch-directory");
+
+        bowtieIndexDirectoryName = commandLine.getOptionValue("bowtie-index-dir");
+
+        Number updateIntervalN = (Number)commandLine.getParsedOptionValue("update-interval");
+        updateInterval = updateIntervalN == null ? DEFAULT_UPDATE_INTERVAL : updateIntervalN.intValue();
+        if (updateInterval < 1)
+        {
+            error("Error: invalid update interval.");
+        }
+
+        Number watchTimeoutN = (Number)commandLine.getParsedOptionValue("watch-timeout");
+        watchTimeout = watchTimeoutN == null ? DEFAULT_WATCH_TIMEOUT : watchTimeoutN.intValue();
+        if (watchTimeout < 1)
+        {
+            error("Error: invalid watch timeout.");
+        }
+
         resultsFiles = commandLine.getArgs();
 
-        if (resultsFiles.length == 0)
+        if (fromSnapshotFilename != null && watchDirectoryName != null)
+        {
+            error("Error parsing command line: cannot both recreate the report from a snapshot and watch for results files");
+        }
+        if (watchDirectoryName != null && bowtieIndexDirectoryName == null)
+        {
+            error("Error parsing command line: the bowtie index directory must be specified when watching for results files");
+        }
+        if (fromSnapshotFilename == null && watchDirectoryName == null && resultsFiles.length == 0)
         {
             error("Error parsing command line: missing arguments", true);
         }
+        if (fromSnapshotFilename != null && resultsFiles.length > 0)
+        {
+            error("Error parsing command line: results files cannot be specified when recreating the report from a snapshot");
+        }
+        if (watchDirectoryName != null && resultsFiles.length > 0)
+        {
+            error("Error parsing command line: results files cannot be specified when watching for results files");
+        }
     }
 
     @Override
     protected void run() throws Exception
     {
         readReferenceGenomeMapping();
-        readCountSummaryFiles();
-        readSamplingSummaryFiles();
-        readAdapterAlignmentFiles();
+
+        if (watchDirectoryName != null)
+        {
+            // the sequence and sampled counts are read once, from the run
+            // manifest file, which is only written once all datasets have
+            // been counted and sampled
+            waitForRunManifest();
+            resultsFiles = listWatchDirectory();
+            readDatasetSummaries();
+            OrderedProperties runProperties = readSampleSheet();
+            watchAlignments(runProperties);
+            return;
+        }
+
+        AlignmentSnapshotReader snapshot = null;
+        if (fromSnapshotFilename == null)
+        {
+            readDatasetSummaries();
+            readAdapterAlignmentFiles();
+        }
+        else
+        {
+            snapshot = readSnapshot();
+        }
         OrderedProperties runProperties = readSampleSheet();
-        readAlignments();
-        new SummaryPlotter().createSummaryPlot(config, referenceGenomeSpeciesMapping, multiGenomeAlignmentSummaries.values(), datasetDisplayLabels);
-        new XMLReportWriter().writeReport(config, referenceGenomeSpeciesMapping, multiGenomeAlignmentSummaries.values(), datasetDisplayLabels, runProperties);
+        readAlignments(snapshot);
+        writeReports(runProperties);
+    }
+
+    /**
+     * Writes the report for all datasets and, if required, separate reports
+     * for each dataset and the metrics table. Reports are written concurrently, sharing a single
+     * plotter and set of report writers so that the JAXB context and compiled
+     * XSL stylesheet are only created once.
+     *
+     * @param runProperties properties of the run from the sample sheet
+     * @throws Exception
+     */
+    protected void writeReports(final OrderedProperties runProperties) throws Exception
+    {
+        final SummaryPlotter summaryPlotter = new SummaryPlotter();
+        final List<MGAReportWriter> reportWriters = new ArrayList<MGAReportWriter>();
+        reportWriters.add(new XMLReportWriter());
+        if (config.isJsonYamlReports())
+        {
+            reportWriters.add(new DataReportWriter());
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        tasks.add(createReportTask(summaryPlotter, reportWriters, config, multiGenomeAlignmentSummaries.values(), runProperties));
+
+        if (config.isSeparateDatasetReports())
+        {
+            for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : multiGenomeAlignmentSummaries.values())
+            {
+                MGAConfig datasetConfig = config.createDatasetReportConfig(multiGenomeAlignmentSummary.getDatasetId());
+                tasks.add(createReportTask(summaryPlotter, reportWriters, datasetConfig, Collections.singletonList(multiGenomeAlignmentSummary), runProperties));
+            }
+        }
+
+        if (config.getMetricsTableFormat() != null)
+        {
+            tasks.add(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    try (MetricsTableWriter writer = MetricsTableWriter.create(config.getMetricsTableFormat(), config.getMetricsTableFile()))
+                    {
+                        writer.write(config.getRunId(), multiGenomeAlignmentSummaries.values(), referenceGenomeSpeciesMapping);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        TaskUtils.invokeAll(tasks, Runtime.getRuntime().availableProcessors(), "report-writer");
+    }
+
+    /**
+     * Creates a task for writing the plot and report for the given datasets.
+     *
+     * @param summaryPlotter the summary plotter
+     * @param reportWriters the report writers
+     * @param reportConfig the configuration, specifying the output files
+     * @param summaries the alignment summaries for the datasets to include in the report
+     * @param runProperties properties of the run from the sample sheet
+     * @return the report writing task
+     */
+    private Callable<Void> createReportTask(final SummaryPlotter summaryPlotter, final List<MGAReportWriter> reportWriters,
+            final MGAConfig reportConfig, final Collection<MultiGenomeAlignmentSummary> summaries, final OrderedProperties runProperties)
+    {
+        return new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                summaryPlotter.createSummaryPlot(reportConfig, referenceGenomeSpeciesMapping, summaries, datasetDisplayLabels);
+                for (MGAReportWriter reportWriter : reportWriters)
+                {
+                    reportWriter.writeReport(reportConfig, referenceGenomeSpeciesMapping, summaries, datasetDisplayLabels, runProperties);
+                }
+                return null;
+            }
+        };
     }
 
     /**
@@ -351,430 +566,856 @@ public class CreateReport extends CommandLineUtility
     }
 
     /**
-     * Identifies and reads sequence count summary files among the input files provided.
+     * Reads the sequence and sampled counts for each dataset, either from
+     * the run manifest file, runId.manifest, if it is among the input files
+     * provided, or from the sequence count and sampling summary files, and
+     * creates a new MultiGenomeAlignmentSummary object for each dataset.
+     *
+     * Only the run manifest file combining the records for all datasets is
+     * read; the manifest files for individual datasets from which it was
+     * created are ignored, e.g. when listing the directory being watched.
      *
-     * @throws ValidityException
-     * @throws ParsingException
      * @throws IOException
      */
-    protected void readCountSummaryFiles() throws ValidityException, ParsingException, IOException
+    protected void readDatasetSummaries() throws IOException
     {
+        String manifestFilename = config.getRunId() + RunManifest.FILE_EXTENSION;
+        String manifestFile = null;
         for (String file : resultsFiles)
         {
-            if (file.endsWith(".count.xml"))
+            if (new File(file).getName().equals(manifestFilename))
             {
-                readCountSummaryFile(file);
+                if (manifestFile != null)
+                {
+                    error("Run manifest file " + manifestFilename + " given more than once: " + manifestFile + " and " + file);
+                }
+                manifestFile = file;
             }
         }
+
+        if (manifestFile == null)
+        {
+            readSummaryFiles();
+        }
+        else
+        {
+            readRunManifest(manifestFile);
+        }
     }
 
     /**
-     * Reads the given sequence count summary file and creates a new
-     * MultiGenomeAlignmentSummary object for the corresponding dataset.
+     * Reads the sequence and sampled counts for each dataset from the given
+     * run manifest file, checking that both counts are present for every
+     * dataset and that the datasets are the same as those for which sequence
+     * count and sampling summary files are also given, if any.
      *
-     * @param file
-     * @throws ValidityException
-     * @throws ParsingException
+     * @param manifestFile the run manifest file
      * @throws IOException
      */
-    protected void readCountSummaryFile(String file) throws ValidityException, ParsingException, IOException
+    protected void readRunManifest(String manifestFile) throws IOException
     {
-        Document document = xmlParser.build(file);
-        Element root = document.getRootElement();
-        if (!root.getLocalName().equals("SequenceCountSummary"))
-        {
-            error("Sequence count summary file " + file + " does not contain root element with name SequenceCountSummary");
-        }
-        String datasetId = getValue(root, "DatasetId");
-        long sequenceCount = getLongValue(root, "SequenceCount");
-        MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = new MultiGenomeAlignmentSummary();
-        multiGenomeAlignmentSummary.setDatasetId(datasetId);
-        multiGenomeAlignmentSummary.setSequenceCount(sequenceCount);
-        multiGenomeAlignmentSummaries.put(datasetId, multiGenomeAlignmentSummary);
+        RunManifest manifest = new RunManifest();
+        manifest.read(new File(manifestFile));
+
+        for (String datasetId : manifest.getDatasetIds())
+        {
+            Long sequenceCount = manifest.getValue(datasetId, RunManifest.SEQUENCE_COUNT);
+            if (sequenceCount == null)
+            {
+                error("Missing sequence count for dataset " + datasetId + " in run manifest file " + manifestFile);
+            }
+            Long sampledCount = manifest.getValue(datasetId, RunManifest.SAMPLED_COUNT);
+            if (sampledCount == null)
+            {
+                error("Missing sampled count for dataset " + datasetId + " in run manifest file " + manifestFile);
+            }
+            MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = new MultiGenomeAlignmentSummary();
+            multiGenomeAlignmentSummary.setDatasetId(datasetId);
+            multiGenomeAlignmentSummary.setSequenceCount(sequenceCount);
+            multiGenomeAlignmentSummary.setSampledCount(sampledCount.intValue());
+            multiGenomeAlignmentSummaries.put(datasetId, multiGenomeAlignmentSummary);
+        }
+
+        checkSummaryFileDatasets(".count.xml", "sequence count summary");
+        checkSummaryFileDatasets(".sampled.xml", "sampling summary");
     }
 
     /**
-     * Identifies and reads sampling summary files among the input files provided.
+     * Checks that the datasets for the summary files with the given suffix
+     * among the input files, named runId.datasetId followed by the suffix,
+     * are the same as those read from the run manifest file.
+     *
+     * @param suffix the summary file name suffix
+     * @param description the description of the summary files used in error messages
+     */
+    private void checkSummaryFileDatasets(String suffix, String description)
+    {
+        String prefix = config.getRunId() + ".";
+        Set<String> datasetIds = new TreeSet<String>();
+        for (String file : resultsFiles)
+        {
+            if (!file.endsWith(suffix)) continue;
+            String name = new File(file).getName();
+            if (!name.startsWith(prefix) || name.length() <= prefix.length() + suffix.length())
+            {
+                error("Unable to determine dataset for " + description + " file " + file);
+            }
+            datasetIds.add(name.substring(prefix.length(), name.length() - suffix.length()));
+        }
+        if (datasetIds.isEmpty()) return;
+
+        Set<String> missing = new TreeSet<String>(datasetIds);
+        missing.removeAll(multiGenomeAlignmentSummaries.keySet());
+        if (!missing.isEmpty())
+        {
+            error("Missing run manifest records for datasets with " + description + " files: " + String.join(", ", missing));
+        }
+        Set<String> unexpected = new TreeSet<String>(multiGenomeAlignmentSummaries.keySet());
+        unexpected.removeAll(datasetIds);
+        if (!unexpected.isEmpty())
+        {
+            error("Missing " + description + " files for datasets in run manifest file: " + String.join(", ", unexpected));
+        }
+    }
+
+    /**
+     * Identifies and reads sequence count and sampling summary files among
+     * the input files provided, parsing these in parallel if required.
      *
-     * @throws ValidityException
-     * @throws ParsingException
      * @throws IOException
      */
-    protected void readSamplingSummaryFiles() throws ValidityException, ParsingException, IOException
+    protected void readSummaryFiles() throws IOException
     {
+        final List<String> countSummaryFiles = new ArrayList<String>();
+        final List<String> samplingSummaryFiles = new ArrayList<String>();
         for (String file : resultsFiles)
         {
-            if (file.endsWith(".sampled.xml"))
+            if (file.endsWith(".count.xml"))
             {
-                readSamplingSummaryFile(file);
+                countSummaryFiles.add(file);
+            }
+            else if (file.endsWith(".sampled.xml"))
+            {
+                samplingSummaryFiles.add(file);
             }
         }
+
+        List<Callable<DatasetSummaryFileReader>> tasks = new ArrayList<Callable<DatasetSummaryFileReader>>();
+        for (final String file : countSummaryFiles)
+        {
+            tasks.add(new Callable<DatasetSummaryFileReader>()
+            {
+                @Override
+                public DatasetSummaryFileReader call() throws IOException
+                {
+                    return DatasetSummaryFileReader.read(file, "SequenceCountSummary", "SequenceCount");
+                }
+            });
+        }
+        for (final String file : samplingSummaryFiles)
+        {
+            tasks.add(new Callable<DatasetSummaryFileReader>()
+            {
+                @Override
+                public DatasetSummaryFileReader call() throws IOException
+                {
+                    return DatasetSummaryFileReader.read(file, "SamplingSummary", "SampledCount");
+                }
+            });
+        }
+
+        int threads = parallelParsing ? Runtime.getRuntime().availableProcessors() : 1;
+        List<DatasetSummaryFileReader> summaries = TaskUtils.invokeAll(tasks, threads, "summary-file-reader");
+
+        // sequence count summary files create the summary for each dataset
+        // so are processed before the sampling summary files
+        for (int i = 0; i < countSummaryFiles.size(); i++)
+        {
+            DatasetSummaryFileReader summary = summaries.get(i);
+            String datasetId = summary.getDatasetId();
+            long sequenceCount = 0;
+            try
+            {
+                sequenceCount = Long.parseLong(summary.getValue());
+            }
+            catch (NumberFormatException e)
+            {
+                error("Non-integer value of SequenceCount child element of SequenceCountSummary in " + countSummaryFiles.get(i));
+            }
+            MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = new MultiGenomeAlignmentSummary();
+            multiGenomeAlignmentSummary.setDatasetId(datasetId);
+            multiGenomeAlignmentSummary.setSequenceCount(sequenceCount);
+            multiGenomeAlignmentSummaries.put(datasetId, multiGenomeAlignmentSummary);
+        }
+
+        for (int i = 0; i < samplingSummaryFiles.size(); i++)
+        {
+            String file = samplingSummaryFiles.get(i);
+            DatasetSummaryFileReader summary = summaries.get(countSummaryFiles.size() + i);
+            String datasetId = summary.getDatasetId();
+            int sampledCount = 0;
+            try
+            {
+                sampledCount = Integer.parseInt(summary.getValue());
+            }
+            catch (NumberFormatException e)
+            {
+                error("Non-integer value of SampledCount child element of SamplingSummary in " + file);
+            }
+            MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = multiGenomeAlignmentSummaries.get(datasetId);
+            if (multiGenomeAlignmentSummary == null)
+            {
+                error("Missing sequence count file for dataset " + datasetId + " corresponding to sampling summary file " + file);
+            }
+            multiGenomeAlignmentSummary.setSampledCount(sampledCount);
+        }
     }
 
     /**
-     * Reads the given sampling summary file.
+     * Identifies and reads adapter alignment results files among the input
+     * files provided, reading files for separate chunks of sequences in
+     * parallel if required.
      *
-     * @param file
-     * @throws ValidityException
-     * @throws ParsingException
      * @throws IOException
      */
-    protected void readSamplingSummaryFile(String file) throws ValidityException, ParsingException, IOException
+    protected void readAdapterAlignmentFiles() throws IOException
     {
-        Document document = xmlParser.build(file);
-        Element root = document.getRootElement();
-        if (!root.getLocalName().equals("SamplingSummary"))
+        final IdDictionary datasets = new IdDictionary(multiGenomeAlignmentSummaries.keySet());
+        int[] sampledCounts = new int[datasets.size()];
+        for (int i = 0; i < sampledCounts.length; i++)
+        {
+            sampledCounts[i] = multiGenomeAlignmentSummaries.get(datasets.getId(i)).getSampledCount();
+        }
+        final AdapterAlignmentCounter counter = new AdapterAlignmentCounter(datasets, sampledCounts);
+
+        List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+        for (final String file : resultsFiles)
         {
-            error("Sampling summary file " + file + " does not contain root element with name SamplingSummary");
+            if (file.endsWith(".adapter.exonerate.alignment"))
+            {
+                tasks.add(new Callable<int[]>()
+                {
+                    @Override
+                    public int[] call() throws IOException
+                    {
+                        return counter.count(file);
+                    }
+                });
+            }
         }
-        String datasetId = getValue(root, "DatasetId");
-        int sampledCount = getIntegerValue(root, "SampledCount");
-        MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = multiGenomeAlignmentSummaries.get(datasetId);
-        if (multiGenomeAlignmentSummary == null)
+
+        int threads = parallelParsing ? Runtime.getRuntime().availableProcessors() : 1;
+        for (int[] counts : TaskUtils.invokeAll(tasks, threads, "adapter-alignment-reader"))
         {
-            error("Missing sequence count file for dataset " + datasetId + " corresponding to sampling summary file " + file);
+            for (int i = 0; i < counts.length; i++)
+            {
+                MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = multiGenomeAlignmentSummaries.get(datasets.getId(i));
+                multiGenomeAlignmentSummary.setAdapterCount(multiGenomeAlignmentSummary.getAdapterCount() + counts[i]);
+            }
         }
-        multiGenomeAlignmentSummary.setSampledCount(sampledCount);
     }
 
     /**
-     * Returns the value of the specified child element for the given parent.
+     * Reads the header of the snapshot file from which the report is to be
+     * recreated and creates a new MultiGenomeAlignmentSummary object for each
+     * dataset with the sequence, sampled and adapter counts.
      *
-     * @param parent
-     * @param name
-     * @return
+     * @return the snapshot reader
+     * @throws IOException
      */
-    protected String getValue(Element parent, String name)
+    protected AlignmentSnapshotReader readSnapshot() throws IOException
     {
-        Element child = parent.getFirstChildElement(name);
-        if (child == null)
+        AlignmentSnapshotReader snapshot = new AlignmentSnapshotReader(new File(fromSnapshotFilename));
+        for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : snapshot.getMultiGenomeAlignmentSummaries())
         {
-            error("Could not find " + name + " child element of " + parent.getLocalName());
+            multiGenomeAlignmentSummaries.put(multiGenomeAlignmentSummary.getDatasetId(), multiGenomeAlignmentSummary);
         }
-        return child.getValue();
+        return snapshot;
     }
 
     /**
-     * Returns the integer value of the specified child element for the given
-     * parent.
+     * Read alignment files and partial summary files for chunks of sequences,
+     * or the best alignments from a snapshot, update alignment summary objects
+     * and assign reads to reference genomes, saving a snapshot if required.
      *
-     * @param parent
-     * @param name
-     * @return
+     * @param snapshot the snapshot from which to read the best alignments, or null to read the results files
+     * @throws IOException
      */
-    protected int getIntegerValue(Element parent, String name)
+    protected void readAlignments(AlignmentSnapshotReader snapshot) throws IOException
     {
-        String value = getValue(parent, name);
-        int integerValue = 0;
+        // identify partial summary files, each of which summarizes the
+        // alignments for a chunk of sequences and is used in place of the
+        // alignment files for that chunk
+        Map<String, String> summaryFiles = new TreeMap<String, String>();
+        Set<String> referenceGenomeIds = new TreeSet<String>();
+        if (snapshot != null)
+        {
+            referenceGenomeIds.addAll(snapshot.getReferenceGenomeIds());
+        }
+        for (String resultsFile : resultsFiles)
+        {
+            if (resultsFile.endsWith(AlignmentAggregator.SUMMARY_FILE_SUFFIX))
+            {
+                String chunk = AlignmentAggregator.getChunkAndReferenceGenomeId(resultsFile, config.getRunId())[0];
+                summaryFiles.put(chunk, resultsFile);
+                referenceGenomeIds.addAll(AlignmentAggregator.readSummaryReferenceGenomeIds(resultsFile));
+            }
+        }
+
+        // determine which results files are bowtie alignment output files,
+        // preferring the compact binary format if both are present, and the
+        // chunk of sequences and reference genome for each
+        List<String> alignmentFiles = new ArrayList<String>();
+        List<String[]> alignmentFileChunkAndReferenceGenomeIds = new ArrayList<String[]>();
+        for (String alignmentFile : AlignmentAggregator.selectAlignmentFiles(resultsFiles))
+        {
+            String[] chunkAndReferenceGenomeId = AlignmentAggregator.getChunkAndReferenceGenomeId(alignmentFile, config.getRunId());
+            if (summaryFiles.containsKey(chunkAndReferenceGenomeId[0])) continue;
+            alignmentFiles.add(alignmentFile);
+            alignmentFileChunkAndReferenceGenomeIds.add(chunkAndReferenceGenomeId);
+            referenceGenomeIds.add(chunkAndReferenceGenomeId[1]);
+        }
+
+        // assign dense codes to reference genomes, following the natural
+        // ordering of reference genome ids, and to datasets so that all
+        // subsequent lookups are made by array index
+        IdDictionary referenceGenomes = new IdDictionary(referenceGenomeIds);
+        final int referenceGenomeCount = referenceGenomes.size();
+        IdDictionary datasets = new IdDictionary(multiGenomeAlignmentSummaries.keySet());
+        final int datasetCount = datasets.size();
+
+        final MultiGenomeAlignmentSummary[] datasetSummaries = createAlignmentSummaries(datasets, referenceGenomes);
+        int[] sampledCounts = getSampledCounts(datasetSummaries);
+
+        // aggregate alignments and partial summaries, processing each chunk of
+        // sequences in parallel if required since sequences in different
+        // chunks are distinct
+        final AlignmentAggregator aggregator = new AlignmentAggregator(datasets, sampledCounts, referenceGenomes);
+        for (int i = 0; i < alignmentFiles.size(); i++)
+        {
+            String[] chunkAndReferenceGenomeId = alignmentFileChunkAndReferenceGenomeIds.get(i);
+            aggregator.addAlignmentFile(alignmentFiles.get(i), referenceGenomes.getCode(chunkAndReferenceGenomeId[1]), chunkAndReferenceGenomeId[0]);
+        }
+        for (Map.Entry<String, String> entry : summaryFiles.entrySet())
+        {
+            aggregator.addSummaryFile(entry.getValue(), entry.getKey());
+        }
+
+        final long[][] expectedGenomeMasks = getExpectedGenomeMasks(datasetSummaries, referenceGenomes, aggregator.getWords());
+
+        // aggregate and summarize the alignments for partitions of the
+        // datasets in turn, so that the best alignments need only be held
+        // for a limited number of sampled sequences at any one time
+        int threads = parallelParsing ? Runtime.getRuntime().availableProcessors() : 1;
+        int[] bestAlignmentCounts = new int[referenceGenomeCount + 1];
+        List<int[]> partitions = partitionDatasets(sampledCounts, maxSequencesInMemory);
+        AlignmentSnapshotWriter snapshotWriter = null;
+        if (snapshotFilename != null)
+        {
+            snapshotWriter = new AlignmentSnapshotWriter(CompressionUtils.openOutputStream(new File(snapshotFilename), false), datasetSummaries, referenceGenomes, partitions.size());
+        }
         try
         {
-            integerValue = Integer.parseInt(value);
+            for (int[] partition : partitions)
+            {
+                if (partitions.size() > 1)
+                {
+                    log.info("Summarizing alignments for datasets " + (partition[0] + 1) + " to " + partition[1] + " of " + datasetCount);
+                }
+                aggregator.setDatasetRange(partition[0], partition[1]);
+                if (snapshot == null)
+                {
+                    aggregator.aggregate(threads);
+                }
+                else
+                {
+                    snapshot.merge(aggregator);
+                }
+                if (snapshotWriter != null)
+                {
+                    snapshotWriter.writePartition(aggregator);
+                }
+                summarizeAlignments(aggregator, partition[0], partition[1], threads, expectedGenomeMasks, datasetSummaries, bestAlignmentCounts);
+            }
+        }
+        finally
+        {
+            if (snapshotWriter != null) snapshotWriter.close();
         }
-        catch (NumberFormatException e)
+        aggregator.setDatasetRange(0, 0);
+        alignmentSummaryMatrix.merge(aggregator.getTotals());
+
+        log.info("Histogram of best alignments");
+        log.info("No. genomes tied as best aligning\tCount");
+        for (int i = 1; i < bestAlignmentCounts.length; i++)
         {
-            error("Non-integer value of " + name + " child element of " + parent.getLocalName());
+            log.info(i + "\t" + bestAlignmentCounts[i]);
         }
-        return integerValue;
     }
 
     /**
-     * Returns the long value of the specified child element for the given
-     * parent.
+     * Waits for the run manifest file, runId.manifest, to be written to the
+     * directory being watched for results files, exiting with an error if it
+     * does not appear within the watch timeout.
      *
-     * @param parent
-     * @param name
-     * @return
+     * The run manifest is only written once the sequence and sampled counts
+     * for all datasets are complete, so these are read once and need not be
+     * reread as further results files are completed.
+     *
+     * @throws InterruptedException
      */
-    protected long getLongValue(Element parent, String name)
+    protected void waitForRunManifest() throws InterruptedException
     {
-        String value = getValue(parent, name);
-        long longValue = 0;
-        try
+        File manifestFile = new File(watchDirectoryName, config.getRunId() + RunManifest.FILE_EXTENSION);
+        long startTime = System.currentTimeMillis();
+        if (!manifestFile.exists())
         {
-            longValue = Long.parseLong(value);
+            log.info("Waiting for run manifest file " + manifestFile);
         }
-        catch (NumberFormatException e)
+        while (!manifestFile.exists())
         {
-            error("Non-integer value of " + name + " child element of " + parent.getLocalName());
+            if (System.currentTimeMillis() - startTime >= watchTimeout * 1000L)
+            {
+                error("Error: run manifest file " + manifestFile + " not found within " + watchTimeout + " seconds");
+            }
+            Thread.sleep(updateInterval * 1000L);
         }
-        return longValue;
     }
 
     /**
-     * Identifies and reads adapter alignment results files among the input files provided.
+     * Lists the files in the directory being watched for results files.
      *
-     * @throws IOException
+     * @return the files in the directory
      */
-    protected void readAdapterAlignmentFiles() throws IOException
+    protected String[] listWatchDirectory()
     {
-        for (String file : resultsFiles)
+        File[] files = new File(watchDirectoryName).listFiles();
+        if (files == null)
         {
-            if (file.endsWith(".adapter.exonerate.alignment"))
+            error("Error listing directory " + watchDirectoryName);
+        }
+        String[] filenames = new String[files.length];
+        for (int i = 0; i < files.length; i++)
+        {
+            filenames[i] = files[i].getPath();
+        }
+        return filenames;
+    }
+
+    /**
+     * Determines the reference genomes to which sequences are being aligned
+     * from the bowtie index files, i.e. referenceGenomeId.rev.1.ebwt or
+     * referenceGenomeId.rev.1.ebwtl, in the bowtie index directory.
+     *
+     * @return the reference genome identifiers
+     */
+    protected Set<String> readBowtieIndexReferenceGenomeIds()
+    {
+        Pattern pattern = Pattern.compile("(.+)\\.rev\\.1\\.ebwtl?");
+        Set<String> referenceGenomeIds = new TreeSet<String>();
+        String[] filenames = new File(bowtieIndexDirectoryName).list();
+        if (filenames != null)
+        {
+            for (String filename : filenames)
             {
-                readAdapterAlignmentFile(file);
+                Matcher matcher = pattern.matcher(filename);
+                if (matcher.matches())
+                {
+                    referenceGenomeIds.add(matcher.group(1));
+                }
             }
         }
+        if (referenceGenomeIds.isEmpty())
+        {
+            error("Error: no bowtie indexes found in directory " + bowtieIndexDirectoryName);
+        }
+        return referenceGenomeIds;
     }
 
     /**
-     * Reads the given adapter alignment results file.
+     * Watches the directory to which results files are written while
+     * alignments are still running, merging alignment, partial summary and
+     * adapter alignment files as these are completed. A provisional report,
+     * giving the reference genomes for which alignments are outstanding, is
+     * written whenever further files have been merged, at intervals of no less
+     * than the update interval, until alignments for all chunks of sequences
+     * are complete and the final report is written. If no further files are
+     * completed within the watch timeout, e.g. because the pipeline has
+     * failed, this exits with an error.
      *
-     * @param file
-     * @throws IOException
+     * The best alignments for all datasets are held in memory throughout. The
+     * sequence and sampled counts for each dataset, and the sample sheet, are
+     * read before watching starts and are not reread.
+     *
+     * @param runProperties properties of the run from the sample sheet
+     * @throws Exception
      */
-    protected void readAdapterAlignmentFile(String file) throws IOException
+    protected void watchAlignments(OrderedProperties runProperties) throws Exception
     {
-        Map<String, Set<Integer>> alignedIdsByDataset = new HashMap<String, Set<Integer>>();
-        BufferedReader reader = new BufferedReader(new FileReader(file));
-        int lineNumber = 0;
-        String line = null;
-        while ((line = reader.readLine()) != null)
+        IdDictionary referenceGenomes = new IdDictionary(readBowtieIndexReferenceGenomeIds());
+        IdDictionary datasets = new IdDictionary(multiGenomeAlignmentSummaries.keySet());
+        MultiGenomeAlignmentSummary[] datasetSummaries = createAlignmentSummaries(datasets, referenceGenomes);
+        int[] sampledCounts = getSampledCounts(datasetSummaries);
+
+        if (partitionDatasets(sampledCounts, maxSequencesInMemory).size() > 1)
+        {
+            log.warn("Best alignments for all datasets are held in memory when watching for results files");
+        }
+
+        AlignmentAggregator aggregator = new AlignmentAggregator(datasets, sampledCounts, referenceGenomes);
+        AdapterAlignmentCounter adapterAlignmentCounter = new AdapterAlignmentCounter(datasets, sampledCounts);
+        ResultsDirectoryWatcher watcher = new ResultsDirectoryWatcher(new File(watchDirectoryName), config.getRunId(), referenceGenomes.getIds());
+        int threads = parallelParsing ? Runtime.getRuntime().availableProcessors() : 1;
+        long lastUpdateTime = System.currentTimeMillis();
+
+        while (true)
         {
-            lineNumber++;
-            String[] fields = line.split("\\t");
-            int separatorIndex = fields[0].lastIndexOf("_");
-            if (separatorIndex == -1)
+            watcher.scan();
+
+            for (String file : watcher.getNewAdapterAlignmentFiles())
             {
-                error("Incorrect sequence identifier (" + fields[0] + ") at line " + lineNumber + " in file " + file);
+                int[] counts = adapterAlignmentCounter.count(file);
+                for (int i = 0; i < counts.length; i++)
+                {
+                    datasetSummaries[i].setAdapterCount(datasetSummaries[i].getAdapterCount() + counts[i]);
+                }
             }
-            String datasetId = fields[0].substring(0, separatorIndex);
-            int sequenceId = -1;
-            try
+
+            for (String file : watcher.getNewAlignmentFiles())
             {
-                sequenceId = Integer.parseInt(fields[0].substring(separatorIndex + 1));
+                String[] chunkAndReferenceGenomeId = AlignmentAggregator.getChunkAndReferenceGenomeId(file, config.getRunId());
+                aggregator.addAlignmentFile(file, referenceGenomes.getCode(chunkAndReferenceGenomeId[1]), chunkAndReferenceGenomeId[0]);
             }
-            catch (NumberFormatException e)
+            for (String file : watcher.getNewSummaryFiles())
+            {
+                aggregator.addSummaryFile(file, AlignmentAggregator.getChunkAndReferenceGenomeId(file, config.getRunId())[0]);
+            }
+            aggregator.aggregate(threads);
+            aggregator.clearFiles();
+
+            boolean updated = !watcher.getNewAdapterAlignmentFiles().isEmpty() || !watcher.getNewAlignmentFiles().isEmpty() || !watcher.getNewSummaryFiles().isEmpty();
+            boolean complete = watcher.isComplete();
+
+            if (updated || complete)
+            {
+                datasetSummaries = createAlignmentSummaries(datasets, referenceGenomes);
+                long[][] expectedGenomeMasks = getExpectedGenomeMasks(datasetSummaries, referenceGenomes, aggregator.getWords());
+                summarizeAlignments(aggregator, 0, datasets.size(), threads, expectedGenomeMasks, datasetSummaries, new int[referenceGenomes.size() + 1]);
+                alignmentSummaryMatrix.merge(aggregator.getTotals());
+
+                ProvisionalStatus provisionalStatus = null;
+                if (!complete)
+                {
+                    provisionalStatus = new ProvisionalStatus(watcher.getChunkCount(), watcher.getCompletedChunkCount());
+                    for (String referenceGenomeId : watcher.getOutstandingReferenceGenomeIds())
+                    {
+                        provisionalStatus.getOutstandingReferenceGenomes().add(new ReferenceGenome(referenceGenomeId, getReferenceGenomeName(referenceGenomeId)));
+                    }
+                    log.info("Writing provisional report, alignments completed for " + provisionalStatus.getCompletedChunkCount() + " of " + provisionalStatus.getChunkCount() + " chunks of sequences");
+                }
+                config.setProvisionalStatus(provisionalStatus);
+                writeReports(runProperties);
+            }
+
+            if (complete) break;
+
+            if (updated)
             {
-                error("Incorrect sequence identifier (" + fields[0] + ") at line " + lineNumber + " in file " + file);
+                lastUpdateTime = System.currentTimeMillis();
             }
-            Set<Integer> alignedIds = alignedIdsByDataset.get(datasetId);
-            if (alignedIds == null)
+            else if (System.currentTimeMillis() - lastUpdateTime >= watchTimeout * 1000L)
             {
-                alignedIds = new HashSet<Integer>();
-                alignedIdsByDataset.put(datasetId, alignedIds);
+                String status = watcher.isChunkCountKnown()
+                        ? "alignments completed for " + watcher.getCompletedChunkCount() + " of " + watcher.getChunkCount() + " chunks of sequences"
+                        : "chunk count file " + watcher.getChunkCountFile() + " not found";
+                error("Error: no further results files completed in " + watchDirectoryName + " within " + watchTimeout + " seconds, " + status);
             }
-            alignedIds.add(sequenceId);
+
+            Thread.sleep(updateInterval * 1000L);
         }
-        reader.close();
-        for (String datasetId : alignedIdsByDataset.keySet())
+
+        if (snapshotFilename != null)
         {
-            MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = multiGenomeAlignmentSummaries.get(datasetId);
-            if (multiGenomeAlignmentSummary == null)
+            try (AlignmentSnapshotWriter snapshotWriter = new AlignmentSnapshotWriter(CompressionUtils.openOutputStream(new File(snapshotFilename), false), datasetSummaries, referenceGenomes, 1))
             {
-                error("Missing sequence count file for dataset " + datasetId + " corresponding to adapter alignment file " + file);
+                snapshotWriter.writePartition(aggregator);
             }
-            int count = multiGenomeAlignmentSummary.getAdapterCount() + alignedIdsByDataset.get(datasetId).size();
-            multiGenomeAlignmentSummary.setAdapterCount(count);
         }
     }
 
     /**
-     * Read alignment files, update alignment summary objects and assign reads
-     * to reference genomes.
+     * Initializes the alignment summary for each reference genome and
+     * dataset, backed by a single matrix of counters, replacing any existing
+     * alignment summaries.
      *
-     * @throws IOException
+     * @param datasets the dictionary of dataset identifiers
+     * @param referenceGenomes the dictionary of reference genome identifiers
+     * @return the multi-genome alignment summary for each dataset, ordered by dataset index
      */
-    protected void readAlignments() throws IOException
+    private MultiGenomeAlignmentSummary[] createAlignmentSummaries(IdDictionary datasets, IdDictionary referenceGenomes)
     {
-        // determine which results files are bowtie alignment output files
-        List<String> alignmentFileList = new ArrayList<String>();
-        for (String resultFile : resultsFiles)
+        int datasetCount = datasets.size();
+        int referenceGenomeCount = referenceGenomes.size();
+
+        alignmentSummaryMatrix = new AlignmentSummaryMatrix(datasetCount, referenceGenomeCount);
+
+        MultiGenomeAlignmentSummary[] datasetSummaries = new MultiGenomeAlignmentSummary[datasetCount];
+        for (int datasetIndex = 0; datasetIndex < datasetCount; datasetIndex++)
         {
-            if (resultFile.endsWith(".bowtie.alignment"))
+            MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = multiGenomeAlignmentSummaries.get(datasets.getId(datasetIndex));
+            multiGenomeAlignmentSummary.clearAlignmentSummaries();
+            datasetSummaries[datasetIndex] = multiGenomeAlignmentSummary;
+            for (int i = 0; i < referenceGenomeCount; i++)
             {
-                alignmentFileList.add(resultFile);
+                AlignmentSummary alignmentSummary = new AlignmentSummary(alignmentSummaryMatrix, datasetIndex, i);
+                alignmentSummary.setReferenceGenomeId(referenceGenomes.getId(i));
+                multiGenomeAlignmentSummary.addAlignmentSummary(alignmentSummary);
             }
         }
-        String[] alignmentFiles = alignmentFileList.toArray(new String[0]);
-
-        AlignmentReader reader = new AlignmentReader(alignmentFiles, config.getRunId());
+        return datasetSummaries;
+    }
 
-        // initialize reference genome index mapping
-        // initialize alignment summary for each reference genome and dataset
-        Set<String> referenceGenomeIds = reader.getReferenceGenomeIds();
-        Map<String, Integer> referenceGenomeIndexMapping = new HashMap<String, Integer>();
-        int referenceGenomeCount = 0;
-        for (String referenceGenomeId : referenceGenomeIds)
+    /**
+     * @param datasetSummaries the multi-genome alignment summary for each dataset
+     * @return the number of sampled sequences for each dataset
+     */
+    private static int[] getSampledCounts(MultiGenomeAlignmentSummary[] datasetSummaries)
+    {
+        int[] sampledCounts = new int[datasetSummaries.length];
+        for (int i = 0; i < sampledCounts.length; i++)
         {
-            if (!referenceGenomeIndexMapping.containsKey(referenceGenomeId))
-            {
-                referenceGenomeIndexMapping.put(referenceGenomeId, referenceGenomeCount);
-                referenceGenomeCount++;
-            }
+            sampledCounts[i] = datasetSummaries[i].getSampledCount();
+        }
+        return sampledCounts;
+    }
 
-            for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : multiGenomeAlignmentSummaries.values())
+    /**
+     * Creates the bit sets of expected reference genomes for each dataset.
+     *
+     * @param datasetSummaries the multi-genome alignment summary for each dataset
+     * @param referenceGenomes the dictionary of reference genome identifiers
+     * @param words the number of words in each bit set
+     * @return the bit set of expected reference genomes for each dataset
+     */
+    private static long[][] getExpectedGenomeMasks(MultiGenomeAlignmentSummary[] datasetSummaries, IdDictionary referenceGenomes, int words)
+    {
+        long[][] expectedGenomeMasks = new long[datasetSummaries.length][words];
+        for (int datasetIndex = 0; datasetIndex < datasetSummaries.length; datasetIndex++)
+        {
+            for (int i = 0; i < referenceGenomes.size(); i++)
             {
-                AlignmentSummary alignmentSummary = multiGenomeAlignmentSummary.getAlignmentSummary(referenceGenomeId);
-                if (alignmentSummary == null)
+                if (datasetSummaries[datasetIndex].isExpectedReferenceGenome(referenceGenomes.getId(i)))
                 {
-                    alignmentSummary = new AlignmentSummary();
-                    alignmentSummary.setReferenceGenomeId(referenceGenomeId);
-                    multiGenomeAlignmentSummary.addAlignmentSummary(alignmentSummary);
+                    expectedGenomeMasks[datasetIndex][i >>> 6] |= 1L << i;
                 }
             }
         }
+        return expectedGenomeMasks;
+    }
 
-        // initialize dataset index mapping
-        Map<String, Integer> datasetIndexMapping = new HashMap<String, Integer>();
-        int datasetCount = 0;
-        for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : multiGenomeAlignmentSummaries.values())
+    /**
+     * Partitions the datasets into ranges of consecutive dataset indexes such
+     * that the total number of sampled sequences in each range does not exceed
+     * the given maximum, other than for a single dataset with more sampled
+     * sequences than this.
+     *
+     * @param sampledCounts the number of sampled sequences for each dataset
+     * @param maxSequences the maximum number of sampled sequences in each partition
+     * @return the start and end (exclusive) dataset indexes for each partition
+     */
+    protected static List<int[]> partitionDatasets(int[] sampledCounts, long maxSequences)
+    {
+        List<int[]> partitions = new ArrayList<int[]>();
+        int start = 0;
+        long sequences = 0;
+        for (int i = 0; i < sampledCounts.length; i++)
         {
-            datasetIndexMapping.put(multiGenomeAlignmentSummary.getDatasetId(), datasetCount);
-            datasetCount++;
+            if (i > start && sequences + sampledCounts[i] > maxSequences)
+            {
+                partitions.add(new int[] { start, i });
+                start = i;
+                sequences = 0;
+            }
+            sequences += sampledCounts[i];
         }
+        partitions.add(new int[] { start, sampledCounts.length });
+        return partitions;
+    }
 
-        // first pass through alignments
-        int[] bestAlignmentCounts = new int[referenceGenomeIds.size() + 1];
-
-        while (true)
+    /**
+     * Summarizes the best alignments for the datasets in the given range,
+     * partitioning these between workers that each accumulate counts in a
+     * private matrix, holding rows for the datasets in the range only, which is
+     * merged on completion.
+     *
+     * @param aggregator the alignment aggregator
+     * @param start the first dataset index
+     * @param end the dataset index following the last to summarize
+     * @param threads the number of threads
+     * @param expectedGenomeMasks the bit sets of expected reference genomes for each dataset
+     * @param datasetSummaries the multi-genome alignment summary for each dataset
+     * @param bestAlignmentCounts histogram of the number of reference genomes tied as best aligning
+     * @throws IOException
+     */
+    private void summarizeAlignments(final AlignmentAggregator aggregator, int start, final int end, int threads,
+            final long[][] expectedGenomeMasks, final MultiGenomeAlignmentSummary[] datasetSummaries, int[] bestAlignmentCounts) throws IOException
+    {
+        final int datasetStart = start;
+        final int referenceGenomeCount = alignmentSummaryMatrix.getReferenceGenomeCount();
+        final AtomicInteger nextDatasetIndex = new AtomicInteger(start);
+        List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+        for (int i = 0; i < Math.min(threads, end - start); i++)
         {
-            List<Alignment> alignments = reader.getNextAlignments();
-            if (alignments.isEmpty()) break;
-
-            Alignment first = alignments.get(0);
-            String datasetId = first.getDatasetId();
-            int sequenceId = first.getSequenceId();
-            int mismatchCount = first.getMismatchCount();
-
-            MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = multiGenomeAlignmentSummaries.get(datasetId);
-            if (multiGenomeAlignmentSummary == null)
+            tasks.add(new Callable<int[]>()
             {
-                error("Missing sequence count file for dataset " + first.getDatasetId());
-            }
-            if (sequenceId > multiGenomeAlignmentSummary.getSampledCount())
+                @Override
+                public int[] call()
+                {
+                    AlignmentSummaryMatrix matrix = new AlignmentSummaryMatrix(datasetStart, end, referenceGenomeCount);
+                    int[] bestAlignmentCounts = new int[referenceGenomeCount + 1];
+                    int index;
+                    while ((index = nextDatasetIndex.getAndIncrement()) < end)
+                    {
+                        int alignedCount = summarizeAlignments(aggregator, index, expectedGenomeMasks[index], matrix, bestAlignmentCounts);
+                        datasetSummaries[index].addAlignedCount(alignedCount);
+                    }
+                    alignmentSummaryMatrix.merge(matrix);
+                    return bestAlignmentCounts;
+                }
+            });
+        }
+
+        for (int[] counts : TaskUtils.invokeAll(tasks, threads, "alignment-summarizer"))
+        {
+            for (int i = 0; i < counts.length; i++)
             {
-                error("Sequence number " + sequenceId + " for dataset " + datasetId + " out of range, maximum value should be " + multiGenomeAlignmentSummary.getSampledCount());
+                bestAlignmentCounts[i] += counts[i];
             }
+        }
+    }
+
+    /**
+     * Summarizes the best alignments, i.e. those with the fewest mismatches,
+     * for each sequence in the given dataset and assigns each sequence to a
+     * reference genome based on scores computed from these.
+     *
+     * Counts are accumulated in the given alignment summary matrix which
+     * should not be shared with other threads.
+     *
+     * @param aggregator the alignment aggregator
+     * @param datasetIndex the dataset index
+     * @param expectedGenomeMask the bit set of expected reference genomes for the dataset
+     * @param matrix the alignment summary matrix in which to accumulate counts
+     * @param bestAlignmentCounts histogram of the number of reference genomes tied as best aligning
+     * @return the number of aligned sequences in the dataset
+     */
+    private int summarizeAlignments(AlignmentAggregator aggregator, int datasetIndex, long[] expectedGenomeMask, AlignmentSummaryMatrix matrix, int[] bestAlignmentCounts)
+    {
+        int referenceGenomeCount = matrix.getReferenceGenomeCount();
+        int sampledCount = aggregator.getSampledCount(datasetIndex);
+        int words = aggregator.getWords();
+        long[] counters = matrix.getCounters();
+        int datasetOffset = matrix.getOffset(datasetIndex, 0);
+        int alignedCount = 0;
+
+        // accumulate alignment summaries for the best alignments for each
+        // sequence
+        for (int sequenceId = 1; sequenceId <= sampledCount; sequenceId++)
+        {
+            if (!aggregator.isAligned(datasetIndex, sequenceId)) continue;
 
-            multiGenomeAlignmentSummary.incrementAlignedCount();
+            alignedCount++;
 
-            List<Alignment> bestAlignments = new ArrayList<Alignment>();
+            int alignedLength = aggregator.getAlignedLength(datasetIndex, sequenceId);
+            int mismatchCount = aggregator.getBestMismatchCount(datasetIndex, sequenceId);
+            int bestAlignmentCount = 0;
+            int bestOffset = -1;
 
-            for (Alignment alignment : alignments)
+            for (int word = 0; word < words; word++)
             {
-                AlignmentSummary alignmentSummary = multiGenomeAlignmentSummary.getAlignmentSummary(alignment.getReferenceGenomeId());
-                alignmentSummary.incrementAlignedCount();
-                alignmentSummary.addAlignedSequenceLength(alignment.getAlignedLength());
-                alignmentSummary.addMismatchCount(alignment.getMismatchCount());
-                if (alignment.getMismatchCount() == mismatchCount)
+                long mask = aggregator.getBestGenomeMask(datasetIndex, sequenceId, word);
+                while (mask != 0)
                 {
-                    bestAlignments.add(alignment);
-                    alignmentSummary.incrementPreferentiallyAlignedCount();
-                    alignmentSummary.addPreferentiallyAlignedSequenceLength(alignment.getAlignedLength());
-                    alignmentSummary.addPreferentiallyAlignedMismatchCount(alignment.getMismatchCount());
+                    int referenceGenomeIndex = (word << 6) + Long.numberOfTrailingZeros(mask);
+                    mask &= mask - 1;
+                    int offset = datasetOffset + referenceGenomeIndex * AlignmentSummaryMatrix.METRIC_COUNT;
+                    counters[offset + AlignmentSummaryMatrix.PREFERENTIALLY_ALIGNED_COUNT]++;
+                    counters[offset + AlignmentSummaryMatrix.PREFERENTIALLY_ALIGNED_SEQUENCE_LENGTH] += alignedLength;
+                    counters[offset + AlignmentSummaryMatrix.PREFERENTIALLY_ALIGNED_MISMATCH_COUNT] += mismatchCount;
+                    bestOffset = offset;
+                    bestAlignmentCount++;
                 }
             }
 
-            if (bestAlignments.size() == 1)
+            if (bestAlignmentCount == 1)
             {
-                Alignment alignment = bestAlignments.get(0);
-                AlignmentSummary alignmentSummary = multiGenomeAlignmentSummary.getAlignmentSummary(alignment.getReferenceGenomeId());
-                alignmentSummary.incrementUniquelyAlignedCount();
-                alignmentSummary.addUniquelyAlignedSequenceLength(alignment.getAlignedLength());
-                alignmentSummary.addUniquelyAlignedMismatchCount(alignment.getMismatchCount());
+                counters[bestOffset + AlignmentSummaryMatrix.UNIQUELY_ALIGNED_COUNT]++;
+                counters[bestOffset + AlignmentSummaryMatrix.UNIQUELY_ALIGNED_SEQUENCE_LENGTH] += alignedLength;
+                counters[bestOffset + AlignmentSummaryMatrix.UNIQUELY_ALIGNED_MISMATCH_COUNT] += mismatchCount;
             }
 
-            bestAlignmentCounts[bestAlignments.size()]++;
+            bestAlignmentCounts[bestAlignmentCount]++;
         }
 
-        log.info("Histogram of best alignments");
-        log.info("No. genomes tied as best aligning\tCount");
-        for (int i = 1; i < bestAlignmentCounts.length; i++)
+        // generate scores for each species based on the preferentially
+        // aligned sequences
+        long preferentiallyAlignedTotal = 0;
+        for (int i = 0; i < referenceGenomeCount; i++)
         {
-            log.info(i + "\t" + bestAlignmentCounts[i]);
+            preferentiallyAlignedTotal += matrix.get(datasetIndex, i, AlignmentSummaryMatrix.PREFERENTIALLY_ALIGNED_COUNT);
         }
 
-        // generate scores for each species based on the assigned sequences from the
-        // first pass
-        Map<String, List<Double>> datasetScores = new HashMap<String, List<Double>>();
-        for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : multiGenomeAlignmentSummaries.values())
+        double[] scores = new double[referenceGenomeCount];
+        for (int i = 0; i < referenceGenomeCount; i++)
         {
-            List<Double> scores = new ArrayList<Double>(referenceGenomeIds.size());
-            for (int i = 0; i < referenceGenomeIds.size(); i++) scores.add(0.0);
-
-            int preferentiallyAlignedTotal = 0;
-            for (String referenceGenomeId : referenceGenomeIds)
-            {
-                preferentiallyAlignedTotal += multiGenomeAlignmentSummary.getAlignmentSummary(referenceGenomeId).getPreferentiallyAlignedCount();
-            }
-
-            for (String referenceGenomeId : referenceGenomeIds)
-            {
-                AlignmentSummary alignmentSummary = multiGenomeAlignmentSummary.getAlignmentSummary(referenceGenomeId);
-                double score = ((double)alignmentSummary.getPreferentiallyAlignedCount()) / preferentiallyAlignedTotal;
-//                if (score > 0.05)
-//                {
-//                    double score2 =  Math.max(1.0 - 100.0 * alignmentSummary.getPreferentiallyAlignedErrorRate(), 0.0);
-//                    score += score2;
-//                }
-                int referenceGenomeIndex = referenceGenomeIndexMapping.get(referenceGenomeId);
-                scores.set(referenceGenomeIndex, score);
-            }
-
-            datasetScores.put(multiGenomeAlignmentSummary.getDatasetId(), scores);
+            double score = ((double)matrix.get(datasetIndex, i, AlignmentSummaryMatrix.PREFERENTIALLY_ALIGNED_COUNT)) / preferentiallyAlignedTotal;
+//            if (score > 0.05)
+//            {
+//                double score2 =  Math.max(1.0 - 100.0 * alignmentSummary.getPreferentiallyAlignedErrorRate(), 0.0);
+//                score += score2;
+//            }
+            scores[i] = score;
         }
 
-        reader = new AlignmentReader(alignmentFiles, config.getRunId());
-
-        while (true)
+        // assign each sequence to the best aligned reference genome with the
+        // highest score, preferentially selecting an expected species if one
+        // is among those with the fewest mismatches
+        for (int sequenceId = 1; sequenceId <= sampledCount; sequenceId++)
         {
-            List<Alignment> alignments = reader.getNextAlignments();
-            if (alignments.isEmpty()) break;
-
-            Alignment first = alignments.get(0);
-            String datasetId = first.getDatasetId();
-            int mismatchCount = first.getMismatchCount();
+            if (!aggregator.isAligned(datasetIndex, sequenceId)) continue;
 
-            MultiGenomeAlignmentSummary multiGenomeAlignmentSummary = multiGenomeAlignmentSummaries.get(datasetId);
-
-            // only consider best alignments for the current sequence, i.e. those with the fewest mismatches
-            List<Alignment> bestAlignments = new ArrayList<Alignment>();
-            List<Alignment> bestControlAlignments = new ArrayList<Alignment>();
-
-            for (Alignment alignment : alignments)
+            boolean control = false;
+            for (int word = 0; word < words && !control; word++)
             {
-                if (alignment.getMismatchCount() == mismatchCount)
-                {
-                    bestAlignments.add(alignment);
-                    // check is the reference genome id is one of the expected species
-                    if (multiGenomeAlignmentSummary.isExpectedReferenceGenome(alignment.getReferenceGenomeId()))
-                    {
-                        bestControlAlignments.add(alignment);
-                    }
-                }
-                else
-                {
-                    break;
-                }
+                control = (aggregator.getBestGenomeMask(datasetIndex, sequenceId, word) & expectedGenomeMask[word]) != 0;
             }
 
-            List<Double> scores = datasetScores.get(datasetId);
-
-            Alignment assigned = null;
+            int assigned = -1;
             double assignedScore = 0.0;
 
-            // preferentially select an expected species if one is among those
-            // with the fewest mismatches
-            if (!bestControlAlignments.isEmpty()) {
-                bestAlignments = bestControlAlignments;
-            }
-
-            for (Alignment alignment : bestAlignments)
+            for (int word = 0; word < words; word++)
             {
-                String referenceGenomeId = alignment.getReferenceGenomeId();
-                int referenceGenomeIndex = referenceGenomeIndexMapping.get(referenceGenomeId);
-                double score = scores.get(referenceGenomeIndex);
-                if (assigned == null || score > assignedScore)
+                long mask = aggregator.getBestGenomeMask(datasetIndex, sequenceId, word);
+                if (control) mask &= expectedGenomeMask[word];
+                while (mask != 0)
                 {
-                    assigned = alignment;
-                    assignedScore = score;
+                    int referenceGenomeIndex = (word << 6) + Long.numberOfTrailingZeros(mask);
+                    mask &= mask - 1;
+                    double score = scores[referenceGenomeIndex];
+                    if (assigned == -1 || score > assignedScore)
+                    {
+                        assigned = referenceGenomeIndex;
+                        assignedScore = score;
+                    }
                 }
             }
 
-            AlignmentSummary alignmentSummary = multiGenomeAlignmentSummary.getAlignmentSummary(assigned.getReferenceGenomeId());
-            alignmentSummary.incrementAssignedCount();
-            alignmentSummary.addAssignedSequenceLength(assigned.getAlignedLength());
-            alignmentSummary.addAssignedMismatchCount(assigned.getMismatchCount());
+            int offset = datasetOffset + assigned * AlignmentSummaryMatrix.METRIC_COUNT;
+            counters[offset + AlignmentSummaryMatrix.ASSIGNED_COUNT]++;
+            counters[offset + AlignmentSummaryMatrix.ASSIGNED_SEQUENCE_LENGTH] += aggregator.getAlignedLength(datasetIndex, sequenceId);
+            counters[offset + AlignmentSummaryMatrix.ASSIGNED_MISMATCH_COUNT] += aggregator.getBestMismatchCount(datasetIndex, sequenceId);
         }
+
+        return alignedCount;
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.cruk.util.CompressionUtils;
+
+/**
+ * Reader for the small XML summary files written for each dataset, such as
+ * the sequence count and sampling summary files, that extracts the dataset
+ * identifier and a single value using a streaming parser rather than
+ * building a document for each file.
+ */
+public class DatasetSummaryFileReader
+{
+    public static final String DATASET_ID = "DatasetId";
+
+    // stream readers can be created concurrently from a configured factory
+    private static final XMLInputFactory xmlInputFactory = createXMLInputFactory();
+
+    private String datasetId;
+    private String value;
+
+    /**
+     * Reads the given dataset summary file.
+     *
+     * @param file the summary file, which may have been compressed
+     * @param rootElementName the expected name of the root element
+     * @param valueElementName the name of the child element containing the value
+     * @return the dataset identifier and value read from the file
+     * @throws IOException
+     */
+    public static DatasetSummaryFileReader read(String file, String rootElementName, String valueElementName) throws IOException
+    {
+        DatasetSummaryFileReader summary = new DatasetSummaryFileReader();
+
+        try (InputStream inputStream = CompressionUtils.openInputStream(new File(file)))
+        {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(inputStream);
+            try
+            {
+                reader.nextTag();
+                if (!reader.getLocalName().equals(rootElementName))
+                {
+                    throw new RuntimeException("Summary file " + file + " does not contain root element with name " + rootElementName);
+                }
+
+                int depth = 1;
+                while (depth > 0)
+                {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT)
+                    {
+                        String name = reader.getLocalName();
+                        if (depth == 1 && name.equals(DATASET_ID))
+                        {
+                            summary.datasetId = reader.getElementText();
+                        }
+                        else if (depth == 1 && name.equals(valueElementName))
+                        {
+                            summary.value = reader.getElementText();
+                        }
+                        else
+                        {
+                            depth++;
+                        }
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT)
+                    {
+                        depth--;
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IOException("Error parsing summary file " + file, e);
+        }
+
+        if (summary.datasetId == null)
+        {
+            throw new RuntimeException("Could not find " + DATASET_ID + " child element of " + rootElementName + " in " + file);
+        }
+        if (summary.value == null)
+        {
+            throw new RuntimeException("Could not find " + valueElementName + " child element of " + rootElementName + " in " + file);
+        }
+
+        return summary;
+    }
+
+    /**
+     * @return the factory used to create stream readers, with support for external entities disabled
+     */
+    private static XMLInputFactory createXMLInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
+    /**
+     * @return the dataset identifier
+     */
+    public String getDatasetId()
+    {
+        return datasetId;
+    }
+
+    /**
+     * @return the value
+     */
+    public String getValue()
+    {
+        return value;
+    }
+}
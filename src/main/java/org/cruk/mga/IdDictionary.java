@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dictionary assigning dense integer codes, in order of addition, to
+ * identifiers such as dataset or reference genome ids for a run.
+ *
+ * Identifiers are resolved to codes once, after which lookups are made by
+ * array index. Codes can also be looked up directly from the bytes of an
+ * UTF-8 encoded identifier, e.g. within a parser buffer, without
+ * creating a string.
+ */
+public class IdDictionary
+{
+    private List<String> ids = new ArrayList<String>();
+    private List<byte[]> idBytes = new ArrayList<byte[]>();
+
+    // open addressing hash table of codes, -1 indicating an empty slot
+    private int[] table = new int[16];
+
+    /**
+     * Creates a new empty IdDictionary.
+     */
+    public IdDictionary()
+    {
+        Arrays.fill(table, -1);
+    }
+
+    /**
+     * Creates a new IdDictionary containing the given identifiers.
+     *
+     * @param ids the identifiers
+     */
+    public IdDictionary(Iterable<String> ids)
+    {
+        this();
+        for (String id : ids)
+        {
+            add(id);
+        }
+    }
+
+    /**
+     * Adds the given identifier if not already present.
+     *
+     * @param id the identifier
+     * @return the code for the identifier
+     */
+    public int add(String id)
+    {
+        int code = getCode(id);
+        if (code != -1) return code;
+
+        code = ids.size();
+        ids.add(id);
+        idBytes.add(id.getBytes(StandardCharsets.UTF_8));
+
+        if (2 * ids.size() > table.length)
+        {
+            table = new int[2 * table.length];
+            Arrays.fill(table, -1);
+            for (int i = 0; i < idBytes.size(); i++)
+            {
+                byte[] bytes = idBytes.get(i);
+                table[findSlot(bytes, 0, bytes.length, hash(bytes, 0, bytes.length))] = i;
+            }
+        }
+        else
+        {
+            byte[] bytes = idBytes.get(code);
+            table[findSlot(bytes, 0, bytes.length, hash(bytes, 0, bytes.length))] = code;
+        }
+
+        return code;
+    }
+
+    /**
+     * @param id the identifier
+     * @return the code for the given identifier or -1 if not present
+     */
+    public int getCode(String id)
+    {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return getCode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the code for the identifier given by a region of a byte array
+     * containing UTF-8 encoded characters.
+     *
+     * @param bytes the byte array
+     * @param offset the start of the identifier
+     * @param length the length of the identifier
+     * @return the code for the identifier or -1 if not present
+     */
+    public int getCode(byte[] bytes, int offset, int length)
+    {
+        return table[findSlot(bytes, offset, length, hash(bytes, offset, length))];
+    }
+
+    /**
+     * @param code the code
+     * @return the identifier with the given code
+     */
+    public String getId(int code)
+    {
+        return ids.get(code);
+    }
+
+    /**
+     * @return the identifiers in order of their codes
+     */
+    public List<String> getIds()
+    {
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * @return the number of identifiers
+     */
+    public int size()
+    {
+        return ids.size();
+    }
+
+    private int findSlot(byte[] bytes, int offset, int length, int hash)
+    {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != -1 && !matches(idBytes.get(table[slot]), bytes, offset, length))
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean matches(byte[] id, byte[] bytes, int offset, int length)
+    {
+        if (id.length != length) return false;
+        for (int i = 0; i < length; i++)
+        {
+            if (id[i] != bytes[offset + i]) return false;
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length)
+    {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            hash = 31 * hash + (bytes[i] & 0xff);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -5,6 +5,8 @@ import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
 import java.io.File;
 
+import org.cruk.mga.export.MetricsTableWriter;
+import org.cruk.mga.export.ProvisionalStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,13 +28,54 @@ public class MGAConfig
     private String xslStyleSheetFilename;
     private boolean separateDatasetReports;
     private String datasetReportFilenamePrefix;
+    private boolean linkImage;
+    private boolean svgPlot;
+    private boolean jsonYamlReports;
+    private String metricsTableFormat;
     private int plotWidth;
     private long minimumSequenceCount;
+    private ProvisionalStatus provisionalStatus;
 
     public MGAConfig()
     {
     }
 
+    public MGAConfig(MGAConfig config)
+    {
+        runId = config.runId;
+        trimStart = config.trimStart;
+        trimLength = config.trimLength;
+        outputPrefix = config.outputPrefix;
+        sampleSheetFilename = config.sampleSheetFilename;
+        referenceGenomeMappingFilename = config.referenceGenomeMappingFilename;
+        xslStyleSheetFilename = config.xslStyleSheetFilename;
+        separateDatasetReports = config.separateDatasetReports;
+        datasetReportFilenamePrefix = config.datasetReportFilenamePrefix;
+        linkImage = config.linkImage;
+        svgPlot = config.svgPlot;
+        jsonYamlReports = config.jsonYamlReports;
+        metricsTableFormat = config.metricsTableFormat;
+        plotWidth = config.plotWidth;
+        minimumSequenceCount = config.minimumSequenceCount;
+        provisionalStatus = config.provisionalStatus;
+    }
+
+    /**
+     * Creates the configuration for the separate report for a single dataset,
+     * for which output files are named using the dataset report file name
+     * prefix and the dataset identifier.
+     *
+     * @param datasetId the dataset identifier
+     * @return the configuration for the dataset report
+     */
+    public MGAConfig createDatasetReportConfig(String datasetId)
+    {
+        MGAConfig config = new MGAConfig(this);
+        config.outputPrefix = (datasetReportFilenamePrefix == null ? "" : datasetReportFilenamePrefix) + datasetId;
+        config.separateDatasetReports = false;
+        return config;
+    }
+
     public String getRunId()
     {
         return runId;
@@ -78,6 +121,11 @@ public class MGAConfig
         return isEmpty(outputPrefix) ? null : new File(outputPrefix + ".xml");
     }
 
+    public File getJsonFile()
+    {
+        return isEmpty(outputPrefix) ? null : new File(outputPrefix + ".json");
+    }
+
     public File getYamlFile()
     {
         return isEmpty(outputPrefix) ? null : new File(outputPrefix + ".yml");
@@ -90,7 +138,17 @@ public class MGAConfig
 
     public File getImageFile()
     {
-        return isEmpty(outputPrefix) ? null : new File(outputPrefix + ".png");
+        return isEmpty(outputPrefix) ? null : new File(outputPrefix + (svgPlot ? ".svg" : ".png"));
+    }
+
+    public File getMetricsTableFile()
+    {
+        return isEmpty(outputPrefix) || metricsTableFormat == null ? null : new File(outputPrefix + MetricsTableWriter.getFileExtension(metricsTableFormat));
+    }
+
+    public String getImageMediaType()
+    {
+        return svgPlot ? "image/svg+xml" : "image/png";
     }
 
     public boolean hasSampleSheet()
@@ -158,6 +216,46 @@ public class MGAConfig
         this.datasetReportFilenamePrefix = datasetReportFilenamePrefix;
     }
 
+    public boolean isLinkImage()
+    {
+        return linkImage;
+    }
+
+    public void setLinkImage(boolean linkImage)
+    {
+        this.linkImage = linkImage;
+    }
+
+    public boolean isSvgPlot()
+    {
+        return svgPlot;
+    }
+
+    public void setSvgPlot(boolean svgPlot)
+    {
+        this.svgPlot = svgPlot;
+    }
+
+    public boolean isJsonYamlReports()
+    {
+        return jsonYamlReports;
+    }
+
+    public void setJsonYamlReports(boolean jsonYamlReports)
+    {
+        this.jsonYamlReports = jsonYamlReports;
+    }
+
+    public String getMetricsTableFormat()
+    {
+        return metricsTableFormat;
+    }
+
+    public void setMetricsTableFormat(String metricsTableFormat)
+    {
+        this.metricsTableFormat = metricsTableFormat;
+    }
+
     public int getPlotWidth()
     {
         return plotWidth;
@@ -182,4 +280,14 @@ public class MGAConfig
     {
         minimumSequenceCount = minimumSequenceCountN == null ? MINIMUM_SEQUENCE_COUNT : minimumSequenceCountN.longValue();
     }
+
+    public ProvisionalStatus getProvisionalStatus()
+    {
+        return provisionalStatus;
+    }
+
+    public void setProvisionalStatus(ProvisionalStatus provisionalStatus)
+    {
+        this.provisionalStatus = provisionalStatus;
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.File;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import org.cruk.util.CommandLineUtility;
+import org.cruk.util.RunManifest;
+
+/**
+ * Utility for combining the run manifest files written for each dataset by
+ * the count and sampling tasks into a single run manifest file, so that
+ * {@link CreateReport} reads one file for the whole run.
+ *
+ * Each input file is read and checked in full before the records are
+ * written, so a truncated or corrupt manifest file, or a value given in
+ * more than one file, is reported as an error here rather than when
+ * creating the report.
+ */
+public class MergeRunManifests extends CommandLineUtility
+{
+    private String[] manifestFiles;
+
+    /**
+     * Runs the MergeRunManifests utility with the given command-line arguments.
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        MergeRunManifests mergeRunManifests = new MergeRunManifests(args);
+        mergeRunManifests.execute();
+    }
+
+    /**
+     * Initializes a new MergeRunManifests utility instance with the given command-line arguments.
+     *
+     * @param args
+     */
+    private MergeRunManifests(String[] args)
+    {
+        super("manifest_files", args);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setupOptions()
+    {
+        Option option = new Option("o", "output-file", true, "Output file for the combined run manifest");
+        option.setRequired(true);
+        options.addOption(option);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void parseCommandLine(CommandLine commandLine) throws ParseException
+    {
+        outputFilename = commandLine.getOptionValue("output-file");
+
+        manifestFiles = commandLine.getArgs();
+
+        if (manifestFiles.length == 0)
+        {
+            error("Error parsing command line: missing manifest files", true);
+        }
+    }
+
+    /**
+     * Runs the run manifest merging utility.
+     *
+     * @throws Exception
+     */
+    @Override
+    protected void run() throws Exception
+    {
+        RunManifest manifest = new RunManifest();
+        for (String manifestFile : manifestFiles)
+        {
+            manifest.read(new File(manifestFile));
+        }
+
+        manifest.write(out);
+
+        log.info("Merged " + manifestFiles.length + " run manifest files for " + manifest.getDatasetIds().size() + " datasets into " + outputFilename);
+    }
+}
@@ -153,6 +153,16 @@ public class MultiGenomeAlignmentSummary implements Serializable
         alignedCount++;
     }
 
+    /**
+     * Adds the given number of aligned sequences.
+     *
+     * @param count the number of aligned sequences
+     */
+    public void addAlignedCount(int count)
+    {
+        alignedCount += count;
+    }
+
     /**
      * @return the unmappedCount
      */
@@ -179,6 +189,16 @@ public class MultiGenomeAlignmentSummary implements Serializable
         alignmentSummaries.put(alignmentSummary.getReferenceGenomeId(), alignmentSummary);
     }
 
+    /**
+     * Removes all alignment summaries and resets the aligned count, e.g.
+     * before summarizing alignments again once more have become available.
+     */
+    public void clearAlignmentSummaries()
+    {
+        alignmentSummaries.clear();
+        alignedCount = 0;
+    }
+
     /**
      * Returns the alignment summary for the given reference genome.
      *
@@ -218,6 +238,29 @@ public class MultiGenomeAlignmentSummary implements Serializable
         return expectedReferenceGenomeIds.contains(referenceGenomeId);
     }
 
+    /**
+     * Adds the aligned count and the counts for each reference genome from
+     * the given summary for the same dataset, e.g. one accumulated separately
+     * by another thread from a disjoint set of alignment files, to this one.
+     *
+     * @param multiGenomeAlignmentSummary the summary to merge.
+     */
+    public void merge(MultiGenomeAlignmentSummary multiGenomeAlignmentSummary)
+    {
+        alignedCount += multiGenomeAlignmentSummary.alignedCount;
+        for (AlignmentSummary other : multiGenomeAlignmentSummary.alignmentSummaries.values())
+        {
+            AlignmentSummary alignmentSummary = alignmentSummaries.get(other.getReferenceGenomeId());
+            if (alignmentSummary == null)
+            {
+                alignmentSummary = new AlignmentSummary();
+                alignmentSummary.setReferenceGenomeId(other.getReferenceGenomeId());
+                addAlignmentSummary(alignmentSummary);
+            }
+            alignmentSummary.merge(other);
+        }
+    }
+
     @Override
     public String toString()
     {
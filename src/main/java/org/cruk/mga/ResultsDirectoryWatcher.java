@@ -0,0 +1,340 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Watches the directory to which results files for a run are written while
+ * alignments are still running, identifying the alignment, partial summary
+ * and adapter alignment files completed since the previous scan and keeping
+ * track of the reference genomes for which alignments are outstanding for
+ * each chunk of sequences.
+ *
+ * Results files are written to a temporary file, with a .tmp extension, and
+ * renamed on successful completion, so a file is considered complete as soon
+ * as it appears under its final name; temporary files are ignored.
+ *
+ * The number of chunks of sequences is read from the chunk count file,
+ * runId.chunk.count, written by the task splitting the sampled sequences
+ * into chunks once all chunks have been written. Alignments are not
+ * considered complete until this file has been read, and results files for
+ * chunks beyond that number are reported as an error. Until then, chunks
+ * are identified from the FASTQ files for each chunk, runId.chunk.fq, and
+ * from the names of the results files, for the provisional report only.
+ *
+ * Each alignment and partial summary file is returned only if none of its
+ * alignments have already been returned, so that these are not counted
+ * twice: a partial summary file is ignored if alignment files for the same
+ * chunk have already been returned, and vice versa, and only one of the text
+ * and compact binary alignment files for a chunk and reference genome is
+ * returned, preferring the binary format.
+ */
+public class ResultsDirectoryWatcher
+{
+    public static final String CHUNK_COUNT_FILE_SUFFIX = ".chunk.count";
+
+    private static final String ADAPTER_ALIGNMENT_FILE_SUFFIX = ".adapter.exonerate.alignment";
+
+    private File directory;
+    private String runId;
+    private Set<String> referenceGenomeIds;
+    private Pattern chunkFastqFilePattern;
+
+    private Set<String> processedFiles = new HashSet<String>();
+
+    private int expectedChunkCount = -1;
+    private Set<String> chunks = new TreeSet<String>();
+    private Set<String> summarizedChunks = new HashSet<String>();
+    private Set<String> adapterAlignedChunks = new HashSet<String>();
+    private Map<String, Set<String>> alignedReferenceGenomeIds = new HashMap<String, Set<String>>();
+
+    private List<String> newAlignmentFiles = new ArrayList<String>();
+    private List<String> newSummaryFiles = new ArrayList<String>();
+    private List<String> newAdapterAlignmentFiles = new ArrayList<String>();
+
+    /**
+     * Creates a new ResultsDirectoryWatcher.
+     *
+     * @param directory the directory to which results files are written
+     * @param runId the run identifier
+     * @param referenceGenomeIds the reference genomes to which sequences are being aligned
+     */
+    public ResultsDirectoryWatcher(File directory, String runId, Collection<String> referenceGenomeIds)
+    {
+        this.directory = directory;
+        this.runId = runId;
+        this.referenceGenomeIds = new TreeSet<String>(referenceGenomeIds);
+        chunkFastqFilePattern = Pattern.compile(Pattern.quote(runId) + "\\.(\\d+)\\.fq(\\.gz)?");
+    }
+
+    /**
+     * Scans the directory for results files completed since the previous
+     * scan, which are then returned by {@link #getNewAlignmentFiles()},
+     * {@link #getNewSummaryFiles()} and {@link #getNewAdapterAlignmentFiles()}.
+     *
+     * @throws IOException
+     */
+    public void scan() throws IOException
+    {
+        newAlignmentFiles.clear();
+        newSummaryFiles.clear();
+        newAdapterAlignmentFiles.clear();
+
+        if (expectedChunkCount == -1)
+        {
+            readChunkCount();
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new RuntimeException("Error listing directory " + directory.getAbsolutePath());
+
+        String prefix = runId + ".";
+        List<String> completedFiles = new ArrayList<String>();
+        for (File file : files)
+        {
+            String name = file.getName();
+            if (!name.startsWith(prefix)) continue;
+
+            Matcher matcher = chunkFastqFilePattern.matcher(name);
+            if (matcher.matches())
+            {
+                chunks.add(matcher.group(1));
+                continue;
+            }
+
+            if (!isResultsFile(name)) continue;
+
+            String path = file.getPath();
+            if (!processedFiles.contains(path))
+            {
+                completedFiles.add(path);
+            }
+        }
+        Collections.sort(completedFiles);
+
+        for (String file : completedFiles)
+        {
+            if (file.endsWith(ADAPTER_ALIGNMENT_FILE_SUFFIX))
+            {
+                String name = new File(file).getName();
+                String chunk = name.substring(prefix.length(), name.length() - ADAPTER_ALIGNMENT_FILE_SUFFIX.length());
+                processedFiles.add(file);
+                chunks.add(chunk);
+                if (adapterAlignedChunks.add(chunk)) newAdapterAlignmentFiles.add(file);
+            }
+            else if (file.endsWith(AlignmentAggregator.SUMMARY_FILE_SUFFIX))
+            {
+                String chunk = AlignmentAggregator.getChunkAndReferenceGenomeId(file, runId)[0];
+                processedFiles.add(file);
+                chunks.add(chunk);
+                if (!alignedReferenceGenomeIds.containsKey(chunk) && summarizedChunks.add(chunk)) newSummaryFiles.add(file);
+            }
+        }
+
+        // text alignment files are only selected if the binary version has
+        // not also been completed and are skipped if that was returned earlier
+        for (String file : AlignmentAggregator.selectAlignmentFiles(completedFiles.toArray(new String[0])))
+        {
+            String[] chunkAndReferenceGenomeId = AlignmentAggregator.getChunkAndReferenceGenomeId(file, runId);
+            String chunk = chunkAndReferenceGenomeId[0];
+            String referenceGenomeId = chunkAndReferenceGenomeId[1];
+            if (!referenceGenomeIds.contains(referenceGenomeId))
+                throw new RuntimeException("Unexpected reference genome " + referenceGenomeId + " for alignment file " + file);
+
+            processedFiles.add(file);
+            chunks.add(chunk);
+            if (summarizedChunks.contains(chunk)) continue;
+
+            Set<String> aligned = alignedReferenceGenomeIds.get(chunk);
+            if (aligned == null)
+            {
+                aligned = new HashSet<String>();
+                alignedReferenceGenomeIds.put(chunk, aligned);
+            }
+            if (aligned.add(referenceGenomeId)) newAlignmentFiles.add(file);
+        }
+
+        if (expectedChunkCount != -1 && chunks.size() > expectedChunkCount)
+        {
+            Set<String> unexpected = new TreeSet<String>(chunks);
+            unexpected.removeAll(getExpectedChunks());
+            throw new RuntimeException("Results files found for chunks " + String.join(", ", unexpected) + " beyond the " + expectedChunkCount + " chunks given in " + getChunkCountFile());
+        }
+    }
+
+    /**
+     * Reads the number of chunks of sequences from the chunk count file, if
+     * this has been written.
+     *
+     * @throws IOException
+     */
+    private void readChunkCount() throws IOException
+    {
+        File chunkCountFile = getChunkCountFile();
+        if (!chunkCountFile.exists()) return;
+
+        String contents = new String(Files.readAllBytes(chunkCountFile.toPath()), StandardCharsets.US_ASCII).trim();
+        try
+        {
+            expectedChunkCount = Integer.parseInt(contents);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new RuntimeException("Invalid number of chunks (" + contents + ") in " + chunkCountFile);
+        }
+        if (expectedChunkCount < 1)
+        {
+            throw new RuntimeException("Invalid number of chunks (" + contents + ") in " + chunkCountFile);
+        }
+        chunks.addAll(getExpectedChunks());
+    }
+
+    /**
+     * @return the chunk count file, runId.chunk.count, in the directory being watched
+     */
+    public File getChunkCountFile()
+    {
+        return new File(directory, runId + CHUNK_COUNT_FILE_SUFFIX);
+    }
+
+    private Set<String> getExpectedChunks()
+    {
+        Set<String> expectedChunks = new TreeSet<String>();
+        for (int chunk = 1; chunk <= expectedChunkCount; chunk++)
+        {
+            expectedChunks.add(Integer.toString(chunk));
+        }
+        return expectedChunks;
+    }
+
+    private boolean isResultsFile(String name)
+    {
+        return name.endsWith(AlignmentAggregator.ALIGNMENT_FILE_SUFFIX)
+            || name.endsWith(AlignmentAggregator.ALIGNMENT_FILE_SUFFIX + BinaryAlignmentWriter.FILE_EXTENSION)
+            || name.endsWith(AlignmentAggregator.SUMMARY_FILE_SUFFIX)
+            || name.endsWith(ADAPTER_ALIGNMENT_FILE_SUFFIX);
+    }
+
+    /**
+     * @return the alignment files completed since the previous scan
+     */
+    public List<String> getNewAlignmentFiles()
+    {
+        return newAlignmentFiles;
+    }
+
+    /**
+     * @return the partial summary files completed since the previous scan
+     */
+    public List<String> getNewSummaryFiles()
+    {
+        return newSummaryFiles;
+    }
+
+    /**
+     * @return the adapter alignment files completed since the previous scan
+     */
+    public List<String> getNewAdapterAlignmentFiles()
+    {
+        return newAdapterAlignmentFiles;
+    }
+
+    /**
+     * @return true if the number of chunks of sequences has been read from the chunk count file
+     */
+    public boolean isChunkCountKnown()
+    {
+        return expectedChunkCount != -1;
+    }
+
+    /**
+     * @return the number of chunks of sequences, read from the chunk count file if this has been written or otherwise the number found so far
+     */
+    public int getChunkCount()
+    {
+        return chunks.size();
+    }
+
+    /**
+     * @return the number of chunks of sequences for which alignments to all reference genomes and adapters have been completed
+     */
+    public int getCompletedChunkCount()
+    {
+        int count = 0;
+        for (String chunk : chunks)
+        {
+            if (adapterAlignedChunks.contains(chunk) && getOutstandingReferenceGenomeIds(chunk).isEmpty()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the reference genomes for which alignments have not been completed for one or more chunks of sequences
+     */
+    public Set<String> getOutstandingReferenceGenomeIds()
+    {
+        Set<String> outstanding = new TreeSet<String>();
+        for (String chunk : chunks)
+        {
+            outstanding.addAll(getOutstandingReferenceGenomeIds(chunk));
+        }
+        return outstanding;
+    }
+
+    private Set<String> getOutstandingReferenceGenomeIds(String chunk)
+    {
+        Set<String> outstanding = new TreeSet<String>();
+        if (!summarizedChunks.contains(chunk))
+        {
+            outstanding.addAll(referenceGenomeIds);
+            Set<String> aligned = alignedReferenceGenomeIds.get(chunk);
+            if (aligned != null) outstanding.removeAll(aligned);
+        }
+        return outstanding;
+    }
+
+    /**
+     * @return true if the number of chunks of sequences is known and alignments to all reference genomes and adapters have been completed for all of these
+     */
+    public boolean isComplete()
+    {
+        return expectedChunkCount != -1 && getCompletedChunkCount() == expectedChunkCount;
+    }
+}
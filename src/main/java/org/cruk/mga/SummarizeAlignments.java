@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import org.cruk.util.CommandLineUtility;
+
+/**
+ * Utility for summarizing the alignments to each of the reference genomes
+ * for a chunk of sampled sequences, writing a partial summary containing the
+ * best alignments for each aligned sequence and the totals for each dataset
+ * and reference genome.
+ *
+ * Partial summaries for all chunks are combined by {@link CreateReport} in
+ * place of the alignment files, allowing most of the work of report
+ * generation to be carried out as soon as the alignments for each chunk are
+ * complete.
+ */
+public class SummarizeAlignments extends CommandLineUtility
+{
+    private String runId;
+    private String[] resultsFiles;
+
+    /**
+     * Runs the SummarizeAlignments utility with the given command-line arguments.
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        SummarizeAlignments summarizeAlignments = new SummarizeAlignments(args);
+        summarizeAlignments.execute();
+    }
+
+    /**
+     * Initializes a new SummarizeAlignments utility instance with the given command-line arguments.
+     *
+     * @param args
+     */
+    private SummarizeAlignments(String[] args)
+    {
+        super("sampling_summary_files alignment_files", args);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setupOptions()
+    {
+        Option option = new Option("i", "run-id", true, "The run identifier");
+        option.setRequired(true);
+        options.addOption(option);
+
+        option = new Option("o", "output-file", true, "Output file for the partial alignment summary");
+        option.setRequired(true);
+        options.addOption(option);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void parseCommandLine(CommandLine commandLine) throws ParseException
+    {
+        runId = commandLine.getOptionValue("run-id");
+
+        outputFilename = commandLine.getOptionValue("output-file");
+
+        resultsFiles = commandLine.getArgs();
+
+        if (resultsFiles.length == 0)
+        {
+            error("Error parsing command line: missing arguments", true);
+        }
+    }
+
+    /**
+     * Runs the alignment summarizing utility.
+     *
+     * @throws Exception
+     */
+    @Override
+    protected void run() throws Exception
+    {
+        // the sampled count for each dataset from the sampling summary files
+        Map<String, Integer> sampledCounts = new TreeMap<String, Integer>();
+        for (String file : resultsFiles)
+        {
+            if (file.endsWith(".sampled.xml"))
+            {
+                readSamplingSummaryFile(file, sampledCounts);
+            }
+        }
+
+        // the alignment files and reference genome for each
+        List<String> alignmentFiles = AlignmentAggregator.selectAlignmentFiles(resultsFiles);
+        List<String> referenceGenomeIds = new ArrayList<String>();
+        for (String alignmentFile : alignmentFiles)
+        {
+            referenceGenomeIds.add(AlignmentAggregator.getChunkAndReferenceGenomeId(alignmentFile, runId)[1]);
+        }
+
+        IdDictionary datasets = new IdDictionary(sampledCounts.keySet());
+        int[] sampledCountArray = new int[datasets.size()];
+        for (int i = 0; i < sampledCountArray.length; i++)
+        {
+            sampledCountArray[i] = sampledCounts.get(datasets.getId(i));
+        }
+        IdDictionary referenceGenomes = new IdDictionary(new TreeSet<String>(referenceGenomeIds));
+
+        AlignmentAggregator aggregator = new AlignmentAggregator(datasets, sampledCountArray, referenceGenomes, true);
+        for (int i = 0; i < alignmentFiles.size(); i++)
+        {
+            aggregator.addAlignmentFile(alignmentFiles.get(i), referenceGenomes.getCode(referenceGenomeIds.get(i)), "");
+        }
+        aggregator.aggregate(1);
+
+        aggregator.writeSummary(out);
+
+        if (out.checkError())
+        {
+            throw new IOException("Error writing to " + outputFilename);
+        }
+    }
+
+    /**
+     * Reads the dataset identifier and sampled count from the given sampling
+     * summary file.
+     *
+     * @param file the sampling summary file
+     * @param sampledCounts the sampled count for each dataset
+     * @throws IOException
+     */
+    private void readSamplingSummaryFile(String file, Map<String, Integer> sampledCounts) throws IOException
+    {
+        DatasetSummaryFileReader summary = DatasetSummaryFileReader.read(file, "SamplingSummary", "SampledCount");
+        try
+        {
+            sampledCounts.put(summary.getDatasetId(), Integer.parseInt(summary.getValue()));
+        }
+        catch (NumberFormatException e)
+        {
+            error("Non-integer value of SampledCount element in sampling summary file " + file);
+        }
+    }
+}
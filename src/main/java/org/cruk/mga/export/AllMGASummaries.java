@@ -16,7 +16,7 @@ import org.cruk.util.OrderedProperties;
 
 
 @XmlAccessorType(XmlAccessType.FIELD)
-@XmlType(propOrder = { "runId", "properties", "trimStart", "trimLength", "summaries", "referenceGenomes" })
+@XmlType(propOrder = { "runId", "properties", "trimStart", "trimLength", "provisional", "summaries", "referenceGenomes" })
 @XmlRootElement(name = "MultiGenomeAlignmentSummaries")
 public class AllMGASummaries implements Serializable
 {
@@ -34,6 +34,9 @@ public class AllMGASummaries implements Serializable
     @XmlElement(name = "TrimLength")
     private Integer trimLength;
 
+    @XmlElement(name = "Provisional")
+    private ProvisionalStatus provisional;
+
     @XmlElement(name = "MultiGenomeAlignmentSummary")
     private List<MGASummary> summaries;
 
@@ -50,6 +53,7 @@ public class AllMGASummaries implements Serializable
         runId = config.getRunId();
         trimStart = config.getTrimStart();
         trimLength = config.getTrimLength();
+        provisional = config.getProvisionalStatus();
     }
 
     public AllMGASummaries(MGAConfig config, OrderedProperties runProperties)
@@ -89,6 +93,16 @@ public class AllMGASummaries implements Serializable
         this.trimLength = trimLength;
     }
 
+    public ProvisionalStatus getProvisional()
+    {
+        return provisional;
+    }
+
+    public void setProvisional(ProvisionalStatus provisional)
+    {
+        this.provisional = provisional;
+    }
+
     public Properties getProperties()
     {
         return properties;
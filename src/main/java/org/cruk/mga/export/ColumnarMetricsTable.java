@@ -0,0 +1,361 @@
+package org.cruk.mga.export;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cruk.util.CompressionUtils;
+
+/**
+ * Table of metrics held column by column, with string columns dictionary
+ * encoded, that can be written to and read from a compact binary format.
+ *
+ * The format, written as a gzip stream, consists of the magic number "MGAT",
+ * the format version, the row count and the column count, followed by each
+ * column in turn: its name, its type and its values. Numeric columns contain
+ * a long or float value for each row. String columns contain the number of
+ * distinct values, the distinct values and a code for each row giving the
+ * index of its value, stored in 1, 2 or 4 bytes depending on the number of
+ * distinct values. All numbers are big-endian and strings are in modified
+ * UTF-8, as written by DataOutputStream.
+ */
+public class ColumnarMetricsTable
+{
+    public static final byte STRING_TYPE = 0;
+    public static final byte LONG_TYPE = 1;
+    public static final byte FLOAT_TYPE = 2;
+
+    private static final int MAGIC = ('M' << 24) | ('G' << 16) | ('A' << 8) | 'T';
+    private static final int VERSION = 1;
+
+    private String[] columnNames;
+    private Column[] columns;
+    private int rowCount;
+
+    /**
+     * Creates a new empty table.
+     *
+     * @param columnNames the column names
+     * @param columnTypes the type of each column
+     */
+    public ColumnarMetricsTable(String[] columnNames, byte[] columnTypes)
+    {
+        this.columnNames = columnNames;
+        columns = new Column[columnTypes.length];
+        for (int i = 0; i < columns.length; i++)
+        {
+            columns[i] = createColumn(columnTypes[i]);
+        }
+    }
+
+    private static Column createColumn(byte type)
+    {
+        switch (type)
+        {
+            case STRING_TYPE:
+                return new StringColumn();
+            case LONG_TYPE:
+                return new LongColumn();
+            case FLOAT_TYPE:
+                return new FloatColumn();
+            default:
+                throw new RuntimeException("Unrecognized column type " + type);
+        }
+    }
+
+    public void add(int column, String value)
+    {
+        ((StringColumn)columns[column]).add(rowCount, value);
+    }
+
+    public void add(int column, long value)
+    {
+        ((LongColumn)columns[column]).add(rowCount, value);
+    }
+
+    public void add(int column, float value)
+    {
+        ((FloatColumn)columns[column]).add(rowCount, value);
+    }
+
+    /**
+     * Completes the current row, for which a value must have been added to
+     * every column.
+     */
+    public void endRow()
+    {
+        rowCount++;
+    }
+
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    public String[] getColumnNames()
+    {
+        return columnNames.clone();
+    }
+
+    /**
+     * Returns the index of the column with the given name.
+     *
+     * @param name the column name
+     * @return the column index or -1 if there is no such column
+     */
+    public int getColumnIndex(String name)
+    {
+        return Arrays.asList(columnNames).indexOf(name);
+    }
+
+    public String getString(int column, int row)
+    {
+        return ((StringColumn)columns[column]).get(row);
+    }
+
+    public long getLong(int column, int row)
+    {
+        return ((LongColumn)columns[column]).values[row];
+    }
+
+    public float getFloat(int column, int row)
+    {
+        return ((FloatColumn)columns[column]).values[row];
+    }
+
+    /**
+     * Writes the table to the given output stream.
+     *
+     * @param outputStream the output stream
+     * @throws IOException
+     */
+    public void write(OutputStream outputStream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(rowCount);
+        out.writeInt(columns.length);
+        for (int i = 0; i < columns.length; i++)
+        {
+            out.writeUTF(columnNames[i]);
+            out.writeByte(columns[i].getType());
+            columns[i].write(out, rowCount);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a table from the given file.
+     *
+     * @param file the file
+     * @return the table
+     * @throws IOException
+     */
+    public static ColumnarMetricsTable read(File file) throws IOException
+    {
+        try (InputStream inputStream = CompressionUtils.openInputStream(file))
+        {
+            DataInputStream in = new DataInputStream(inputStream);
+            if (in.readInt() != MAGIC)
+            {
+                throw new RuntimeException("Unrecognized metrics table format in " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new RuntimeException("Unsupported metrics table format version (" + version + ") in " + file);
+            }
+            int rowCount = in.readInt();
+            int columnCount = in.readInt();
+            String[] columnNames = new String[columnCount];
+            byte[] columnTypes = new byte[columnCount];
+            Column[] columns = new Column[columnCount];
+            for (int i = 0; i < columnCount; i++)
+            {
+                columnNames[i] = in.readUTF();
+                columnTypes[i] = in.readByte();
+                columns[i] = createColumn(columnTypes[i]);
+                columns[i].read(in, rowCount);
+            }
+            ColumnarMetricsTable table = new ColumnarMetricsTable(columnNames, columnTypes);
+            table.columns = columns;
+            table.rowCount = rowCount;
+            return table;
+        }
+        catch (EOFException e)
+        {
+            throw new RuntimeException("Unexpected end of file in metrics table " + file);
+        }
+    }
+
+    private static abstract class Column
+    {
+        abstract byte getType();
+
+        abstract void write(DataOutputStream out, int rowCount) throws IOException;
+
+        abstract void read(DataInputStream in, int rowCount) throws IOException;
+    }
+
+    private static class StringColumn extends Column
+    {
+        private Map<String, Integer> codesByValue = new HashMap<String, Integer>();
+        private List<String> values = new ArrayList<String>();
+        private int[] codes = new int[1024];
+
+        byte getType()
+        {
+            return STRING_TYPE;
+        }
+
+        void add(int row, String value)
+        {
+            Integer code = codesByValue.get(value);
+            if (code == null)
+            {
+                code = values.size();
+                codesByValue.put(value, code);
+                values.add(value);
+            }
+            if (row == codes.length) codes = Arrays.copyOf(codes, row * 2);
+            codes[row] = code;
+        }
+
+        String get(int row)
+        {
+            return values.get(codes[row]);
+        }
+
+        void write(DataOutputStream out, int rowCount) throws IOException
+        {
+            out.writeInt(values.size());
+            for (String value : values)
+            {
+                out.writeUTF(value);
+            }
+            int width = getCodeWidth(values.size());
+            for (int row = 0; row < rowCount; row++)
+            {
+                switch (width)
+                {
+                    case 1:
+                        out.writeByte(codes[row]);
+                        break;
+                    case 2:
+                        out.writeShort(codes[row]);
+                        break;
+                    default:
+                        out.writeInt(codes[row]);
+                        break;
+                }
+            }
+        }
+
+        void read(DataInputStream in, int rowCount) throws IOException
+        {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++)
+            {
+                values.add(in.readUTF());
+            }
+            int width = getCodeWidth(size);
+            codes = new int[rowCount];
+            for (int row = 0; row < rowCount; row++)
+            {
+                switch (width)
+                {
+                    case 1:
+                        codes[row] = in.readUnsignedByte();
+                        break;
+                    case 2:
+                        codes[row] = in.readUnsignedShort();
+                        break;
+                    default:
+                        codes[row] = in.readInt();
+                        break;
+                }
+            }
+        }
+
+        private int getCodeWidth(int size)
+        {
+            return size <= 0x100 ? 1 : size <= 0x10000 ? 2 : 4;
+        }
+    }
+
+    private static class LongColumn extends Column
+    {
+        private long[] values = new long[1024];
+
+        byte getType()
+        {
+            return LONG_TYPE;
+        }
+
+        void add(int row, long value)
+        {
+            if (row == values.length) values = Arrays.copyOf(values, row * 2);
+            values[row] = value;
+        }
+
+        void write(DataOutputStream out, int rowCount) throws IOException
+        {
+            for (int row = 0; row < rowCount; row++)
+            {
+                out.writeLong(values[row]);
+            }
+        }
+
+        void read(DataInputStream in, int rowCount) throws IOException
+        {
+            values = new long[rowCount];
+            for (int row = 0; row < rowCount; row++)
+            {
+                values[row] = in.readLong();
+            }
+        }
+    }
+
+    private static class FloatColumn extends Column
+    {
+        private float[] values = new float[1024];
+
+        byte getType()
+        {
+            return FLOAT_TYPE;
+        }
+
+        void add(int row, float value)
+        {
+            if (row == values.length) values = Arrays.copyOf(values, row * 2);
+            values[row] = value;
+        }
+
+        void write(DataOutputStream out, int rowCount) throws IOException
+        {
+            for (int row = 0; row < rowCount; row++)
+            {
+                out.writeFloat(values[row]);
+            }
+        }
+
+        void read(DataInputStream in, int rowCount) throws IOException
+        {
+            values = new float[rowCount];
+            for (int row = 0; row < rowCount; row++)
+            {
+                values[row] = in.readFloat();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.cruk.mga.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.cruk.util.CompressionUtils;
+
+/**
+ * Writes the metrics table in the compact columnar format read by
+ * {@link ColumnarMetricsTable}. Rows are accumulated column by column in
+ * memory and the table written when the writer is closed.
+ */
+public class ColumnarMetricsTableWriter extends MetricsTableWriter
+{
+    private File file;
+    private ColumnarMetricsTable table = new ColumnarMetricsTable(COLUMN_NAMES, COLUMN_TYPES);
+    private int column;
+
+    public ColumnarMetricsTableWriter(File file)
+    {
+        this.file = file;
+    }
+
+    @Override
+    protected void startRow()
+    {
+        column = 0;
+    }
+
+    @Override
+    protected void stringValue(String value)
+    {
+        table.add(column++, value);
+    }
+
+    @Override
+    protected void longValue(long value)
+    {
+        table.add(column++, value);
+    }
+
+    @Override
+    protected void floatValue(float value)
+    {
+        table.add(column++, value);
+    }
+
+    @Override
+    protected void endRow()
+    {
+        table.endRow();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try (OutputStream outputStream = CompressionUtils.openOutputStream(file, true))
+        {
+            table.write(outputStream);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.cruk.mga.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.cruk.mga.AlignmentSummary;
+import org.cruk.mga.MultiGenomeAlignmentSummary;
+import org.cruk.mga.ReferenceGenomeSpeciesMapping;
+
+/**
+ * Writes the alignment metrics for a run as a flat table with one row for
+ * each dataset and reference genome, containing the run and dataset
+ * identifiers, the reference genome and species, and each of the counts and
+ * error rates, for bulk loading into databases and analysis tools.
+ *
+ * Datasets with no alignments have a single row with an empty reference
+ * genome and species.
+ */
+public abstract class MetricsTableWriter implements Closeable
+{
+    public static final String TSV_FORMAT = "tsv";
+    public static final String COLUMNAR_FORMAT = "columnar";
+
+    protected static final String[] COLUMN_NAMES = new String[] {
+        "RunId", "DatasetId", "ReferenceGenomeId", "Species",
+        "SequenceCount", "SampledCount", "AdapterCount", "UnmappedCount",
+        "AlignedCount", "ErrorRate",
+        "UniquelyAlignedCount", "UniquelyAlignedErrorRate",
+        "PreferentiallyAlignedCount", "PreferentiallyAlignedErrorRate",
+        "AssignedCount", "AssignedErrorRate"
+    };
+
+    protected static final byte[] COLUMN_TYPES = new byte[] {
+        ColumnarMetricsTable.STRING_TYPE, ColumnarMetricsTable.STRING_TYPE, ColumnarMetricsTable.STRING_TYPE, ColumnarMetricsTable.STRING_TYPE,
+        ColumnarMetricsTable.LONG_TYPE, ColumnarMetricsTable.LONG_TYPE, ColumnarMetricsTable.LONG_TYPE, ColumnarMetricsTable.LONG_TYPE,
+        ColumnarMetricsTable.LONG_TYPE, ColumnarMetricsTable.FLOAT_TYPE,
+        ColumnarMetricsTable.LONG_TYPE, ColumnarMetricsTable.FLOAT_TYPE,
+        ColumnarMetricsTable.LONG_TYPE, ColumnarMetricsTable.FLOAT_TYPE,
+        ColumnarMetricsTable.LONG_TYPE, ColumnarMetricsTable.FLOAT_TYPE
+    };
+
+    /**
+     * Creates a writer for the given table format.
+     *
+     * @param format the table format, either tsv or columnar
+     * @param file the output file, compressed if it has a .gz extension
+     * @return the writer
+     * @throws IOException
+     */
+    public static MetricsTableWriter create(String format, File file) throws IOException
+    {
+        if (TSV_FORMAT.equals(format))
+        {
+            return new TSVMetricsTableWriter(file);
+        }
+        if (COLUMNAR_FORMAT.equals(format))
+        {
+            return new ColumnarMetricsTableWriter(file);
+        }
+        throw new IllegalArgumentException("Unrecognized metrics table format: " + format);
+    }
+
+    /**
+     * Returns the file extension for the given table format.
+     *
+     * @param format the table format
+     * @return the file extension
+     */
+    public static String getFileExtension(String format)
+    {
+        return COLUMNAR_FORMAT.equals(format) ? ".metrics.mgat" : ".metrics.tsv";
+    }
+
+    /**
+     * Writes rows for each dataset and reference genome in the given
+     * alignment summaries.
+     *
+     * @param runId the run identifier
+     * @param multiGenomeAlignmentSummaries the alignment summaries for each dataset
+     * @param referenceGenomeSpeciesMapping the reference genome to species mapping
+     * @throws IOException
+     */
+    public void write(String runId,
+                      Collection<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries,
+                      ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping)
+    throws IOException
+    {
+        for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : multiGenomeAlignmentSummaries)
+        {
+            AlignmentSummary[] alignmentSummaries = multiGenomeAlignmentSummary.getAlignmentSummaries();
+            if (alignmentSummaries.length == 0)
+            {
+                writeRow(runId, multiGenomeAlignmentSummary, null, "");
+            }
+            for (AlignmentSummary alignmentSummary : alignmentSummaries)
+            {
+                String referenceGenomeId = alignmentSummary.getReferenceGenomeId();
+                String species = referenceGenomeSpeciesMapping.getSpecies(referenceGenomeId);
+                writeRow(runId, multiGenomeAlignmentSummary, alignmentSummary, species == null ? referenceGenomeId : species);
+            }
+        }
+    }
+
+    private void writeRow(String runId, MultiGenomeAlignmentSummary multiGenomeAlignmentSummary, AlignmentSummary alignmentSummary, String species)
+    throws IOException
+    {
+        startRow();
+        stringValue(runId == null ? "" : runId);
+        stringValue(multiGenomeAlignmentSummary.getDatasetId());
+        stringValue(alignmentSummary == null ? "" : alignmentSummary.getReferenceGenomeId());
+        stringValue(species);
+        longValue(multiGenomeAlignmentSummary.getSequenceCount());
+        longValue(multiGenomeAlignmentSummary.getSampledCount());
+        longValue(multiGenomeAlignmentSummary.getAdapterCount());
+        longValue(multiGenomeAlignmentSummary.getUnmappedCount());
+        if (alignmentSummary == null)
+        {
+            for (int i = 0; i < 4; i++)
+            {
+                longValue(0);
+                floatValue(0.0f);
+            }
+        }
+        else
+        {
+            longValue(alignmentSummary.getAlignedCount());
+            floatValue(alignmentSummary.getErrorRate());
+            longValue(alignmentSummary.getUniquelyAlignedCount());
+            floatValue(alignmentSummary.getUniquelyAlignedErrorRate());
+            longValue(alignmentSummary.getPreferentiallyAlignedCount());
+            floatValue(alignmentSummary.getPreferentiallyAlignedErrorRate());
+            longValue(alignmentSummary.getAssignedCount());
+            floatValue(alignmentSummary.getAssignedErrorRate());
+        }
+        endRow();
+    }
+
+    protected abstract void startRow() throws IOException;
+
+    protected abstract void stringValue(String value) throws IOException;
+
+    protected abstract void longValue(long value) throws IOException;
+
+    protected abstract void floatValue(float value) throws IOException;
+
+    protected abstract void endRow() throws IOException;
+}
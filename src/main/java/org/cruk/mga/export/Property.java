@@ -31,4 +31,14 @@ public class Property implements Serializable
         name = n;
         value = v;
     }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getValue()
+    {
+        return value;
+    }
 }
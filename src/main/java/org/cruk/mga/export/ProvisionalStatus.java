@@ -0,0 +1,74 @@
+package org.cruk.mga.export;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlType;
+
+
+/**
+ * Status of a provisional report created while alignments are still running,
+ * giving the number of chunks of sequences for which all alignments have been
+ * completed and the reference genomes for which alignments are outstanding.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlType(propOrder = { "chunkCount", "completedChunkCount", "outstandingReferenceGenomes" })
+public class ProvisionalStatus implements Serializable
+{
+    private static final long serialVersionUID = 2876423937502394176L;
+
+    @XmlElement(name = "ChunkCount")
+    private int chunkCount;
+
+    @XmlElement(name = "CompletedChunkCount")
+    private int completedChunkCount;
+
+    @XmlElementWrapper(name = "OutstandingReferenceGenomes")
+    @XmlElement(name = "ReferenceGenome")
+    private List<ReferenceGenome> outstandingReferenceGenomes;
+
+    public ProvisionalStatus()
+    {
+    }
+
+    public ProvisionalStatus(int chunkCount, int completedChunkCount)
+    {
+        this.chunkCount = chunkCount;
+        this.completedChunkCount = completedChunkCount;
+    }
+
+    public int getChunkCount()
+    {
+        return chunkCount;
+    }
+
+    public void setChunkCount(int chunkCount)
+    {
+        this.chunkCount = chunkCount;
+    }
+
+    public int getCompletedChunkCount()
+    {
+        return completedChunkCount;
+    }
+
+    public void setCompletedChunkCount(int completedChunkCount)
+    {
+        this.completedChunkCount = completedChunkCount;
+    }
+
+    public List<ReferenceGenome> getOutstandingReferenceGenomes()
+    {
+        if (outstandingReferenceGenomes == null)
+        {
+            outstandingReferenceGenomes = new ArrayList<>();
+        }
+        return outstandingReferenceGenomes;
+    }
+
+}
@@ -28,4 +28,9 @@ public class Sample implements Serializable
     {
         properties = new Properties(props);
     }
+
+    public Properties getProperties()
+    {
+        return properties;
+    }
 }
@@ -0,0 +1,80 @@
+package org.cruk.mga.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.cruk.util.CompressionUtils;
+
+/**
+ * Writes the metrics table as tab-separated values with a header line.
+ */
+public class TSVMetricsTableWriter extends MetricsTableWriter
+{
+    private Writer writer;
+    private boolean firstValue;
+
+    public TSVMetricsTableWriter(File file) throws IOException
+    {
+        writer = new OutputStreamWriter(CompressionUtils.openOutputStream(file, false), StandardCharsets.UTF_8);
+        writer.write(String.join("\t", COLUMN_NAMES));
+        writer.write('\n');
+    }
+
+    @Override
+    protected void startRow()
+    {
+        firstValue = true;
+    }
+
+    @Override
+    protected void stringValue(String value) throws IOException
+    {
+        separator();
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            writer.write(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+
+    @Override
+    protected void longValue(long value) throws IOException
+    {
+        separator();
+        writer.write(Long.toString(value));
+    }
+
+    @Override
+    protected void floatValue(float value) throws IOException
+    {
+        separator();
+        writer.write(Float.toString(value));
+    }
+
+    @Override
+    protected void endRow() throws IOException
+    {
+        writer.write('\n');
+    }
+
+    private void separator() throws IOException
+    {
+        if (firstValue)
+        {
+            firstValue = false;
+        }
+        else
+        {
+            writer.write('\t');
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        writer.close();
+    }
+}
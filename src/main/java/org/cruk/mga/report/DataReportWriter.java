@@ -0,0 +1,177 @@
+package org.cruk.mga.report;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.output.FileWriterWithEncoding;
+import org.cruk.mga.MGAConfig;
+import org.cruk.mga.export.AllMGASummaries;
+import org.cruk.mga.export.MGAAlignmentSummary;
+import org.cruk.mga.export.MGASummary;
+import org.cruk.mga.export.Properties;
+import org.cruk.mga.export.Property;
+import org.cruk.mga.export.ProvisionalStatus;
+import org.cruk.mga.export.ReferenceGenome;
+import org.cruk.mga.export.Sample;
+import org.cruk.util.DataGenerator;
+import org.cruk.util.JSONGenerator;
+import org.cruk.util.YAMLGenerator;
+
+/**
+ * Writes the report data in JSON and YAML formats, containing the same
+ * information as the XML report, for loading into other systems.
+ *
+ * Both files are written in a single pass over the datasets, with the
+ * element for each dataset written to each file as it is created.
+ */
+public class DataReportWriter extends MGAReportWriter
+{
+    public DataReportWriter()
+    {
+    }
+
+    @Override
+    protected void writeTheReport(MGAConfig config, AllMGASummaries root, Iterable<MGASummary> summaries) throws IOException
+    {
+        try (DataGenerator json = new JSONGenerator(new BufferedWriter(new FileWriterWithEncoding(config.getJsonFile(), StandardCharsets.UTF_8)));
+             DataGenerator yaml = new YAMLGenerator(new BufferedWriter(new FileWriterWithEncoding(config.getYamlFile(), StandardCharsets.UTF_8))))
+        {
+            DataGenerator[] generators = new DataGenerator[] { json, yaml };
+
+            for (DataGenerator generator : generators)
+            {
+                generator.startObject();
+                generator.field("runId", root.getRunId());
+                if (root.getProperties() != null)
+                {
+                    generator.name("properties");
+                    writeProperties(generator, root.getProperties());
+                }
+                if (root.getTrimStart() != null) generator.field("trimStart", root.getTrimStart());
+                if (root.getTrimLength() != null) generator.field("trimLength", root.getTrimLength());
+                if (root.getProvisional() != null)
+                {
+                    generator.name("provisional");
+                    writeProvisionalStatus(generator, root.getProvisional());
+                }
+                generator.name("multiGenomeAlignmentSummaries");
+                generator.startArray();
+            }
+
+            for (MGASummary summary : summaries)
+            {
+                for (DataGenerator generator : generators)
+                {
+                    writeSummary(generator, summary);
+                }
+            }
+
+            for (DataGenerator generator : generators)
+            {
+                generator.endArray();
+                generator.name("referenceGenomes");
+                generator.startArray();
+                for (ReferenceGenome referenceGenome : root.getReferenceGenomes())
+                {
+                    writeReferenceGenome(generator, referenceGenome);
+                }
+                generator.endArray();
+                generator.endObject();
+            }
+        }
+    }
+
+    /**
+     * Writes the summary for a single dataset.
+     *
+     * @param generator
+     * @param summary
+     * @throws IOException
+     */
+    private void writeSummary(DataGenerator generator, MGASummary summary) throws IOException
+    {
+        generator.startObject();
+        generator.field("datasetId", summary.getDatasetId());
+        generator.field("sequenceCount", summary.getSequenceCount());
+        generator.field("sampledCount", summary.getSampledCount());
+        generator.field("adapterCount", summary.getAdapterCount());
+        generator.field("unmappedCount", summary.getUnmappedCount());
+
+        generator.name("alignmentSummaries");
+        generator.startArray();
+        for (MGAAlignmentSummary alignmentSummary : summary.getAlignmentSummaries())
+        {
+            generator.startObject();
+            generator.name("referenceGenome");
+            writeReferenceGenome(generator, alignmentSummary.getReferenceGenome());
+            generator.field("alignedCount", alignmentSummary.getAlignedCount());
+            generator.field("errorRate", alignmentSummary.getErrorRate());
+            generator.field("uniquelyAlignedCount", alignmentSummary.getUniquelyAlignedCount());
+            generator.field("uniquelyAlignedErrorRate", alignmentSummary.getUniquelyAlignedErrorRate());
+            generator.field("preferentiallyAlignedCount", alignmentSummary.getPreferentiallyAlignedCount());
+            generator.field("preferentiallyAlignedErrorRate", alignmentSummary.getPreferentiallyAlignedErrorRate());
+            generator.field("assignedCount", alignmentSummary.getAssignedCount());
+            generator.field("assignedErrorRate", alignmentSummary.getAssignedErrorRate());
+            generator.endObject();
+        }
+        generator.endArray();
+
+        generator.name("samples");
+        generator.startArray();
+        for (Sample sample : summary.getSamples())
+        {
+            writeProperties(generator, sample.getProperties());
+        }
+        generator.endArray();
+
+        generator.endObject();
+    }
+
+    /**
+     * Writes the status of a provisional report.
+     *
+     * @param generator
+     * @param provisional
+     * @throws IOException
+     */
+    private void writeProvisionalStatus(DataGenerator generator, ProvisionalStatus provisional) throws IOException
+    {
+        generator.startObject();
+        generator.field("chunkCount", provisional.getChunkCount());
+        generator.field("completedChunkCount", provisional.getCompletedChunkCount());
+        generator.name("outstandingReferenceGenomes");
+        generator.startArray();
+        for (ReferenceGenome referenceGenome : provisional.getOutstandingReferenceGenomes())
+        {
+            writeReferenceGenome(generator, referenceGenome);
+        }
+        generator.endArray();
+        generator.endObject();
+    }
+
+    private void writeReferenceGenome(DataGenerator generator, ReferenceGenome referenceGenome) throws IOException
+    {
+        generator.startObject();
+        generator.field("id", referenceGenome.getId());
+        generator.field("name", referenceGenome.getName());
+        generator.endObject();
+    }
+
+    /**
+     * Writes properties as an object with a name/value pair for each property.
+     *
+     * @param generator
+     * @param properties
+     * @throws IOException
+     */
+    private void writeProperties(DataGenerator generator, Properties properties) throws IOException
+    {
+        generator.startObject();
+        for (Property property : properties.getProperties())
+        {
+            generator.field(property.getName(), property.getValue());
+        }
+        generator.endObject();
+    }
+}
@@ -0,0 +1,74 @@
+package org.cruk.mga.report;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+
+/**
+ * Plot canvas that draws to a raster image using a Java 2D graphics context.
+ */
+public class GraphicsPlotCanvas implements PlotCanvas
+{
+    private Graphics2D g2;
+
+    public GraphicsPlotCanvas(Graphics2D g2)
+    {
+        this.g2 = g2;
+    }
+
+    @Override
+    public void setColor(Color color)
+    {
+        g2.setColor(color);
+    }
+
+    @Override
+    public void setAlpha(float alpha)
+    {
+        g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
+    }
+
+    @Override
+    public void setFont(Font font)
+    {
+        g2.setFont(font);
+    }
+
+    @Override
+    public FontMetrics getFontMetrics()
+    {
+        return SummaryPlotter.getFontMetrics(g2.getFont());
+    }
+
+    @Override
+    public void drawString(String s, int x, int y)
+    {
+        g2.drawString(s, x, y);
+    }
+
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2)
+    {
+        g2.drawLine(x1, y1, x2, y2);
+    }
+
+    @Override
+    public void drawRect(int x, int y, int width, int height)
+    {
+        g2.drawRect(x, y, width, height);
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height)
+    {
+        g2.fillRect(x, y, width, height);
+    }
+
+    @Override
+    public boolean hitClip(int x, int y, int width, int height)
+    {
+        return g2.hitClip(x, y, width, height);
+    }
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,10 +31,23 @@ public abstract class MGAReportWriter
     {
     }
 
+    /**
+     * Writes the report for the given alignment summaries.
+     *
+     * The element for each dataset is only created as the report writer
+     * reaches it, so that writers that stream their output need not hold
+     * the elements for all datasets in memory at once.
+     *
+     * @param config the configuration
+     * @param referenceGenomeSpeciesMapping the reference genome to species mapping
+     * @param multiGenomeAlignmentSummaries the alignment summaries for each dataset
+     * @param datasetDisplayLabels the display labels for each dataset
+     * @param runProperties properties of the run from the sample sheet
+     */
     public void writeReport(MGAConfig config,
-                            ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping,
-                            Collection<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries,
-                            Map<String, String> datasetDisplayLabels,
+                            final ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping,
+                            final Collection<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries,
+                            final Map<String, String> datasetDisplayLabels,
                             OrderedProperties runProperties)
     throws IOException, TransformerException, JAXBException, XMLStreamException
     {
@@ -43,38 +57,85 @@ public abstract class MGAReportWriter
 
         for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : multiGenomeAlignmentSummaries)
         {
-            String datasetId = multiGenomeAlignmentSummary.getDatasetId();
-            String datasetDisplayLabel = datasetDisplayLabels.getOrDefault(datasetId, datasetId);
-
-            MGASummary multiGenomeAlignmentSummaryElement = new MGASummary(datasetDisplayLabel, multiGenomeAlignmentSummary);
-            root.getMultiGenomeAlignmentSummaries().add(multiGenomeAlignmentSummaryElement);
-
             for (AlignmentSummary alignmentSummary : multiGenomeAlignmentSummary.getAlignmentSummaries())
             {
-                MGAAlignmentSummary alignmentSummaryElement = new MGAAlignmentSummary(alignmentSummary);
-                multiGenomeAlignmentSummaryElement.getAlignmentSummaries().add(alignmentSummaryElement);
-
-                String referenceGenomeId = alignmentSummary.getReferenceGenomeId();
-                referenceGenomeIds.add(referenceGenomeId);
-
-                alignmentSummaryElement.setReferenceGenome(referenceGenomeId, getReferenceGenomeName(referenceGenomeSpeciesMapping, referenceGenomeId));
+                referenceGenomeIds.add(alignmentSummary.getReferenceGenomeId());
             }
+        }
+
+        for (String referenceGenomeId : referenceGenomeIds)
+        {
+            root.getReferenceGenomes().add(new ReferenceGenome(referenceGenomeId, getReferenceGenomeName(referenceGenomeSpeciesMapping, referenceGenomeId)));
+        }
 
-            for (OrderedProperties sampleProperties : multiGenomeAlignmentSummary.getSampleProperties())
+        Iterable<MGASummary> summaries = new Iterable<MGASummary>()
+        {
+            @Override
+            public Iterator<MGASummary> iterator()
             {
-                multiGenomeAlignmentSummaryElement.getSamples().add(new Sample(sampleProperties));
+                final Iterator<MultiGenomeAlignmentSummary> iterator = multiGenomeAlignmentSummaries.iterator();
+                return new Iterator<MGASummary>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public MGASummary next()
+                    {
+                        return createSummaryElement(referenceGenomeSpeciesMapping, iterator.next(), datasetDisplayLabels);
+                    }
+                };
             }
+        };
+
+        writeTheReport(config, root, summaries);
+    }
+
+    /**
+     * Creates the report element for a single dataset.
+     *
+     * @param referenceGenomeSpeciesMapping the reference genome to species mapping
+     * @param multiGenomeAlignmentSummary the alignment summaries for the dataset
+     * @param datasetDisplayLabels the display labels for each dataset
+     * @return the report element for the dataset
+     */
+    protected MGASummary createSummaryElement(ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping,
+                                              MultiGenomeAlignmentSummary multiGenomeAlignmentSummary,
+                                              Map<String, String> datasetDisplayLabels)
+    {
+        String datasetId = multiGenomeAlignmentSummary.getDatasetId();
+        String datasetDisplayLabel = datasetDisplayLabels.getOrDefault(datasetId, datasetId);
+
+        MGASummary multiGenomeAlignmentSummaryElement = new MGASummary(datasetDisplayLabel, multiGenomeAlignmentSummary);
+
+        for (AlignmentSummary alignmentSummary : multiGenomeAlignmentSummary.getAlignmentSummaries())
+        {
+            MGAAlignmentSummary alignmentSummaryElement = new MGAAlignmentSummary(alignmentSummary);
+            multiGenomeAlignmentSummaryElement.getAlignmentSummaries().add(alignmentSummaryElement);
+
+            String referenceGenomeId = alignmentSummary.getReferenceGenomeId();
+            alignmentSummaryElement.setReferenceGenome(referenceGenomeId, getReferenceGenomeName(referenceGenomeSpeciesMapping, referenceGenomeId));
         }
 
-        for (String referenceGenomeId : referenceGenomeIds)
+        for (OrderedProperties sampleProperties : multiGenomeAlignmentSummary.getSampleProperties())
         {
-            root.getReferenceGenomes().add(new ReferenceGenome(referenceGenomeId, getReferenceGenomeName(referenceGenomeSpeciesMapping, referenceGenomeId)));
+            multiGenomeAlignmentSummaryElement.getSamples().add(new Sample(sampleProperties));
         }
 
-        writeTheReport(config, root);
+        return multiGenomeAlignmentSummaryElement;
     }
 
-    protected abstract void writeTheReport(MGAConfig config, AllMGASummaries summaries)
+    /**
+     * Writes the report.
+     *
+     * @param config the configuration
+     * @param root the root element containing the run level elements and reference genomes but not the dataset elements
+     * @param summaries the elements for each dataset, created as these are iterated over
+     */
+    protected abstract void writeTheReport(MGAConfig config, AllMGASummaries root, Iterable<MGASummary> summaries)
     throws IOException, TransformerException, JAXBException, XMLStreamException;
 
     /**
@@ -0,0 +1,58 @@
+package org.cruk.mga.report;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+
+/**
+ * Surface on which the summary plot is drawn, allowing the same layout to be
+ * rendered as either a raster image or vector graphics.
+ */
+public interface PlotCanvas
+{
+    /**
+     * Sets the colour for subsequent drawing.
+     *
+     * @param color the colour
+     */
+    void setColor(Color color);
+
+    /**
+     * Sets the opacity for subsequent drawing.
+     *
+     * @param alpha the opacity, from 0 (transparent) to 1 (opaque)
+     */
+    void setAlpha(float alpha);
+
+    /**
+     * Sets the font for subsequent text drawing.
+     *
+     * @param font the font
+     */
+    void setFont(Font font);
+
+    /**
+     * @return the metrics for the current font
+     */
+    FontMetrics getFontMetrics();
+
+    void drawString(String s, int x, int y);
+
+    void drawLine(int x1, int y1, int x2, int y2);
+
+    void drawRect(int x, int y, int width, int height);
+
+    void fillRect(int x, int y, int width, int height);
+
+    /**
+     * Returns whether the given rectangle intersects the region being drawn,
+     * so that drawing outside this region can be skipped.
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @return
+     */
+    boolean hitClip(int x, int y, int width, int height);
+}
@@ -0,0 +1,200 @@
+package org.cruk.mga.report;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.io.Writer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Plot canvas that writes scalable vector graphics (SVG) elements to a stream
+ * as the plot is drawn.
+ *
+ * Text is laid out using the metrics of the equivalent Java font so may be
+ * positioned slightly differently by browsers using other fonts.
+ */
+public class SVGPlotCanvas implements PlotCanvas
+{
+    private static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+
+    private XMLStreamWriter writer;
+    private Color color = Color.BLACK;
+    private float alpha = 1.0f;
+    private Font font;
+
+    /**
+     * Creates a new SVGPlotCanvas, writing the start of the SVG document.
+     *
+     * @param out the writer to which the SVG document is written
+     * @param width the width of the plot
+     * @param height the height of the plot
+     * @param lineWidth the width of lines and outlines
+     * @throws XMLStreamException
+     */
+    public SVGPlotCanvas(Writer out, int width, int height, float lineWidth) throws XMLStreamException
+    {
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("svg");
+        writer.writeDefaultNamespace(SVG_NAMESPACE);
+        writer.writeAttribute("width", Integer.toString(width));
+        writer.writeAttribute("height", Integer.toString(height));
+        writer.writeAttribute("viewBox", "0 0 " + width + " " + height);
+        writer.writeAttribute("stroke-width", Float.toString(lineWidth));
+        writer.writeAttribute("shape-rendering", "crispEdges");
+    }
+
+    /**
+     * Writes the end of the SVG document.
+     *
+     * @throws XMLStreamException
+     */
+    public void close() throws XMLStreamException
+    {
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+    }
+
+    @Override
+    public void setColor(Color color)
+    {
+        this.color = color;
+    }
+
+    @Override
+    public void setAlpha(float alpha)
+    {
+        this.alpha = alpha;
+    }
+
+    @Override
+    public void setFont(Font font)
+    {
+        this.font = font;
+    }
+
+    @Override
+    public FontMetrics getFontMetrics()
+    {
+        return SummaryPlotter.getFontMetrics(font);
+    }
+
+    @Override
+    public void drawString(String s, int x, int y)
+    {
+        try
+        {
+            writer.writeStartElement("text");
+            writer.writeAttribute("x", Integer.toString(x));
+            writer.writeAttribute("y", Integer.toString(y));
+            writer.writeAttribute("font-family", getFontFamily(font));
+            writer.writeAttribute("font-size", Integer.toString(font.getSize()));
+            writePaint("fill");
+            writer.writeCharacters(s);
+            writer.writeEndElement();
+        }
+        catch (XMLStreamException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2)
+    {
+        try
+        {
+            writer.writeEmptyElement("line");
+            writer.writeAttribute("x1", Integer.toString(x1));
+            writer.writeAttribute("y1", Integer.toString(y1));
+            writer.writeAttribute("x2", Integer.toString(x2));
+            writer.writeAttribute("y2", Integer.toString(y2));
+            writePaint("stroke");
+        }
+        catch (XMLStreamException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void drawRect(int x, int y, int width, int height)
+    {
+        if (width < 0 || height < 0) return;
+        try
+        {
+            writeRect(x, y, width, height);
+            writer.writeAttribute("fill", "none");
+            writePaint("stroke");
+        }
+        catch (XMLStreamException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height)
+    {
+        if (width <= 0 || height <= 0) return;
+        try
+        {
+            writeRect(x, y, width, height);
+            writePaint("fill");
+        }
+        catch (XMLStreamException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean hitClip(int x, int y, int width, int height)
+    {
+        return true;
+    }
+
+    private void writeRect(int x, int y, int width, int height) throws XMLStreamException
+    {
+        writer.writeEmptyElement("rect");
+        writer.writeAttribute("x", Integer.toString(x));
+        writer.writeAttribute("y", Integer.toString(y));
+        writer.writeAttribute("width", Integer.toString(width));
+        writer.writeAttribute("height", Integer.toString(height));
+    }
+
+    /**
+     * Writes the current colour and opacity as the given paint attribute,
+     * i.e. fill or stroke.
+     *
+     * @param attribute the paint attribute name
+     * @throws XMLStreamException
+     */
+    private void writePaint(String attribute) throws XMLStreamException
+    {
+        writer.writeAttribute(attribute, String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue()));
+        if (alpha < 1.0f)
+        {
+            writer.writeAttribute(attribute + "-opacity", Float.toString(alpha));
+        }
+    }
+
+    /**
+     * Returns the generic SVG font family for the Java logical font names.
+     *
+     * @param font the font
+     * @return the font family
+     */
+    private String getFontFamily(Font font)
+    {
+        String name = font.getName();
+        if (Font.SANS_SERIF.equals(name)) return "sans-serif";
+        if (Font.SERIF.equals(name)) return "serif";
+        if (Font.MONOSPACED.equals(name)) return "monospace";
+        return font.getFamily();
+    }
+}
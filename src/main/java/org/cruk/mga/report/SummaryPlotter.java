@@ -2,18 +2,21 @@ package org.cruk.mga.report;
 
 import static org.cruk.mga.MGAConfig.DEFAULT_PLOT_WIDTH;
 
-import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.Composite;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -21,8 +24,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.imageio.ImageIO;
+import javax.xml.stream.XMLStreamException;
 
 import org.cruk.mga.AlignmentSummary;
 import org.cruk.mga.MGAConfig;
@@ -50,6 +56,11 @@ public class SummaryPlotter
     private static final String[] SPECIES_PROPERTY_NAMES = new String[] { "Species", "species" };
     private static final String[] CONTROL_PROPERTY_NAMES = new String[] { "Control", "control" };
 
+    // number of datasets covered by each tile of the plot
+    private static final int TILE_ROWS = 64;
+
+    private static final ConcurrentMap<Font, FontMetrics> fontMetricsCache = new ConcurrentHashMap<Font, FontMetrics>();
+
     protected Logger log = LoggerFactory.getLogger(SummaryPlotter.class);
 
     public SummaryPlotter()
@@ -59,34 +70,24 @@ public class SummaryPlotter
     /**
      * Creates a summary plot for the given set of multi-genome alignment summaries.
      *
+     * The plot is written either as SVG, streamed as it is drawn, or as a
+     * PNG image drawn in tiles, each covering a fixed number of datasets,
+     * with several tiles drawn concurrently and written to the file as they
+     * are drawn so that the whole image is never held in memory.
+     *
      * @param multiGenomeAlignmentSummaries
      * @param the name of the image file
      * @throws IOException
      */
-    public void createSummaryPlot(MGAConfig mgaConfig,
-                                  ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping,
-                                  Collection<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries,
-                                  Map<String, String> datasetDisplayLabels)
+    public void createSummaryPlot(final MGAConfig mgaConfig,
+                                  final ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping,
+                                  final Collection<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries,
+                                  final Map<String, String> datasetDisplayLabels)
     throws IOException
     {
         final int n = multiGenomeAlignmentSummaries.size();
 
-        PlotConfig config = new PlotConfig(mgaConfig.getPlotWidth(), n);
-
-        BufferedImage image = new BufferedImage(config.width, config.height, BufferedImage.TYPE_INT_ARGB);
-
-        Graphics2D g2 = image.createGraphics();
-
-        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        g2.setStroke(new BasicStroke(Math.max(1.0f, 0.65f * config.scaleFactor)));
-
-        g2.setFont(config.font);
-
-        g2.setColor(Color.WHITE);
-        g2.fillRect(0, 0, config.width, config.height);
-        g2.setColor(Color.BLACK);
-
-        int x0 = drawLabels(g2, config, datasetDisplayLabels, multiGenomeAlignmentSummaries);
+        final PlotConfig config = new PlotConfig(mgaConfig.getPlotWidth(), n);
 
         long maxSequenceCount = getMaximumSequenceCount(multiGenomeAlignmentSummaries);
         log.debug("Maximum sequence count: " + maxSequenceCount);
@@ -104,10 +105,36 @@ public class SummaryPlotter
         log.debug("No. tick intervals: " + tickIntervals);
         log.debug("Maximum sequence count: " + maxSequenceCount);
 
-        int y = config.rowGap + n * config.rowSeparation;
-        int x1 = drawAxisAndLegend(g2, config, x0, y, tickIntervals, maxSequenceCount);
+        final int axisTickIntervals = tickIntervals;
+        final long axisMaxSequenceCount = maxSequenceCount;
 
-        drawAlignmentBars(g2, config, x0, x1, maxSequenceCount, referenceGenomeSpeciesMapping, multiGenomeAlignmentSummaries);
+        final float lineWidth = Math.max(1.0f, 0.65f * config.scaleFactor);
+
+        if (mgaConfig.isSvgPlot())
+        {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mgaConfig.getImageFile()), "UTF-8")))
+            {
+                SVGPlotCanvas canvas = new SVGPlotCanvas(out, config.width, config.height, lineWidth);
+                drawPlot(canvas, config, axisTickIntervals, axisMaxSequenceCount, referenceGenomeSpeciesMapping, multiGenomeAlignmentSummaries, datasetDisplayLabels);
+                canvas.close();
+            }
+            catch (XMLStreamException e)
+            {
+                throw new IOException("Error writing SVG plot " + mgaConfig.getImageFile(), e);
+            }
+            return;
+        }
+
+        TiledImage image = new TiledImage(config.width, config.height, TILE_ROWS * config.rowSeparation, Runtime.getRuntime().availableProcessors(), new TiledImage.TileRenderer()
+        {
+            @Override
+            public void drawTile(Graphics2D g2, Rectangle tileBounds)
+            {
+                g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g2.setStroke(new BasicStroke(lineWidth));
+                drawPlot(new GraphicsPlotCanvas(g2), config, axisTickIntervals, axisMaxSequenceCount, referenceGenomeSpeciesMapping, multiGenomeAlignmentSummaries, datasetDisplayLabels);
+            }
+        });
 
         try (OutputStream out = new BufferedOutputStream(new FileOutputStream(mgaConfig.getImageFile())))
         {
@@ -115,6 +142,58 @@ public class SummaryPlotter
         }
     }
 
+    /**
+     * Draws the summary plot on the given canvas.
+     *
+     * @param canvas
+     * @param config
+     * @param tickIntervals
+     * @param maxSequenceCount
+     * @param referenceGenomeSpeciesMapping
+     * @param multiGenomeAlignmentSummaries
+     * @param datasetDisplayLabels
+     */
+    private void drawPlot(PlotCanvas canvas, PlotConfig config, int tickIntervals, long maxSequenceCount,
+                          ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping,
+                          Collection<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries,
+                          Map<String, String> datasetDisplayLabels)
+    {
+        canvas.setFont(config.font);
+
+        canvas.setColor(Color.WHITE);
+        canvas.fillRect(0, 0, config.width, config.height);
+        canvas.setColor(Color.BLACK);
+
+        int x0 = drawLabels(canvas, config, datasetDisplayLabels, multiGenomeAlignmentSummaries);
+
+        int y = config.rowGap + multiGenomeAlignmentSummaries.size() * config.rowSeparation;
+        int x1 = drawAxisAndLegend(canvas, config, x0, y, tickIntervals, maxSequenceCount);
+
+        drawAlignmentBars(canvas, config, x0, x1, maxSequenceCount, referenceGenomeSpeciesMapping, multiGenomeAlignmentSummaries);
+    }
+
+    /**
+     * Returns the metrics for the given font, caching these so that they need
+     * only be obtained once for each font.
+     *
+     * @param font the font
+     * @return the font metrics
+     */
+    protected static FontMetrics getFontMetrics(Font font)
+    {
+        FontMetrics fontMetrics = fontMetricsCache.get(font);
+        if (fontMetrics == null)
+        {
+            BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = image.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            fontMetrics = g2.getFontMetrics(font);
+            g2.dispose();
+            fontMetricsCache.putIfAbsent(font, fontMetrics);
+        }
+        return fontMetrics;
+    }
+
     /**
      * Returns the maximum sequence count for the given alignment summaries.
      *
@@ -161,13 +240,13 @@ public class SummaryPlotter
      * Draws the labels for each dataset ID, returning the x coordinate for
      * subsequent drawing for each row.
      *
-     * @param g2
+     * @param canvas
      * @param offset
      * @param separation
      * @param multiGenomeAlignmentSummaries
      * @return
      */
-    private int drawLabels(Graphics2D g2, PlotConfig config,
+    private int drawLabels(PlotCanvas canvas, PlotConfig config,
                            Map<String, String> datasetDisplayLabels,
                            Collection<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries)
     {
@@ -197,8 +276,8 @@ public class SummaryPlotter
             for (int i = 1; i <= n; i++)
             {
                 String s = Integer.toString(i) + ".";
-                g2.drawString(s, x, y);
-                maxWidth = Math.max(maxWidth, g2.getFontMetrics().stringWidth(s));
+                if (isRowVisible(canvas, config, y)) canvas.drawString(s, x, y);
+                maxWidth = Math.max(maxWidth, canvas.getFontMetrics().stringWidth(s));
                 y += config.rowSeparation;
             }
             x += maxWidth + config.gapSize / 2;
@@ -209,26 +288,25 @@ public class SummaryPlotter
         {
             String datasetId = multiGenomeAlignmentSummary.getDatasetId();
             String datasetDisplayLabel = datasetDisplayLabels.get(datasetId);
-            g2.drawString(datasetDisplayLabel, x, y);
-            maxWidth = Math.max(maxWidth, g2.getFontMetrics().stringWidth(datasetDisplayLabel));
+            if (isRowVisible(canvas, config, y)) canvas.drawString(datasetDisplayLabel, x, y);
+            maxWidth = Math.max(maxWidth, canvas.getFontMetrics().stringWidth(datasetDisplayLabel));
             y += config.rowSeparation;
         }
         int acceptableWidth = (int)(0.15 * config.width);
         if (maxWidth > acceptableWidth)
         {
-            Composite origComposite = g2.getComposite();
-            y = offset - g2.getFontMetrics().getHeight() - config.rowSeparation / 4;
+            y = offset - canvas.getFontMetrics().getHeight() - config.rowSeparation / 4;
             for (int i = 0; i < n; i++)
             {
-                g2.setColor(Color.WHITE);
-                g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.8f));
-                g2.fillRect(x + acceptableWidth, y, config.gapSize, config.rowSeparation);
-                g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f));
-                g2.fillRect(x + acceptableWidth + config.gapSize, y, config.width - x - acceptableWidth - config.gapSize, config.rowSeparation);
+                canvas.setColor(Color.WHITE);
+                canvas.setAlpha(0.8f);
+                canvas.fillRect(x + acceptableWidth, y, config.gapSize, config.rowSeparation);
+                canvas.setAlpha(0.5f);
+                canvas.fillRect(x + acceptableWidth + config.gapSize, y, config.width - x - acceptableWidth - config.gapSize, config.rowSeparation);
                 y += config.rowSeparation;
             }
             maxWidth = acceptableWidth;
-            g2.setComposite(origComposite);
+            canvas.setAlpha(1.0f);
         }
         return x + maxWidth + config.gapSize;
     }
@@ -236,46 +314,46 @@ public class SummaryPlotter
     /**
      * Draws the x-axis for the number of sequences and the legend.
      *
-     * @param g2
+     * @param canvas
      * @param x0
      * @param y
      * @param tickIntervals
      * @param maxSequenceCount
      * @return
      */
-    private int drawAxisAndLegend(Graphics2D g2, PlotConfig config, int x0, int y, int tickIntervals, long maxSequenceCount)
+    private int drawAxisAndLegend(PlotCanvas canvas, PlotConfig config, int x0, int y, int tickIntervals, long maxSequenceCount)
     {
-        g2.setColor(Color.BLACK);
-        g2.setFont(config.axisFont);
+        canvas.setColor(Color.BLACK);
+        canvas.setFont(config.axisFont);
 
         boolean millions = maxSequenceCount / tickIntervals >= 1000000;
         long largestTickValue = maxSequenceCount;
         if (millions) largestTickValue /= 1000000;
-        int w = g2.getFontMetrics().stringWidth(Long.toString(largestTickValue));
+        int w = canvas.getFontMetrics().stringWidth(Long.toString(largestTickValue));
         int x1 = config.width - (w / 2) - config.gapSize;
-        g2.drawLine(x0, y, x1, y);
+        canvas.drawLine(x0, y, x1, y);
 
-        int tickFontHeight = g2.getFontMetrics().getAscent();
+        int tickFontHeight = canvas.getFontMetrics().getAscent();
         int tickHeight = tickFontHeight / 2;
         for (int i = 0; i <= tickIntervals; i++)
         {
             int x = x0 + i * (x1 - x0) / tickIntervals;
-            g2.drawLine(x, y, x, y + tickHeight);
+            canvas.drawLine(x, y, x, y + tickHeight);
             long tickValue = i * maxSequenceCount / tickIntervals;
             if (millions) tickValue /= 1000000;
             String s = Long.toString(tickValue);
-            int xs = x - g2.getFontMetrics().stringWidth(s) / 2 + 1;
+            int xs = x - canvas.getFontMetrics().stringWidth(s) / 2 + 1;
             int ys = y + tickHeight + tickFontHeight + 1;
-            g2.drawString(s, xs, ys);
+            canvas.drawString(s, xs, ys);
         }
 
-        g2.setFont(config.font);
-        int fontHeight = g2.getFontMetrics().getAscent();
+        canvas.setFont(config.font);
+        int fontHeight = canvas.getFontMetrics().getAscent();
         String s = "Number of sequences";
         if (millions) s += " (millions)";
-        int xs = x0 + (x1 - x0 - g2.getFontMetrics().stringWidth(s)) / 2;
+        int xs = x0 + (x1 - x0 - canvas.getFontMetrics().stringWidth(s)) / 2;
         int ys = y + tickHeight + tickFontHeight + fontHeight + fontHeight / 3;
-        g2.drawString(s, xs, ys);
+        canvas.drawString(s, xs, ys);
 
         int yl = ys + fontHeight * 2;
         int xl = x0;
@@ -285,57 +363,57 @@ public class SummaryPlotter
         int yb = yl + (int)(fontHeight * 0.3f);
         int gap = (int)(fontHeight * 0.4f);
 
-        g2.setColor(Color.GREEN);
-        g2.fillRect(xl, yb, barWidth,  barHeight);
-        g2.setColor(Color.BLACK);
-        g2.drawRect(xl, yb, barWidth,  barHeight);
-        g2.setFont(config.axisFont);
+        canvas.setColor(Color.GREEN);
+        canvas.fillRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.BLACK);
+        canvas.drawRect(xl, yb, barWidth,  barHeight);
+        canvas.setFont(config.axisFont);
         String label = "Sequenced species/genome";
         xl += barWidth + gap;
-        g2.drawString(label, xl, yl + fontHeight);
-        xl += g2.getFontMetrics().stringWidth(label) + gap * 3;
+        canvas.drawString(label, xl, yl + fontHeight);
+        xl += canvas.getFontMetrics().stringWidth(label) + gap * 3;
 
-        g2.setColor(Color.ORANGE);
-        g2.fillRect(xl, yb, barWidth,  barHeight);
-        g2.setColor(Color.BLACK);
-        g2.drawRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.ORANGE);
+        canvas.fillRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.BLACK);
+        canvas.drawRect(xl, yb, barWidth,  barHeight);
         label = "Control";
         xl += barWidth + gap;
-        g2.drawString(label, xl, yl + fontHeight);
-        xl += g2.getFontMetrics().stringWidth(label) + gap * 3;
+        canvas.drawString(label, xl, yl + fontHeight);
+        xl += canvas.getFontMetrics().stringWidth(label) + gap * 3;
 
-        g2.setColor(Color.RED);
-        g2.fillRect(xl, yb, barWidth,  barHeight);
-        g2.setColor(Color.BLACK);
-        g2.drawRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.RED);
+        canvas.fillRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.BLACK);
+        canvas.drawRect(xl, yb, barWidth,  barHeight);
         label = "Contaminant";
         xl += barWidth + gap;
-        g2.drawString(label, xl, yl + fontHeight);
-        xl += g2.getFontMetrics().stringWidth(label) + gap * 3;
+        canvas.drawString(label, xl, yl + fontHeight);
+        xl += canvas.getFontMetrics().stringWidth(label) + gap * 3;
 
-        g2.setColor(ADAPTER_COLOR);
-        g2.fillRect(xl, yb, barWidth,  barHeight);
-        g2.setColor(Color.BLACK);
-        g2.drawRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(ADAPTER_COLOR);
+        canvas.fillRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.BLACK);
+        canvas.drawRect(xl, yb, barWidth,  barHeight);
         label = "Adapter";
         xl += barWidth + gap;
-        g2.drawString(label, xl, yl + fontHeight);
-        xl += g2.getFontMetrics().stringWidth(label) + gap * 3;
+        canvas.drawString(label, xl, yl + fontHeight);
+        xl += canvas.getFontMetrics().stringWidth(label) + gap * 3;
 
-        g2.setColor(Color.BLACK);
-        g2.drawRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.BLACK);
+        canvas.drawRect(xl, yb, barWidth,  barHeight);
         label = "Unmapped";
         xl += barWidth + gap;
-        g2.drawString(label, xl, yl + fontHeight);
-        xl += g2.getFontMetrics().stringWidth(label) + gap * 3;
+        canvas.drawString(label, xl, yl + fontHeight);
+        xl += canvas.getFontMetrics().stringWidth(label) + gap * 3;
 
-        g2.setColor(Color.GRAY);
-        g2.fillRect(xl, yb, barWidth,  barHeight);
-        g2.setColor(Color.BLACK);
-        g2.drawRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.GRAY);
+        canvas.fillRect(xl, yb, barWidth,  barHeight);
+        canvas.setColor(Color.BLACK);
+        canvas.drawRect(xl, yb, barWidth,  barHeight);
         label = "Unknown";
         xl += barWidth + gap;
-        g2.drawString(label, xl, yl + fontHeight);
+        canvas.drawString(label, xl, yl + fontHeight);
 
         return x1;
     }
@@ -345,7 +423,7 @@ public class SummaryPlotter
      * and the assigned subsets for each species/reference genome to which
      * these have been aligned.
      *
-     * @param g2
+     * @param canvas
      * @param offset
      * @param height
      * @param separation
@@ -354,18 +432,24 @@ public class SummaryPlotter
      * @param maxSequenceCount
      * @param multiGenomeAlignmentSummaries
      */
-    private void drawAlignmentBars(Graphics2D g2, PlotConfig config,
+    private void drawAlignmentBars(PlotCanvas canvas, PlotConfig config,
                                    int x0, int x1, long maxSequenceCount,
                                    ReferenceGenomeSpeciesMapping referenceGenomeSpeciesMapping,
                                    Collection<MultiGenomeAlignmentSummary> multiGenomeAlignmentSummaries)
     {
         AlignmentSummaryComparator alignmentSummaryComparator = new AlignmentSummaryComparator();
 
-        g2.setColor(Color.BLACK);
+        canvas.setColor(Color.BLACK);
 
         int y = config.rowGap;
         for (MultiGenomeAlignmentSummary multiGenomeAlignmentSummary : multiGenomeAlignmentSummaries)
         {
+            if (!isRowVisible(canvas, config, y))
+            {
+                y += config.rowSeparation;
+                continue;
+            }
+
             int sampledCount = multiGenomeAlignmentSummary.getSampledCount();
             long sequenceCount = multiGenomeAlignmentSummary.getSequenceCount();
             log.debug(multiGenomeAlignmentSummary.getDatasetId() + " " + sequenceCount);
@@ -421,19 +505,18 @@ public class SummaryPlotter
                 if (alignmentSummary.getAssignedCount() >= 100)
                     log.debug(alignmentSummary.getReferenceGenomeId() + "\t" + alignmentSummary.getAssignedCount() + "\t" + alignmentSummary.getErrorRate() * 100.0f + "\t" + alpha);
 
-                Composite origComposite = g2.getComposite();
-                g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-                g2.setColor(color);
-                g2.fillRect(x, y, w, config.rowHeight);
-                g2.setComposite(origComposite);
+                canvas.setAlpha(alpha);
+                canvas.setColor(color);
+                canvas.fillRect(x, y, w, config.rowHeight);
+                canvas.setAlpha(1.0f);
 
-                g2.setColor(Color.BLACK);
-                g2.drawRect(x, y, w, config.rowHeight);
+                canvas.setColor(Color.BLACK);
+                canvas.drawRect(x, y, w, config.rowHeight);
                 x += w;
             }
 
             // bar for all sequences
-            g2.drawRect(x0, y, (int)width, config.rowHeight);
+            canvas.drawRect(x0, y, (int)width, config.rowHeight);
 
             // bar for adapter sequences
             int adapterCount = multiGenomeAlignmentSummary.getAdapterCount();
@@ -443,16 +526,31 @@ public class SummaryPlotter
             if (wa > 2)
             {
                 int ha = config.height / 3;
-                g2.setColor(ADAPTER_COLOR);
-                g2.fillRect(x0, ya, (int)wa, ha);
-                g2.setColor(Color.BLACK);
-                g2.drawRect(x0, ya, (int)wa, ha);
+                canvas.setColor(ADAPTER_COLOR);
+                canvas.fillRect(x0, ya, (int)wa, ha);
+                canvas.setColor(Color.BLACK);
+                canvas.drawRect(x0, ya, (int)wa, ha);
             }
 
             y += config.rowSeparation;
         }
     }
 
+    /**
+     * Returns whether the row at the given y coordinate is visible within the
+     * region of the canvas being drawn, e.g. the tile of a PNG image,
+     * allowing for labels drawn above or below the row.
+     *
+     * @param canvas
+     * @param config
+     * @param y
+     * @return
+     */
+    private boolean isRowVisible(PlotCanvas canvas, PlotConfig config, int y)
+    {
+        return canvas.hitClip(0, y - config.rowSeparation, config.width, 3 * config.rowSeparation);
+    }
+
     /**
      * Look up the name (species) for the given reference genome ID.
      *
@@ -516,11 +614,7 @@ public class SummaryPlotter
 
         private void getFontHeight()
         {
-            BufferedImage image = new BufferedImage(width, width, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2 = image.createGraphics();
-            g2.setFont(font);
-            fontHeight = g2.getFontMetrics().getAscent();
-            g2.dispose();
+            fontHeight = getFontMetrics(font).getAscent();
         }
     }
 }
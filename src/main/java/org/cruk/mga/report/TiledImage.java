@@ -0,0 +1,281 @@
+package org.cruk.mga.report;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+
+import org.cruk.util.TaskUtils;
+
+/**
+ * Image made up of horizontal tiles of a fixed height that are drawn on
+ * demand, e.g. when rows of the image are requested by an image writer, so
+ * that the whole image need never be held in memory.
+ *
+ * Tiles are drawn in batches, one for each thread, with the tiles in each
+ * batch drawn concurrently. Only the most recent batch is retained, so rows
+ * are best requested in order from top to bottom as is the case when writing
+ * PNG images.
+ */
+public class TiledImage implements RenderedImage
+{
+    /**
+     * Draws the part of an image covered by a tile.
+     */
+    public interface TileRenderer
+    {
+        /**
+         * Draws the image using the given graphics context, which is
+         * translated and clipped to the tile so that drawing can use the
+         * coordinates of the whole image.
+         *
+         * @param g2 the graphics context for the tile
+         * @param tileBounds the bounds of the tile within the image
+         */
+        void drawTile(Graphics2D g2, Rectangle tileBounds);
+    }
+
+    private final int width;
+    private final int height;
+    private final int tileHeight;
+    private final int threads;
+    private final TileRenderer renderer;
+
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    // most recently drawn batch of tiles
+    private int firstTileIndex = -1;
+    private List<BufferedImage> tiles = new ArrayList<BufferedImage>();
+
+    /**
+     * Creates a new TiledImage with an RGB colour model.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param tileHeight the height of each tile
+     * @param threads the number of tiles to draw concurrently
+     * @param renderer the renderer used to draw each tile
+     */
+    public TiledImage(int width, int height, int tileHeight, int threads, TileRenderer renderer)
+    {
+        this.width = width;
+        this.height = height;
+        this.tileHeight = Math.max(1, Math.min(tileHeight, height));
+        this.threads = Math.max(1, threads);
+        this.renderer = renderer;
+
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        colorModel = image.getColorModel();
+        sampleModel = image.getSampleModel().createCompatibleSampleModel(width, this.tileHeight);
+    }
+
+    /**
+     * Returns the raster for the given tile, drawing the batch of tiles
+     * starting with this tile if it is not among those most recently drawn.
+     *
+     * @param tileIndex the tile index
+     * @return the raster for the tile, positioned within the image
+     */
+    private synchronized Raster getTileRaster(int tileIndex)
+    {
+        if (tileIndex < firstTileIndex || tileIndex >= firstTileIndex + tiles.size())
+        {
+            // release the previous batch before drawing the next
+            tiles = new ArrayList<BufferedImage>();
+            try
+            {
+                tiles = drawTiles(tileIndex, Math.min(threads, getNumYTiles() - tileIndex));
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            firstTileIndex = tileIndex;
+        }
+        return tiles.get(tileIndex - firstTileIndex).getRaster().createTranslatedChild(0, tileIndex * tileHeight);
+    }
+
+    /**
+     * Draws the given number of tiles concurrently.
+     *
+     * @param tileIndex the index of the first tile to draw
+     * @param count the number of tiles to draw
+     * @return the tiles
+     * @throws IOException
+     */
+    private List<BufferedImage> drawTiles(int tileIndex, int count) throws IOException
+    {
+        List<Callable<BufferedImage>> tasks = new ArrayList<Callable<BufferedImage>>();
+        for (int i = tileIndex; i < tileIndex + count; i++)
+        {
+            final int y = i * tileHeight;
+            tasks.add(new Callable<BufferedImage>()
+            {
+                @Override
+                public BufferedImage call()
+                {
+                    Rectangle tileBounds = new Rectangle(0, y, width, Math.min(tileHeight, height - y));
+                    BufferedImage tile = new BufferedImage(tileBounds.width, tileBounds.height, BufferedImage.TYPE_INT_RGB);
+                    Graphics2D g2 = tile.createGraphics();
+                    g2.translate(0, -y);
+                    g2.clip(tileBounds);
+                    renderer.drawTile(g2, tileBounds);
+                    g2.dispose();
+                    return tile;
+                }
+            });
+        }
+        return TaskUtils.invokeAll(tasks, threads, "plot-tile-renderer");
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources()
+    {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name)
+    {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames()
+    {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel()
+    {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel()
+    {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    @Override
+    public int getMinX()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getMinY()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles()
+    {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles()
+    {
+        return (height + tileHeight - 1) / tileHeight;
+    }
+
+    @Override
+    public int getMinTileX()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight()
+    {
+        return tileHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset()
+    {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY)
+    {
+        return getTileRaster(tileY);
+    }
+
+    @Override
+    public Raster getData()
+    {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public Raster getData(Rectangle rect)
+    {
+        SampleModel rectSampleModel = sampleModel.createCompatibleSampleModel(rect.width, rect.height);
+        WritableRaster raster = Raster.createWritableRaster(rectSampleModel, new Point(rect.x, rect.y));
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster)
+    {
+        if (raster == null)
+        {
+            raster = Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(width, height), null);
+        }
+
+        int minY = Math.max(raster.getMinY(), 0);
+        int maxY = Math.min(raster.getMinY() + raster.getHeight(), height);
+        for (int tileIndex = minY / tileHeight; tileIndex * tileHeight < maxY; tileIndex++)
+        {
+            raster.setRect(getTileRaster(tileIndex));
+        }
+        return raster;
+    }
+}
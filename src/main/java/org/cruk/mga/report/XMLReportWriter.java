@@ -3,18 +3,29 @@ package org.cruk.mga.report;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -22,51 +33,325 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.output.FileWriterWithEncoding;
 import org.cruk.mga.MGAConfig;
 import org.cruk.mga.export.AllMGASummaries;
+import org.cruk.mga.export.MGASummary;
+import org.cruk.mga.export.Properties;
+import org.cruk.mga.export.ProvisionalStatus;
+import org.cruk.mga.export.ReferenceGenome;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 
 import com.sun.xml.txw2.output.IndentingXMLStreamWriter;
 
 public class XMLReportWriter extends MGAReportWriter
 {
+    // passed to the stylesheet in place of the image data which is then
+    // written directly to the HTML output
+    private static final String IMAGE_PLACEHOLDER = "{MGA-IMAGE-DATA}";
+
     protected JAXBContext jaxbContext;
 
+    // compiled XSL stylesheet, shared by all reports written using this writer
+    private File templatesFile;
+    private Templates templates;
+
     public XMLReportWriter() throws JAXBException
     {
         jaxbContext = JAXBContext.newInstance("org.cruk.mga.export");
     }
 
-    protected void writeTheReport(MGAConfig config, AllMGASummaries summaries)
+    /**
+     * Writes the report XML, marshalling the element for each dataset as a
+     * separate fragment as it is created rather than marshalling a single
+     * object tree containing all datasets. The XML is the same as would be
+     * produced by marshalling the complete {@link AllMGASummaries} object.
+     *
+     * If an XSL stylesheet is configured, the same fragments are marshalled
+     * as SAX events to the transformer creating the HTML report, so the XML
+     * file is not parsed again. The summary plot image is either linked to
+     * or is embedded by streaming it, base64 encoded, into the HTML output.
+     */
+    protected void writeTheReport(MGAConfig config, AllMGASummaries root, Iterable<MGASummary> summaries)
     throws IOException, TransformerException, JAXBException, XMLStreamException
     {
         Marshaller marshaller = jaxbContext.createMarshaller();
         marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
         marshaller.setProperty(Marshaller.JAXB_ENCODING, outputEncoding);
 
+        Writer htmlWriter = null;
+        TransformerHandler transformerHandler = null;
+
         try (Writer writer = new BufferedWriter(new FileWriterWithEncoding(config.getXmlFile(), outputEncoding)))
         {
+            if (config.hasXSLStyleSheet())
+            {
+                SAXTransformerFactory factory = (SAXTransformerFactory)TransformerFactory.newInstance();
+                transformerHandler = factory.newTransformerHandler(getTemplates(config.getXSLStyleSheetFile()));
+                Transformer transformer = transformerHandler.getTransformer();
+
+                String htmlEncoding = transformer.getOutputProperty(OutputKeys.ENCODING);
+                htmlWriter = new BufferedWriter(new FileWriterWithEncoding(config.getHtmlFile(), htmlEncoding == null ? outputEncoding : htmlEncoding));
+
+                if (config.isLinkImage())
+                {
+                    transformer.setParameter("imageFile", config.getImageFile().getName());
+                }
+                else
+                {
+                    transformer.setParameter("image", IMAGE_PLACEHOLDER);
+                    transformer.setParameter("imageType", config.getImageMediaType());
+                    htmlWriter = new ImageEmbeddingWriter(htmlWriter, config.getImageFile());
+                }
+
+                transformerHandler.setResult(new StreamResult(htmlWriter));
+            }
+
             XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
             IndentingXMLStreamWriter xmlStream = new IndentingXMLStreamWriter(xmlOutputFactory.createXMLStreamWriter(writer));
             xmlStream.setIndentStep("  ");
             xmlStream.writeStartDocument(outputEncoding, "1.0");
-            marshaller.marshal(summaries, xmlStream);
+            startElement(xmlStream, transformerHandler, "MultiGenomeAlignmentSummaries");
+
+            marshalElement(marshaller, xmlStream, transformerHandler, "RunId", String.class, root.getRunId());
+            marshalElement(marshaller, xmlStream, transformerHandler, "Properties", Properties.class, root.getProperties());
+            marshalElement(marshaller, xmlStream, transformerHandler, "TrimStart", Integer.class, root.getTrimStart());
+            marshalElement(marshaller, xmlStream, transformerHandler, "TrimLength", Integer.class, root.getTrimLength());
+            marshalElement(marshaller, xmlStream, transformerHandler, "Provisional", ProvisionalStatus.class, root.getProvisional());
+
+            for (MGASummary summary : summaries)
+            {
+                marshalElement(marshaller, xmlStream, transformerHandler, "MultiGenomeAlignmentSummary", MGASummary.class, summary);
+            }
+
+            if (!root.getReferenceGenomes().isEmpty())
+            {
+                startElement(xmlStream, transformerHandler, "ReferenceGenomes");
+                for (ReferenceGenome referenceGenome : root.getReferenceGenomes())
+                {
+                    marshalElement(marshaller, xmlStream, transformerHandler, "ReferenceGenome", ReferenceGenome.class, referenceGenome);
+                }
+                endElement(xmlStream, transformerHandler, "ReferenceGenomes");
+            }
+
+            endElement(xmlStream, transformerHandler, "MultiGenomeAlignmentSummaries");
             xmlStream.writeEndDocument();
             xmlStream.flush();
+
+            if (transformerHandler != null)
+            {
+                transformerHandler.endDocument();
+            }
+        }
+        catch (SAXException e)
+        {
+            throw new TransformerException("Error creating HTML report " + config.getHtmlFile(), e);
+        }
+        finally
+        {
+            if (htmlWriter != null)
+            {
+                htmlWriter.close();
+            }
         }
+    }
 
-        if (config.hasXSLStyleSheet())
+    /**
+     * Writes the start of an element to the XML stream and, if given, to the
+     * transformer handler, starting the document for the latter if this is
+     * the root element.
+     *
+     * @param xmlStream the XML stream writer
+     * @param transformerHandler the transformer handler, or null if not transforming the report
+     * @param name the element name
+     * @throws XMLStreamException
+     * @throws SAXException
+     */
+    protected void startElement(XMLStreamWriter xmlStream, TransformerHandler transformerHandler, String name)
+    throws XMLStreamException, SAXException
+    {
+        xmlStream.writeStartElement(name);
+        if (transformerHandler != null)
         {
-            File imageFile = config.getImageFile();
-            FileInputStream imageInputStream = new FileInputStream(imageFile);
-            byte imageByteArray[] = new byte[(int)imageFile.length()];
-            imageInputStream.read(imageByteArray);
-            imageInputStream.close();
+            if (name.equals("MultiGenomeAlignmentSummaries"))
+            {
+                transformerHandler.startDocument();
+            }
+            transformerHandler.startElement("", name, name, new AttributesImpl());
+        }
+    }
 
-            String imageBase64String = Base64.encodeBase64String(imageByteArray);
+    /**
+     * Writes the end of an element to the XML stream and, if given, to the
+     * transformer handler.
+     *
+     * @param xmlStream the XML stream writer
+     * @param transformerHandler the transformer handler, or null if not transforming the report
+     * @param name the element name
+     * @throws XMLStreamException
+     * @throws SAXException
+     */
+    protected void endElement(XMLStreamWriter xmlStream, TransformerHandler transformerHandler, String name)
+    throws XMLStreamException, SAXException
+    {
+        xmlStream.writeEndElement();
+        if (transformerHandler != null)
+        {
+            transformerHandler.endElement("", name, name);
+        }
+    }
+
+    /**
+     * Returns the compiled form of the given XSL stylesheet, compiling this
+     * only once so that it can be used to create transformers for each of
+     * the reports written, including from separate threads.
+     *
+     * @param xslStyleSheetFile the XSL stylesheet file
+     * @return the compiled stylesheet
+     * @throws TransformerException
+     */
+    protected synchronized Templates getTemplates(File xslStyleSheetFile) throws TransformerException
+    {
+        if (templates == null || !xslStyleSheetFile.equals(templatesFile))
+        {
             TransformerFactory factory = TransformerFactory.newInstance();
-            Source xslt = new StreamSource(config.getXSLStyleSheetFile());
-            Transformer transformer = factory.newTransformer(xslt);
-            transformer.setParameter("image", imageBase64String);
-            Source xmlSource = new StreamSource(config.getXmlFile());
-            transformer.transform(xmlSource, new StreamResult(config.getHtmlFile()));
+            Source xslt = new StreamSource(xslStyleSheetFile);
+            templates = factory.newTemplates(xslt);
+            templatesFile = xslStyleSheetFile;
+        }
+        return templates;
+    }
+
+    /**
+     * Marshals a single element as a fragment, omitting it if the value is
+     * null as would be the case when marshalling the containing object.
+     *
+     * @param marshaller the marshaller, configured to write fragments
+     * @param xmlStream the XML stream writer
+     * @param transformerHandler the transformer handler, or null if not transforming the report
+     * @param name the element name
+     * @param type the type of the value
+     * @param value the value
+     * @throws JAXBException
+     */
+    protected <T> void marshalElement(Marshaller marshaller, XMLStreamWriter xmlStream, TransformerHandler transformerHandler, String name, Class<T> type, T value)
+    throws JAXBException
+    {
+        if (value != null)
+        {
+            JAXBElement<T> element = new JAXBElement<T>(new QName(name), type, value);
+            marshaller.marshal(element, xmlStream);
+            if (transformerHandler != null)
+            {
+                marshaller.marshal(element, transformerHandler);
+            }
+        }
+    }
+
+    /**
+     * Writer for the HTML report that replaces the placeholder passed to the
+     * stylesheet in place of the image data with the base64 encoded image,
+     * read from the image file in blocks rather than held in memory.
+     */
+    private static class ImageEmbeddingWriter extends FilterWriter
+    {
+        // multiple of 3 bytes so that encoded blocks can be concatenated
+        private static final int BLOCK_SIZE = 3 * 16384;
+
+        private File imageFile;
+        private int matched = 0;
+
+        ImageEmbeddingWriter(Writer writer, File imageFile)
+        {
+            super(writer);
+            this.imageFile = imageFile;
+        }
+
+        @Override
+        public void write(int c) throws IOException
+        {
+            if (c == IMAGE_PLACEHOLDER.charAt(matched))
+            {
+                matched++;
+                if (matched == IMAGE_PLACEHOLDER.length())
+                {
+                    matched = 0;
+                    writeImage();
+                }
+                return;
+            }
+
+            if (matched > 0)
+            {
+                // the placeholder starts with a character not found elsewhere
+                // within it so matching can restart from the current character
+                out.write(IMAGE_PLACEHOLDER, 0, matched);
+                matched = 0;
+                write(c);
+                return;
+            }
+
+            out.write(c);
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException
+        {
+            for (int i = offset; i < offset + length; i++)
+            {
+                write(buffer[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int offset, int length) throws IOException
+        {
+            for (int i = offset; i < offset + length; i++)
+            {
+                write(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (matched > 0)
+            {
+                out.write(IMAGE_PLACEHOLDER, 0, matched);
+                matched = 0;
+            }
+            out.close();
+        }
+
+        private void writeImage() throws IOException
+        {
+            try (InputStream inputStream = new FileInputStream(imageFile))
+            {
+                byte[] block = new byte[BLOCK_SIZE];
+                int length = 0;
+                int n;
+                while ((n = inputStream.read(block, length, block.length - length)) != -1)
+                {
+                    length += n;
+                    if (length == block.length)
+                    {
+                        writeEncoded(block, length);
+                        length = 0;
+                    }
+                }
+                writeEncoded(block, length);
+            }
+        }
+
+        private void writeEncoded(byte[] block, int length) throws IOException
+        {
+            if (length == 0) return;
+            byte[] encoded = Base64.encodeBase64(length == block.length ? block : Arrays.copyOf(block, length));
+            out.write(new String(encoded, StandardCharsets.US_ASCII));
         }
     }
 }
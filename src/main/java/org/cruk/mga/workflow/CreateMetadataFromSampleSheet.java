@@ -77,6 +77,8 @@ public class CreateMetadataFromSampleSheet extends CommandLineUtility
     public static final long DEFAULT_CHUNK_SIZE = 5000000;
     public static final int DEFAULT_TRIM_START = 1;
     public static final int DEFAULT_TRIM_LENGTH = 36;
+    public static final boolean DEFAULT_COMPRESS_INTERMEDIATES = false;
+    public static final boolean DEFAULT_DELETE_TEXT_ALIGNMENTS = false;
 
     public static final int DEFAULT_PLOT_WIDTH = 800;
     public static final int DEFAULT_MIN_SEQUENCE_COUNT = 10;
@@ -102,6 +104,7 @@ public class CreateMetadataFromSampleSheet extends CommandLineUtility
     private long chunkSize;
     private int trimStart;
     private int trimLength;
+    private boolean compressIntermediates;
     private int plotWidth;
     private long minimumSequenceCount;
     private boolean separateDatasetReports;
@@ -135,6 +138,7 @@ public class CreateMetadataFromSampleSheet extends CommandLineUtility
         options.addOption("b", "bowtie-executable", true, "The path for the bowtie executable (default: " + DEFAULT_BOWTIE_EXECUTABLE + ")");
         options.addOption("e", "exonerate-executable", true, "The path for the exonerate executable (default: " + DEFAULT_EXONERATE_EXECUTABLE + ")");
         options.addOption(null, "separate-dataset-reports", false, "If separate reports for each dataset are required");
+        options.addOption(null, "compress-intermediates", false, "To compress intermediate FASTQ and alignment files written to the temporary directory");
 
         Option option = new Option("n", "max-cpu-resources", true, "Maximum number of CPU processors to use when running in local mode (default: " + DEFAULT_MAX_CPU_RESOURCES + ")");
         option.setType(PatternOptionBuilder.NUMBER_VALUE);
@@ -251,6 +255,8 @@ public class CreateMetadataFromSampleSheet extends CommandLineUtility
 
         separateDatasetReports = commandLine.hasOption("separate-dataset-reports");
 
+        compressIntermediates = commandLine.hasOption("compress-intermediates");
+
         String[] args = commandLine.getArgs();
 
         if (args.length < 1)
@@ -312,6 +318,7 @@ public class CreateMetadataFromSampleSheet extends CommandLineUtility
         meta.setVariable("chunkSize", Long.toString(chunkSize));
         meta.setVariable("trimStart", Integer.toString(trimStart));
         meta.setVariable("trimLength", Integer.toString(trimLength));
+        meta.setVariable("compressIntermediates", Boolean.toString(compressIntermediates));
         meta.setVariable("plotWidth", Integer.toString(plotWidth));
         meta.setVariable("minimumSequenceCount", Long.toString(minimumSequenceCount));
         meta.setVariable("separateDatasetReports", Boolean.toString(separateDatasetReports));
@@ -26,8 +26,10 @@ package org.cruk.seq;
 import java.io.File;
 
 import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
 import org.cruk.util.CommandLineUtility;
 import org.cruk.util.LineCounter;
+import org.cruk.util.RunManifest;
 
 import nu.xom.Document;
 import nu.xom.Element;
@@ -42,6 +44,7 @@ public class CountFastq extends CommandLineUtility
 {
     private String datasetId;
     private String[] fastqFilenames;
+    private String manifestFilename;
 
     /**
      * Runs the CountFastq utility with the given command-line arguments.
@@ -72,6 +75,7 @@ public class CountFastq extends CommandLineUtility
     {
         options.addOption("i", "dataset-id", true, "Identifier for the sequence dataset.");
         options.addOption("o", "output-file", true, "Output file to write number of FASTQ records to.");
+        options.addOption(new Option(null, "manifest-file", true, "Run manifest file to which the number of FASTQ records is also written."));
     }
 
     /**
@@ -81,6 +85,12 @@ public class CountFastq extends CommandLineUtility
     {
         datasetId = commandLine.getOptionValue("dataset-id");
         outputFilename = commandLine.getOptionValue("output-file");
+        manifestFilename = commandLine.getOptionValue("manifest-file");
+
+        if (manifestFilename != null && datasetId == null)
+        {
+            error("Error parsing command line: dataset identifier required when writing to a run manifest file.", true);
+        }
 
         String[] args = commandLine.getArgs();
 
@@ -104,7 +114,7 @@ public class CountFastq extends CommandLineUtility
         long recordCount = 0;
         for (String fastqFilename : fastqFilenames)
         {
-            long lineCount = lineCounter.getLineCount(new File(fastqFilename));
+            long lineCount = lineCounter.getLineCount(fastqFilename);
             recordCount += lineCount / 4;
         }
 
@@ -126,5 +136,10 @@ public class CountFastq extends CommandLineUtility
         serializer.setMaxLength(64);
         serializer.setLineSeparator("\n");
         serializer.write(document);
+
+        if (manifestFilename != null)
+        {
+            RunManifest.write(new File(manifestFilename), datasetId, RunManifest.SEQUENCE_COUNT, recordCount);
+        }
     }
 }
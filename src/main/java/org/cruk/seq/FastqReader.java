@@ -25,16 +25,14 @@ package org.cruk.seq;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipInputStream;
 
+import org.cruk.util.CompressionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,14 +51,15 @@ public class FastqReader
     private int currentReaderIndex = 0;
 
     /**
-     * Creates a new instance of FastqReader for reading from the given FASTQ file.
+     * Creates a new instance of FastqReader for reading from the given FASTQ
+     * file, which may be a named pipe or "-" for standard input.
      *
      * @param fastqFilename the name of the FASTQ file.
      * @throws IOException
      */
     public FastqReader(String fastqFilename) throws IOException
     {
-        this (new File(fastqFilename));
+        readers.add(getBufferedReader(fastqFilename));
     }
 
     /**
@@ -87,49 +86,68 @@ public class FastqReader
         this.roundRobin = roundRobin;
         for (String fastqFilename : fastqFilenames)
         {
-            readers.add(getBufferedReader(new File(fastqFilename)));
+            readers.add(getBufferedReader(fastqFilename));
         }
     }
 
     /**
-     * Returns a new input stream for the given file allowing for decompression
-     * if the extension indicates either a gzipped or zippped file.
+     * Creates a BufferedReader for the given file allowing for decompression
+     * if the content is either gzipped or zipped.
      *
      * @param file the file
-     * @return the input stream
+     * @return the buffered reader
      * @throws IOException
      */
-    private InputStream getInputStream(File file) throws IOException
+    private BufferedReader getBufferedReader(File file) throws IOException
     {
-        String filename = file.getName();
-        InputStream inputStream = new FileInputStream(file);
-        if (filename.endsWith(".gz"))
-        {
-            inputStream = new GZIPInputStream(inputStream);
-        }
-        else if (filename.toLowerCase().endsWith(".zip"))
-        {
-            // assumes single entry in the zip archive
-            inputStream = new ZipInputStream(inputStream);
-            ((ZipInputStream)inputStream).getNextEntry();
-        }
-        return inputStream;
+        return getBufferedReader(CompressionUtils.openInputStream(file));
     }
 
     /**
-     * Creates a BufferedReader for the given file allowing for decompression
-     * if the extension indicates either a gzipped or zippped file.
+     * Creates a BufferedReader for the given file name, which may be "-" for
+     * standard input, allowing for decompression if the content is either
+     * gzipped or zipped.
      *
-     * @param file the file
+     * @param filename the file name
      * @return the buffered reader
      * @throws IOException
      */
-    private BufferedReader getBufferedReader(File file) throws IOException
+    private BufferedReader getBufferedReader(String filename) throws IOException
+    {
+        return getBufferedReader(CompressionUtils.openInputStream(filename));
+    }
+
+    /**
+     * Creates a BufferedReader for the given input stream.
+     *
+     * @param inputStream the input stream
+     * @return the buffered reader
+     */
+    private BufferedReader getBufferedReader(InputStream inputStream)
     {
-        InputStream inputStream = getInputStream(file);
         return new BufferedReader(new InputStreamReader(inputStream));
     }
 
+    /**
+     * Reads and discards any remaining content from each of the files, e.g.
+     * where reading from a pipe so that the process writing to it is not
+     * blocked or terminated when fewer records than are available are read.
+     *
+     * @throws IOException
+     */
+    public void drain() throws IOException
+    {
+        char[] buffer = new char[CompressionUtils.BUFFER_SIZE];
+        for (Reader reader : readers)
+        {
+            int n = 0;
+            while (n != -1)
+            {
+                n = reader.read(buffer);
+            }
+        }
+    }
+
     public void close() throws IOException
     {
         for (Reader reader : readers)
@@ -23,8 +23,12 @@
 
 package org.cruk.seq;
 
-import java.io.FileWriter;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
@@ -36,16 +40,23 @@ import org.cruk.util.CommandLineUtility;
  * Utility for combining FASTQ files and splitting into chunks with up to a
  * specified number of records.
  *
+ * The number of chunks can also be written to a file once all chunks have
+ * been written, so that the number expected is known to anything watching
+ * for the results of processing each chunk.
+ *
  * @author eldrid01
  */
 public class MergeAndSplitFastq extends CommandLineUtility
 {
     public static String DEFAULT_OUTPUT_PREFIX = "sequences";
     public static long DEFAULT_RECORDS_PER_FILE = 5000000;
+    public static String DEFAULT_OUTPUT_SUFFIX = "fq";
 
     private String[] fastqFilenames;
     private String outputFilePrefix;
+    private String outputFileSuffix;
     private long recordsPerFile;
+    private String chunkCountFilename;
 
     /**
      * Runs the MergeAndSplitFastq utility with the given command-line arguments.
@@ -75,11 +86,15 @@ public class MergeAndSplitFastq extends CommandLineUtility
     protected void setupOptions()
     {
         options.addOption("p", "output-prefix", true, "The prefix to use for merged/split FASTQ output files (default: " + DEFAULT_OUTPUT_PREFIX + ")");
+        options.addOption("s", "output-suffix", true, "The suffix to use for merged/split FASTQ output files, output files are compressed if this ends with .gz (default: " + DEFAULT_OUTPUT_SUFFIX + ")");
+        addCompressOutputOption();
 
         Option option = new Option("n", "records-per-file", true, "The maximum number of records per FASTQ output file (default: " + DEFAULT_RECORDS_PER_FILE + ")");
         option.setType(PatternOptionBuilder.NUMBER_VALUE);
         option.setArgName("<int>");
         options.addOption(option);
+
+        options.addOption(null, "chunk-count-file", true, "File to which the number of FASTQ output files is written once all have been written");
     }
 
     /**
@@ -91,9 +106,14 @@ public class MergeAndSplitFastq extends CommandLineUtility
         outputFilePrefix = commandLine.getOptionValue("output-prefix", DEFAULT_OUTPUT_PREFIX);
         outputFilePrefix = outputFilePrefix.replaceAll("\\.$", "");
 
+        outputFileSuffix = commandLine.getOptionValue("output-suffix", DEFAULT_OUTPUT_SUFFIX);
+        outputFileSuffix = outputFileSuffix.replaceAll("^\\.", "");
+
         Number recordsPerFileN = (Number)commandLine.getParsedOptionValue("records-per-file");
         recordsPerFile = recordsPerFileN == null ? DEFAULT_RECORDS_PER_FILE : recordsPerFileN.longValue();
 
+        chunkCountFilename = commandLine.getOptionValue("chunk-count-file");
+
         fastqFilenames = commandLine.getArgs();
     }
 
@@ -107,7 +127,7 @@ public class MergeAndSplitFastq extends CommandLineUtility
         try
         {
             int outputFileCount = 1;
-            PrintWriter writer = new PrintWriter(new FileWriter(this.outputFilePrefix + "." + outputFileCount + ".fq"));
+            PrintWriter writer = new PrintWriter(openOutputStream(this.outputFilePrefix + "." + outputFileCount + "." + outputFileSuffix));
             int recordCount = 0;
 
             for (String fastqFilename : fastqFilenames)
@@ -120,7 +140,7 @@ public class MergeAndSplitFastq extends CommandLineUtility
                     if (writer == null)
                     {
                         outputFileCount++;
-                        writer = new PrintWriter(new FileWriter(this.outputFilePrefix + "." + outputFileCount + ".fq"));
+                        writer = new PrintWriter(openOutputStream(this.outputFilePrefix + "." + outputFileCount + "." + outputFileSuffix));
                     }
                     writer.print(fastq);
                     recordCount++;
@@ -136,10 +156,30 @@ public class MergeAndSplitFastq extends CommandLineUtility
             }
 
             if (writer != null) writer.close();
+
+            if (chunkCountFilename != null)
+            {
+                writeChunkCount(outputFileCount);
+            }
         }
         catch (FastqFormatException e)
         {
             error(e.getMessage());
         }
     }
+
+    /**
+     * Writes the number of chunks to the chunk count file, writing to a
+     * temporary file that is renamed once complete.
+     *
+     * @param chunkCount the number of chunks
+     * @throws IOException
+     */
+    private void writeChunkCount(int chunkCount) throws IOException
+    {
+        File chunkCountFile = new File(chunkCountFilename);
+        File temporaryFile = new File(chunkCountFilename + TEMPORARY_FILE_EXTENSION);
+        Files.write(temporaryFile.toPath(), (chunkCount + "\n").getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporaryFile.toPath(), chunkCountFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 }
@@ -24,6 +24,7 @@
 package org.cruk.seq;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -35,6 +36,8 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PatternOptionBuilder;
 import org.apache.commons.math3.random.RandomDataGenerator;
 import org.cruk.util.CommandLineUtility;
+import org.cruk.util.CompressionUtils;
+import org.cruk.util.RunManifest;
 
 import nu.xom.Document;
 import nu.xom.Element;
@@ -53,6 +56,7 @@ public class SampleFastq extends CommandLineUtility
     private String datasetId;
     private String[] fastqFilenames;
     private String summaryFilename;
+    private String manifestFilename;
     private String prefix;
     private int sampleSize;
     private long maxSampleFrom;
@@ -87,8 +91,10 @@ public class SampleFastq extends CommandLineUtility
         options.addOption("i", "dataset-id", true, "Identifier for the sequence dataset.");
         options.addOption("x", "summary-file", true, "Output file containing sampling summary statistics");
         options.addOption("p", "seq-id-prefix", true, "The prefix to use if renaming sequence identifiers");
+        options.addOption(new Option(null, "manifest-file", true, "Run manifest file to which the number of sampled sequences is also written"));
+        addCompressOutputOption();
 
-        Option option = new Option("o", "output-file", true, "Output file for sampled FASTQ sequences");
+        Option option = new Option("o", "output-file", true, "Output file for sampled FASTQ sequences, compressed if the name ends with .gz");
         option.setRequired(true);
         options.addOption(option);
 
@@ -97,7 +103,7 @@ public class SampleFastq extends CommandLineUtility
         option.setArgName("<int>");
         options.addOption(option);
 
-        option = new Option("m", "max-sample-from", true, "Maximum number of sequences to sample from (default: " + DEFAULT_MAX_SAMPLE_FROM + ")");
+        option = new Option("m", "max-sample-from", true, "Maximum number of sequences to sample from; input from standard input or a named pipe is read to the end but only this many sequences are sampled (default: " + DEFAULT_MAX_SAMPLE_FROM + ")");
         option.setType(PatternOptionBuilder.NUMBER_VALUE);
         option.setArgName("<int>");
         options.addOption(option);
@@ -135,6 +141,12 @@ public class SampleFastq extends CommandLineUtility
 
         summaryFilename = commandLine.getOptionValue("summary-file");
 
+        manifestFilename = commandLine.getOptionValue("manifest-file");
+        if (manifestFilename != null && datasetId == null)
+        {
+            error("Error: a dataset identifier must be specified when writing to a run manifest file.");
+        }
+
         prefix = commandLine.getOptionValue("seq-id-prefix");
 
         String[] args = commandLine.getArgs();
@@ -176,6 +188,11 @@ public class SampleFastq extends CommandLineUtility
             }
 
             writeSummary(datasetId, records.length);
+
+            if (manifestFilename != null)
+            {
+                RunManifest.write(new File(manifestFilename), datasetId, RunManifest.SAMPLED_COUNT, records.length);
+            }
         }
         catch (FastqFormatException e)
         {
@@ -220,11 +237,29 @@ public class SampleFastq extends CommandLineUtility
             if (j < sampleSize) records[(int)j] = record;
         }
 
+        if (isPipe(fastqFilenames)) reader.drain();
         reader.close();
 
         return records;
     }
 
+    /**
+     * Returns whether any of the given FASTQ files is standard input or a named
+     * pipe, for which the remaining content is read once sampling is complete
+     * so that the process writing to it runs to completion.
+     *
+     * @param fastqFilenames the FASTQ file(s).
+     * @return true if any of the files is standard input or a named pipe
+     */
+    private boolean isPipe(String[] fastqFilenames)
+    {
+        for (String fastqFilename : fastqFilenames)
+        {
+            if (fastqFilename.equals(CompressionUtils.STDIN) || !new File(fastqFilename).isFile()) return true;
+        }
+        return false;
+    }
+
     /**
      * Writes an XML file containing a summary of the sampling.
      *
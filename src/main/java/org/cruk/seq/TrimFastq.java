@@ -80,8 +80,9 @@ public class TrimFastq extends CommandLineUtility
     @Override
     protected void setupOptions()
     {
-        options.addOption("o", "output-file", true, "Output file for trimmed FASTQ sequences (default: stdout)");
+        options.addOption("o", "output-file", true, "Output file for trimmed FASTQ sequences, compressed if the name ends with .gz (default: stdout)");
         options.addOption("x", "summary-file", true, "Output file containing trimming summary statistics");
+        addCompressOutputOption();
 
         Option option = new Option("s", "trim-start", true, "Start position for trimmed sequences (default: " + DEFAULT_START + ")");
         option.setType(PatternOptionBuilder.NUMBER_VALUE);
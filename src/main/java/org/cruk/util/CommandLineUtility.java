@@ -23,10 +23,14 @@
 
 package org.cruk.util;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -44,12 +48,18 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class CommandLineUtility
 {
+    public static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+    public static final String OUTPUT_ENCODING = "UTF-8";
+
     protected Logger log = LoggerFactory.getLogger(getClass());
 
     protected String argumentsDisplayString;
     protected Options options = new Options();
     protected String outputFilename;
+    protected boolean compressOutput;
     protected PrintStream out;
+    private File temporaryFile;
 
     /**
      * Initializes a new CommandLineUtility instance with the given command line
@@ -81,6 +91,15 @@ public abstract class CommandLineUtility
      */
     protected abstract void setupOptions();
 
+    /**
+     * Adds the option to compress output files, for utilities that write
+     * intermediate sequence files.
+     */
+    protected void addCompressOutputOption()
+    {
+        options.addOption("z", "compress-output", false, "Compress output files using fast, multi-threaded gzip compression");
+    }
+
     /**
      * Parses command line arguments. Subclasses may implement this abstract
      * method to parse the given arguments and populate the command line options
@@ -98,6 +117,7 @@ public abstract class CommandLineUtility
         try
         {
             CommandLine commandLine = parser.parse(options, args);
+            compressOutput = commandLine.hasOption("compress-output");
             parseCommandLine(commandLine);
         }
         catch (ParseException e)
@@ -125,22 +145,40 @@ public abstract class CommandLineUtility
 
     /**
      * Runs the utility taking care of opening and closing the output writer.
+     *
+     * Output written to a file is written to a temporary file alongside it,
+     * which is renamed once the utility has completed successfully, so that
+     * the output file only appears once complete, e.g. for the results
+     * directory to be watched while alignments are still running.
+     *
+     * Output is written using UTF-8 encoding regardless of the platform
+     * default so that identifiers such as dataset ids written within read
+     * names are read back consistently.
      */
     public void execute()
     {
         if (outputFilename == null)
         {
-            out = System.out;
+            // standard output is flushed rather than closed, finishing any compressed output
+            try
+            {
+                out = new PrintStream(CompressionUtils.compress(new NonClosingOutputStream(System.out), compressOutput), false, OUTPUT_ENCODING);
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                error(e);
+            }
         }
         else
         {
+            temporaryFile = new File(outputFilename + TEMPORARY_FILE_EXTENSION);
             try
             {
-                out = new PrintStream(new BufferedOutputStream(new FileOutputStream(outputFilename)));
+                out = new PrintStream(CompressionUtils.openOutputStream(temporaryFile, outputFilename, compressOutput), false, OUTPUT_ENCODING);
             }
             catch (IOException e)
             {
-                error("Error creating file " + outputFilename);
+                error("Error creating file " + temporaryFile);
             }
         }
 
@@ -148,6 +186,14 @@ public abstract class CommandLineUtility
         {
             run();
             out.flush();
+            if (temporaryFile != null)
+            {
+                out.close();
+                if (out.checkError())
+                    throw new IOException("Error writing to " + temporaryFile);
+                Files.move(temporaryFile.toPath(), new File(outputFilename).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                temporaryFile = null;
+            }
         }
         catch (Exception e)
         {
@@ -161,14 +207,34 @@ public abstract class CommandLineUtility
     }
 
     /**
-     * Closes the file output stream.
+     * Opens an output stream for writing to the given file, compressing the
+     * output if requested on the command line or if the file has a .gz
+     * extension.
+     *
+     * @param filename the name of the output file
+     * @return the output stream
+     * @throws IOException
+     */
+    protected OutputStream openOutputStream(String filename) throws IOException
+    {
+        return CompressionUtils.openOutputStream(new File(filename), compressOutput);
+    }
+
+    /**
+     * Closes the output stream, removing the temporary output file if
+     * the utility did not complete successfully.
      */
     private void closeOutputStream()
     {
-        if (outputFilename != null && out != null)
+        if (out != null)
         {
             out.close();
         }
+        if (temporaryFile != null)
+        {
+            temporaryFile.delete();
+            temporaryFile = null;
+        }
     }
 
     /**
@@ -221,4 +287,28 @@ public abstract class CommandLineUtility
         }
         formatter.printHelp(commandLine, options);
     }
+
+    /**
+     * Output stream that flushes rather than closes the underlying stream
+     * when closed, used for writing to standard output.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream
+    {
+        NonClosingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.flush();
+        }
+    }
 }
@@ -0,0 +1,231 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Utility methods for opening input streams that may or may not be compressed
+ * and for creating output streams for intermediate files that may optionally
+ * be compressed.
+ *
+ * Compressed input is recognized from the leading magic bytes rather than the
+ * file name extension so that intermediate files can be compressed without
+ * needing to change their names and so that content can be read from standard
+ * input or named pipes.
+ */
+public class CompressionUtils
+{
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * File name used to denote standard input.
+     */
+    public static final String STDIN = "-";
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int ZIP_MAGIC_1 = 'P';
+    private static final int ZIP_MAGIC_2 = 'K';
+
+    private CompressionUtils()
+    {
+    }
+
+    /**
+     * Opens an input stream for the given file, decompressing the contents
+     * if the file is in gzip or zip format.
+     *
+     * @param file the file
+     * @return the input stream
+     * @throws IOException
+     */
+    public static InputStream openInputStream(File file) throws IOException
+    {
+        return decompress(new FileInputStream(file));
+    }
+
+    /**
+     * Opens an input stream for the given file name, decompressing the
+     * contents if in gzip or zip format. The file may be a named pipe, or
+     * standard input if the name is "-".
+     *
+     * @param filename the file name
+     * @return the input stream
+     * @throws IOException
+     */
+    public static InputStream openInputStream(String filename) throws IOException
+    {
+        if (STDIN.equals(filename))
+        {
+            return decompress(System.in);
+        }
+        return openInputStream(new File(filename));
+    }
+
+    /**
+     * Returns an input stream that decompresses the given stream if it starts
+     * with the gzip or zip magic bytes, otherwise a buffered stream returning
+     * the original content. Only the first entry is read from zip archives.
+     *
+     * @param inputStream the input stream
+     * @return the possibly decompressing input stream
+     * @throws IOException
+     */
+    public static InputStream decompress(InputStream inputStream) throws IOException
+    {
+        BufferedInputStream bufferedStream = new BlockingAvailableInputStream(inputStream);
+
+        bufferedStream.mark(2);
+        int b1 = bufferedStream.read();
+        int b2 = bufferedStream.read();
+        bufferedStream.reset();
+
+        if (b1 == GZIP_MAGIC_1 && b2 == GZIP_MAGIC_2)
+        {
+            // GZIPInputStream reads concatenated gzip members, e.g. BGZF as
+            // written by ParallelGzipOutputStream, as a single stream
+            return new BufferedInputStream(new GZIPInputStream(bufferedStream, BUFFER_SIZE), BUFFER_SIZE);
+        }
+
+        if (b1 == ZIP_MAGIC_1 && b2 == ZIP_MAGIC_2)
+        {
+            // assumes single entry in the zip archive
+            ZipInputStream zipStream = new ZipInputStream(bufferedStream);
+            zipStream.getNextEntry();
+            return new BufferedInputStream(zipStream, BUFFER_SIZE);
+        }
+
+        return bufferedStream;
+    }
+
+    /**
+     * Buffered input stream for which {@link #available()} blocks until more
+     * content can be read or the end of the stream is reached.
+     *
+     * GZIPInputStream only moves on to the next member of a multi-member gzip
+     * stream if the underlying stream reports that bytes are available, so
+     * would otherwise stop reading early if a pipe happened to be empty when
+     * the end of a member was reached.
+     */
+    private static class BlockingAvailableInputStream extends BufferedInputStream
+    {
+        public BlockingAvailableInputStream(InputStream inputStream)
+        {
+            super(inputStream, BUFFER_SIZE);
+        }
+
+        @Override
+        public synchronized int available() throws IOException
+        {
+            int available = super.available();
+            if (available == 0)
+            {
+                mark(1);
+                if (read() == -1) return 0;
+                reset();
+                available = super.available();
+            }
+            return available;
+        }
+    }
+
+    /**
+     * Opens an output stream for the given file, optionally compressing the
+     * output in gzip format using fast, block-parallel compression. Output
+     * files with a .gz extension are always compressed, at the default
+     * compression level unless fast compression has been requested.
+     *
+     * @param file the file
+     * @param compress whether to compress the output using the fastest compression level
+     * @return the output stream
+     * @throws IOException
+     */
+    public static OutputStream openOutputStream(File file, boolean compress) throws IOException
+    {
+        return openOutputStream(file, file.getName(), compress);
+    }
+
+    /**
+     * Opens an output stream for the given file, compressing the output as
+     * for a file with the given name, e.g. where writing to a temporary file
+     * that is renamed once complete.
+     *
+     * @param file the file
+     * @param filename the name of the file determining whether the output is compressed
+     * @param compress whether to compress the output using the fastest compression level
+     * @return the output stream
+     * @throws IOException
+     */
+    public static OutputStream openOutputStream(File file, String filename, boolean compress) throws IOException
+    {
+        OutputStream outputStream = new FileOutputStream(file);
+        if (!compress && isGzipFilename(filename))
+        {
+            return new ParallelGzipOutputStream(outputStream, Deflater.DEFAULT_COMPRESSION);
+        }
+        return compress(outputStream, compress);
+    }
+
+    /**
+     * Returns whether the given file name has a gzip extension.
+     *
+     * @param filename the file name
+     * @return
+     */
+    public static boolean isGzipFilename(String filename)
+    {
+        return filename.toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * Optionally wraps the given output stream so that content written to it
+     * is compressed using fast, block-parallel gzip compression.
+     *
+     * @param outputStream the output stream
+     * @param compress whether to compress the output
+     * @return the output stream
+     */
+    public static OutputStream compress(OutputStream outputStream, boolean compress)
+    {
+        if (compress)
+        {
+            return new ParallelGzipOutputStream(outputStream);
+        }
+        else
+        {
+            return new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        }
+    }
+}
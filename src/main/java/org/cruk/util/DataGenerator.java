@@ -0,0 +1,299 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Generator for writing structured data, i.e. nested objects and arrays of
+ * string and numeric values, in a text format such as JSON or YAML.
+ *
+ * Values are written to the underlying writer as they are generated with
+ * no intermediate document tree and no per-value objects beyond number
+ * formatting.
+ */
+public abstract class DataGenerator implements Closeable
+{
+    protected static final String INDENT = "  ";
+
+    protected Writer out;
+
+    // stack of containers currently being written, recording whether each is
+    // an array and the number of values or name/value pairs written so far
+    protected int depth = 0;
+    protected boolean[] arrays = new boolean[8];
+    protected int[] counts = new int[8];
+
+    protected DataGenerator(Writer out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Starts an object, either at the top level or as a value.
+     *
+     * @throws IOException
+     */
+    public abstract void startObject() throws IOException;
+
+    /**
+     * Ends the current object.
+     *
+     * @throws IOException
+     */
+    public abstract void endObject() throws IOException;
+
+    /**
+     * Starts an array as a value.
+     *
+     * @throws IOException
+     */
+    public abstract void startArray() throws IOException;
+
+    /**
+     * Ends the current array.
+     *
+     * @throws IOException
+     */
+    public abstract void endArray() throws IOException;
+
+    /**
+     * Writes the name of the next name/value pair within the current object.
+     *
+     * @param name the name
+     * @throws IOException
+     */
+    public abstract void name(String name) throws IOException;
+
+    /**
+     * Writes the separator and indentation that precede a scalar value.
+     *
+     * @throws IOException
+     */
+    protected abstract void beforeValue() throws IOException;
+
+    public void value(String value) throws IOException
+    {
+        beforeValue();
+        if (value == null)
+        {
+            out.write("null");
+        }
+        else
+        {
+            writeQuoted(value);
+        }
+    }
+
+    public void value(long value) throws IOException
+    {
+        beforeValue();
+        out.write(Long.toString(value));
+    }
+
+    /**
+     * Writes a floating point value rounded to at most 5 decimal places.
+     *
+     * @param value the value
+     * @throws IOException
+     */
+    public void value(float value) throws IOException
+    {
+        beforeValue();
+        writeFloat(value);
+    }
+
+    public void value(Integer value) throws IOException
+    {
+        if (value == null)
+        {
+            beforeValue();
+            out.write("null");
+        }
+        else
+        {
+            value(value.longValue());
+        }
+    }
+
+    public void field(String name, String value) throws IOException
+    {
+        name(name);
+        value(value);
+    }
+
+    public void field(String name, long value) throws IOException
+    {
+        name(name);
+        value(value);
+    }
+
+    public void field(String name, float value) throws IOException
+    {
+        name(name);
+        value(value);
+    }
+
+    public void field(String name, Integer value) throws IOException
+    {
+        name(name);
+        value(value);
+    }
+
+    /**
+     * Pushes a container onto the stack.
+     *
+     * @param array whether the container is an array or an object
+     */
+    protected void push(boolean array)
+    {
+        if (depth == arrays.length)
+        {
+            arrays = Arrays.copyOf(arrays, depth * 2);
+            counts = Arrays.copyOf(counts, depth * 2);
+        }
+        arrays[depth] = array;
+        counts[depth] = 0;
+        depth++;
+    }
+
+    /**
+     * Pops the current container from the stack, checking it is of the
+     * expected type.
+     *
+     * @param array whether an array or an object is expected
+     * @return the number of values or name/value pairs in the container
+     */
+    protected int pop(boolean array)
+    {
+        if (depth == 0 || arrays[depth - 1] != array)
+        {
+            throw new IllegalStateException("Not within " + (array ? "an array" : "an object"));
+        }
+        depth--;
+        return counts[depth];
+    }
+
+    /**
+     * @return whether the current container is an array
+     */
+    protected boolean inArray()
+    {
+        return depth > 0 && arrays[depth - 1];
+    }
+
+    protected void indent(int level) throws IOException
+    {
+        for (int i = 0; i < level; i++)
+        {
+            out.write(INDENT);
+        }
+    }
+
+    /**
+     * Writes a double-quoted string, escaping quotes, backslashes and control
+     * characters using escape sequences common to JSON and YAML.
+     *
+     * @param s the string
+     * @throws IOException
+     */
+    protected void writeQuoted(String s) throws IOException
+    {
+        out.write('"');
+        int start = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20)
+            {
+                out.write(s, start, i - start);
+                start = i + 1;
+                out.write('\\');
+                switch (c)
+                {
+                    case '"':
+                    case '\\':
+                        out.write(c);
+                        break;
+                    case '\n':
+                        out.write('n');
+                        break;
+                    case '\r':
+                        out.write('r');
+                        break;
+                    case '\t':
+                        out.write('t');
+                        break;
+                    default:
+                        out.write(String.format("u%04x", (int)c));
+                        break;
+                }
+            }
+        }
+        out.write(s, start, length - start);
+        out.write('"');
+    }
+
+    /**
+     * Writes a floating point number in fixed point notation with between 1
+     * and 5 decimal places, as for the XML report.
+     *
+     * @param f the number
+     * @throws IOException
+     */
+    protected void writeFloat(float f) throws IOException
+    {
+        if (Float.isNaN(f) || Float.isInfinite(f))
+        {
+            out.write("null");
+            return;
+        }
+        long scaled = Math.round(Math.abs((double)f) * 100000.0);
+        if (f < 0.0f && scaled != 0) out.write('-');
+        out.write(Long.toString(scaled / 100000));
+        out.write('.');
+        int fraction = (int)(scaled % 100000);
+        int divisor = 10000;
+        do
+        {
+            out.write('0' + fraction / divisor);
+            fraction %= divisor;
+            divisor /= 10;
+        }
+        while (fraction != 0);
+    }
+
+    /**
+     * Flushes and closes the underlying writer.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
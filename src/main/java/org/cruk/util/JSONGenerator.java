@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Generator for writing structured data as JSON.
+ */
+public class JSONGenerator extends DataGenerator
+{
+    private boolean afterName = false;
+
+    public JSONGenerator(Writer out)
+    {
+        super(out);
+    }
+
+    @Override
+    public void startObject() throws IOException
+    {
+        if (depth > 0) beforeValue();
+        out.write('{');
+        push(false);
+    }
+
+    @Override
+    public void endObject() throws IOException
+    {
+        endContainer(pop(false), '}');
+    }
+
+    @Override
+    public void startArray() throws IOException
+    {
+        if (depth > 0) beforeValue();
+        out.write('[');
+        push(true);
+    }
+
+    @Override
+    public void endArray() throws IOException
+    {
+        endContainer(pop(true), ']');
+    }
+
+    private void endContainer(int count, char end) throws IOException
+    {
+        if (count > 0)
+        {
+            out.write('\n');
+            indent(depth);
+        }
+        out.write(end);
+        if (depth == 0) out.write('\n');
+    }
+
+    @Override
+    public void name(String name) throws IOException
+    {
+        if (depth == 0 || inArray() || afterName)
+        {
+            throw new IllegalStateException("Name " + name + " not expected");
+        }
+        if (counts[depth - 1]++ > 0) out.write(',');
+        out.write('\n');
+        indent(depth);
+        writeQuoted(name);
+        out.write(": ");
+        afterName = true;
+    }
+
+    @Override
+    protected void beforeValue() throws IOException
+    {
+        if (afterName)
+        {
+            afterName = false;
+        }
+        else if (inArray())
+        {
+            if (counts[depth - 1]++ > 0) out.write(',');
+            out.write('\n');
+            indent(depth);
+        }
+        else if (depth > 0)
+        {
+            throw new IllegalStateException("Value within object must be preceded by a name");
+        }
+    }
+}
@@ -25,15 +25,11 @@ package org.cruk.util;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.util.zip.ZipInputStream;
-
-import org.cruk.workflow.util.GzipUtils;
 
 /**
  * Utility class for count lines in a file.
@@ -51,20 +47,33 @@ public class LineCounter
      */
     public long getLineCount(File file) throws IOException
     {
-        long lineCount = 0;
+        return getLineCount(CompressionUtils.openInputStream(file));
+    }
 
-        InputStream inputStream;
-        if (file.getName().toLowerCase().endsWith(".zip"))
-        {
-            // assumes single entry in the zip archive
-            ZipInputStream zstream = new ZipInputStream(new FileInputStream(file));
-            zstream.getNextEntry();
-            inputStream = zstream;
-        }
-        else
-        {
-            inputStream = GzipUtils.openInputStream(file);
-        }
+    /**
+     * Returns the number of lines in the specified file, which may be a named
+     * pipe or "-" for standard input.
+     *
+     * @param filename the name of the file
+     * @return
+     * @throws IOException
+     */
+    public long getLineCount(String filename) throws IOException
+    {
+        return getLineCount(CompressionUtils.openInputStream(filename));
+    }
+
+    /**
+     * Returns the number of lines in the given input stream. The stream is
+     * closed on completion.
+     *
+     * @param inputStream the input stream
+     * @return
+     * @throws IOException
+     */
+    public long getLineCount(InputStream inputStream) throws IOException
+    {
+        long lineCount = 0;
 
         try (LineNumberReader reader = new LineNumberReader(new InputStreamReader(inputStream)))
         {
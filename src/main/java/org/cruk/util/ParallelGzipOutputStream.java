@@ -0,0 +1,360 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that compresses blocks of content concurrently using a pool
+ * of threads, in the manner of pigz, writing each block as a separate gzip
+ * member. The concatenated members form a valid gzip stream that can be read
+ * by {@link java.util.zip.GZIPInputStream}, gunzip, zcat, etc.
+ *
+ * The output is in the blocked gzip format (BGZF) used by samtools and htslib,
+ * i.e. each member holds at most 64KB of uncompressed content, records its
+ * compressed size in a BC extra subfield and the stream is terminated with an
+ * empty end-of-file block. Files written in this format can be decompressed in
+ * parallel and indexed by bgzip-aware tools.
+ *
+ * Blocks are compressed using a thread pool shared by all streams unless an
+ * executor is supplied, so that writing several compressed files at once does
+ * not create a pool of threads for each.
+ */
+public class ParallelGzipOutputStream extends OutputStream
+{
+    /**
+     * Maximum uncompressed content per block, chosen as in htslib so that the
+     * compressed block is guaranteed to fit within the 64KB BGZF limit.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 0xff00;
+
+    private static final int MAX_COMPRESSED_BLOCK_SIZE = 0x10000;
+
+    private static final byte[] BGZF_HEADER = new byte[] {
+        0x1f, (byte)0x8b,   // magic
+        Deflater.DEFLATED,  // compression method
+        4,                  // flags: FEXTRA
+        0, 0, 0, 0,         // modification time
+        0,                  // extra flags
+        (byte)0xff,         // operating system: unknown
+        6, 0,               // length of extra field
+        'B', 'C',           // BGZF subfield identifier
+        2, 0,               // length of subfield
+        0, 0                // total block size - 1, filled in for each block
+    };
+
+    private static final int BSIZE_OFFSET = 16;
+
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final byte[] BGZF_EOF = new byte[] {
+        0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)0xff, 6, 0, 'B', 'C', 2, 0,
+        0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static ExecutorService sharedExecutor;
+
+    private OutputStream out;
+    private ExecutorService executor;
+    private int level;
+    private int maxPendingBlocks;
+    private Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+
+    private byte[] buffer;
+    private int count = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new ParallelGzipOutputStream using the fastest compression
+     * level, as is appropriate for intermediate files, and the shared
+     * compression thread pool.
+     *
+     * @param out the underlying output stream
+     */
+    public ParallelGzipOutputStream(OutputStream out)
+    {
+        this(out, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Creates a new ParallelGzipOutputStream with the given compression level
+     * using the shared compression thread pool.
+     *
+     * @param out the underlying output stream
+     * @param level the deflate compression level (0-9)
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level)
+    {
+        this(out, level, getSharedExecutor(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new ParallelGzipOutputStream with the given compression level
+     * using the given executor to compress blocks. The executor is not shut
+     * down when the stream is closed.
+     *
+     * @param out the underlying output stream
+     * @param level the deflate compression level (0-9)
+     * @param executor the executor used to compress blocks
+     * @param threads the number of threads available to the executor, limiting the number of blocks pending
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, ExecutorService executor, int threads)
+    {
+        this.out = out;
+        this.level = level;
+        this.executor = executor;
+        this.maxPendingBlocks = 2 * Math.max(1, threads);
+        this.buffer = new byte[DEFAULT_BLOCK_SIZE];
+    }
+
+    /**
+     * Returns the thread pool shared by streams for which no executor was
+     * given, creating it on first use with a daemon thread for each available
+     * processor.
+     *
+     * @return the shared executor
+     */
+    private static synchronized ExecutorService getSharedExecutor()
+    {
+        if (sharedExecutor == null)
+        {
+            sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "gzip-compressor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        ensureOpen();
+        if (count == buffer.length) submitBlock();
+        buffer[count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+        ensureOpen();
+        while (length > 0)
+        {
+            if (count == buffer.length) submitBlock();
+            int n = Math.min(length, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, n);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Compresses any buffered content and writes all outstanding compressed
+     * blocks to the underlying stream. Note that each flush will terminate the
+     * current block so frequent flushing will reduce compression efficiency.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        ensureOpen();
+        if (count > 0) submitBlock();
+        while (!pendingBlocks.isEmpty())
+        {
+            writeNextBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes any remaining content followed by the BGZF end-of-file marker
+     * block without closing the underlying stream, e.g. where writing to
+     * standard output. No further content can be written.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException
+    {
+        if (closed) return;
+        try
+        {
+            flush();
+            out.write(BGZF_EOF);
+            out.flush();
+        }
+        finally
+        {
+            closed = true;
+            for (Future<byte[]> future : pendingBlocks)
+            {
+                future.cancel(true);
+            }
+            pendingBlocks.clear();
+        }
+    }
+
+    /**
+     * Writes any remaining content followed by the BGZF end-of-file marker
+     * block and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (closed) throw new IOException("Stream closed");
+    }
+
+    /**
+     * Submits the current buffer for compression, waiting for the oldest
+     * block to be written first if the maximum number of blocks are already
+     * being compressed.
+     */
+    private void submitBlock() throws IOException
+    {
+        if (pendingBlocks.size() >= maxPendingBlocks)
+        {
+            writeNextBlock();
+        }
+        byte[] block = Arrays.copyOf(buffer, count);
+        pendingBlocks.addLast(executor.submit(new BlockCompressor(block, level)));
+        count = 0;
+    }
+
+    /**
+     * Waits for the oldest pending block to be compressed and writes it to
+     * the underlying stream; blocks are written in the order they were
+     * submitted.
+     */
+    private void writeNextBlock() throws IOException
+    {
+        Future<byte[]> future = pendingBlocks.removeFirst();
+        try
+        {
+            out.write(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing output");
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Error compressing output", e.getCause());
+        }
+    }
+
+    /**
+     * Compresses a block of content into a complete BGZF block.
+     */
+    private static class BlockCompressor implements Callable<byte[]>
+    {
+        private byte[] block;
+        private int level;
+
+        BlockCompressor(byte[] block, int level)
+        {
+            this.block = block;
+            this.level = level;
+        }
+
+        @Override
+        public byte[] call()
+        {
+            Deflater deflater = new Deflater(level, true);
+            try
+            {
+                deflater.setInput(block);
+                deflater.finish();
+
+                // incompressible content is written as stored deflate blocks
+                // with 5 bytes overhead for each, so always fits within the
+                // maximum block size given the limit on uncompressed content
+                byte[] member = new byte[MAX_COMPRESSED_BLOCK_SIZE];
+                System.arraycopy(BGZF_HEADER, 0, member, 0, BGZF_HEADER.length);
+                int length = BGZF_HEADER.length;
+                while (!deflater.finished())
+                {
+                    if (length == member.length - GZIP_TRAILER_LENGTH)
+                    {
+                        throw new IllegalStateException("Compressed block exceeds maximum BGZF block size");
+                    }
+                    length += deflater.deflate(member, length, member.length - GZIP_TRAILER_LENGTH - length);
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(block, 0, block.length);
+                writeInt(member, length, (int)crc.getValue());
+                writeInt(member, length + 4, block.length);
+                length += GZIP_TRAILER_LENGTH;
+
+                member[BSIZE_OFFSET] = (byte)(length - 1);
+                member[BSIZE_OFFSET + 1] = (byte)((length - 1) >> 8);
+
+                return Arrays.copyOf(member, length);
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+
+        private static void writeInt(byte[] bytes, int offset, int value)
+        {
+            bytes[offset] = (byte)value;
+            bytes[offset + 1] = (byte)(value >> 8);
+            bytes[offset + 2] = (byte)(value >> 16);
+            bytes[offset + 3] = (byte)(value >> 24);
+        }
+    }
+}
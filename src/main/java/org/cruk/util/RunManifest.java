@@ -0,0 +1,244 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Run manifest containing named values for each dataset, e.g. sequence and
+ * sampled counts, which can be loaded for all datasets without parsing the
+ * separate XML summary files for each dataset.
+ *
+ * Each tool processing an individual dataset writes its values to its own
+ * small manifest file, runId.datasetId.count.manifest or
+ * runId.datasetId.sampled.manifest, so that no file is shared between
+ * concurrent jobs and each file is a declared output of the task that writes
+ * it. Files are written under a temporary name and renamed once complete.
+ * Once all datasets have been counted and sampled, the records from these
+ * files are combined into a single run manifest file, runId.manifest, so
+ * that the report need only read one file.
+ *
+ * Each record contains a dataset identifier, a name and a long value.
+ * Records start with a marker and end with a checksum so that a file that
+ * is truncated or otherwise corrupt is detected when reading, which is
+ * treated as an error. A run manifest file may contain any number of
+ * records, so the per-dataset files can be combined by concatenation.
+ */
+public class RunManifest
+{
+    public static final String FILE_EXTENSION = ".manifest";
+
+    public static final String SEQUENCE_COUNT = "SequenceCount";
+    public static final String SAMPLED_COUNT = "SampledCount";
+
+    private static final byte[] RECORD_MARKER = new byte[] { 'M', 'G', 'A', 'R' };
+
+    // marker, payload length and checksum
+    private static final int RECORD_OVERHEAD = RECORD_MARKER.length + 2 + 4;
+
+    private Map<String, Map<String, Long>> values = new TreeMap<String, Map<String, Long>>();
+    private Map<String, Map<String, String>> sources = new HashMap<String, Map<String, String>>();
+
+    /**
+     * Writes a run manifest file containing a single value for the given
+     * dataset, writing to a temporary file that is renamed once complete so
+     * that the manifest file is never seen partially written.
+     *
+     * @param manifestFile the run manifest file
+     * @param datasetId the dataset identifier
+     * @param name the name of the value
+     * @param value the value
+     * @throws IOException
+     */
+    public static void write(File manifestFile, String datasetId, String name, long value) throws IOException
+    {
+        File temporaryFile = new File(manifestFile.getPath() + CommandLineUtility.TEMPORARY_FILE_EXTENSION);
+        try (OutputStream outputStream = new FileOutputStream(temporaryFile))
+        {
+            outputStream.write(createRecord(datasetId, name, value));
+        }
+        Files.move(temporaryFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes all the values in this manifest, ordered by dataset identifier
+     * and name, to the given output stream.
+     *
+     * @param outputStream the output stream
+     * @throws IOException
+     */
+    public void write(OutputStream outputStream) throws IOException
+    {
+        for (Map.Entry<String, Map<String, Long>> dataset : values.entrySet())
+        {
+            for (Map.Entry<String, Long> value : new TreeMap<String, Long>(dataset.getValue()).entrySet())
+            {
+                outputStream.write(createRecord(dataset.getKey(), value.getKey(), value.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Creates a record for the given dataset and value.
+     *
+     * @param datasetId the dataset identifier
+     * @param name the name of the value
+     * @param value the value
+     * @return the record bytes
+     * @throws IOException
+     */
+    private static byte[] createRecord(String datasetId, String name, long value) throws IOException
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeUTF(datasetId);
+        out.writeUTF(name);
+        out.writeLong(value);
+        out.flush();
+        byte[] payloadBytes = payload.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        out = new DataOutputStream(record);
+        out.write(RECORD_MARKER);
+        out.writeShort(payloadBytes.length);
+        out.write(payloadBytes);
+        out.writeInt((int)crc.getValue());
+        out.flush();
+        return record.toByteArray();
+    }
+
+    /**
+     * Reads the given run manifest file, adding its values to this manifest.
+     *
+     * @param manifestFile the run manifest file
+     * @throws IOException
+     */
+    public void read(File manifestFile) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(manifestFile.toPath());
+
+        int position = 0;
+        while (position < bytes.length)
+        {
+            int length = readRecord(bytes, position, manifestFile);
+            if (length == -1)
+            {
+                throw new RuntimeException("Incomplete or corrupt record at byte " + position + " in run manifest file " + manifestFile);
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Reads a record at the given position.
+     *
+     * @param bytes the contents of the run manifest file
+     * @param position the position of the record
+     * @param manifestFile the run manifest file
+     * @return the length of the record or -1 if there is no valid record at the given position
+     * @throws IOException
+     */
+    private int readRecord(byte[] bytes, int position, File manifestFile) throws IOException
+    {
+        if (bytes.length - position < RECORD_OVERHEAD) return -1;
+
+        for (int i = 0; i < RECORD_MARKER.length; i++)
+        {
+            if (bytes[position + i] != RECORD_MARKER[i]) return -1;
+        }
+
+        int payloadPosition = position + RECORD_MARKER.length + 2;
+        int payloadLength = ((bytes[payloadPosition - 2] & 0xff) << 8) | (bytes[payloadPosition - 1] & 0xff);
+        int length = RECORD_OVERHEAD + payloadLength;
+        if (bytes.length - position < length) return -1;
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, payloadPosition, payloadLength);
+        int checksumPosition = payloadPosition + payloadLength;
+        int checksum = ((bytes[checksumPosition] & 0xff) << 24) | ((bytes[checksumPosition + 1] & 0xff) << 16) | ((bytes[checksumPosition + 2] & 0xff) << 8) | (bytes[checksumPosition + 3] & 0xff);
+        if (checksum != (int)crc.getValue()) return -1;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, payloadPosition, payloadLength));
+        String datasetId = in.readUTF();
+        String name = in.readUTF();
+        long value = in.readLong();
+
+        Map<String, Long> datasetValues = values.get(datasetId);
+        Map<String, String> datasetSources = sources.get(datasetId);
+        if (datasetValues == null)
+        {
+            datasetValues = new HashMap<String, Long>();
+            values.put(datasetId, datasetValues);
+            datasetSources = new HashMap<String, String>();
+            sources.put(datasetId, datasetSources);
+        }
+        if (datasetValues.containsKey(name))
+        {
+            throw new RuntimeException("Duplicate " + name + " for dataset " + datasetId + " in run manifest files " + datasetSources.get(name) + " and " + manifestFile);
+        }
+        datasetValues.put(name, value);
+        datasetSources.put(name, manifestFile.getPath());
+
+        return length;
+    }
+
+    /**
+     * @return the identifiers of datasets for which there are records
+     */
+    public Set<String> getDatasetIds()
+    {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    /**
+     * Returns the value with the given name for the given dataset.
+     *
+     * @param datasetId the dataset identifier
+     * @param name the name of the value
+     * @return the value or null if there is no record with the given name for the dataset
+     */
+    public Long getValue(String datasetId, String name)
+    {
+        Map<String, Long> datasetValues = values.get(datasetId);
+        return datasetValues == null ? null : datasetValues.get(name);
+    }
+}
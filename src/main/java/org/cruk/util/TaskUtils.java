@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Utility methods for running independent tasks in parallel.
+ */
+public class TaskUtils
+{
+    private TaskUtils()
+    {
+    }
+
+    /**
+     * Runs the given tasks using up to the given number of threads, waiting
+     * for all to complete. Tasks are run in turn on the calling thread if a
+     * single thread is requested or there is only one task.
+     *
+     * Any exception thrown by a task is rethrown, unwrapped where it is an
+     * IOException or unchecked exception.
+     *
+     * @param tasks the tasks to run
+     * @param threads the maximum number of threads
+     * @param name the name given to threads, used when debugging
+     * @return the results of the tasks, in the same order
+     * @throws IOException
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int threads, final String name) throws IOException
+    {
+        List<T> results = new ArrayList<T>();
+
+        if (threads <= 1 || tasks.size() <= 1)
+        {
+            for (Callable<T> task : tasks)
+            {
+                try
+                {
+                    results.add(task.call());
+                }
+                catch (Exception e)
+                {
+                    throw rethrow(e);
+                }
+            }
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try
+        {
+            for (Future<T> future : executor.invokeAll(tasks))
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + name + " tasks to complete", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw rethrow(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static IOException rethrow(Throwable throwable)
+    {
+        if (throwable instanceof IOException) return (IOException)throwable;
+        if (throwable instanceof RuntimeException) throw (RuntimeException)throwable;
+        if (throwable instanceof Error) throw (Error)throwable;
+        throw new RuntimeException(throwable);
+    }
+}
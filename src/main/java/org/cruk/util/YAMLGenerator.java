@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Generator for writing structured data as a YAML document in block style,
+ * with strings always double-quoted so that they are never interpreted as
+ * numbers, booleans or nulls.
+ */
+public class YAMLGenerator extends DataGenerator
+{
+    private static final String[] RESERVED_WORDS = new String[] { "true", "false", "null", "yes", "no", "on", "off", "y", "n" };
+
+    private boolean afterName = false;
+
+    // set when an object or array is started as an item within an array, in
+    // which case its first entry follows the item indicator on the same line
+    private boolean inline = false;
+
+    public YAMLGenerator(Writer out)
+    {
+        super(out);
+    }
+
+    @Override
+    public void startObject() throws IOException
+    {
+        startContainer();
+        push(false);
+    }
+
+    @Override
+    public void endObject() throws IOException
+    {
+        endContainer(pop(false), "{}");
+    }
+
+    @Override
+    public void startArray() throws IOException
+    {
+        startContainer();
+        push(true);
+    }
+
+    @Override
+    public void endArray() throws IOException
+    {
+        endContainer(pop(true), "[]");
+    }
+
+    private void startContainer() throws IOException
+    {
+        if (depth == 0)
+        {
+            out.write("---");
+        }
+        else if (afterName)
+        {
+            afterName = false;
+        }
+        else
+        {
+            startItem();
+            inline = true;
+        }
+    }
+
+    private void endContainer(int count, String empty) throws IOException
+    {
+        if (count == 0)
+        {
+            if (!inline) out.write(' ');
+            out.write(empty);
+        }
+        inline = false;
+        if (depth == 0) out.write('\n');
+    }
+
+    @Override
+    public void name(String name) throws IOException
+    {
+        if (depth == 0 || inArray() || afterName)
+        {
+            throw new IllegalStateException("Name " + name + " not expected");
+        }
+        counts[depth - 1]++;
+        newLine();
+        if (isPlain(name))
+        {
+            out.write(name);
+        }
+        else
+        {
+            writeQuoted(name);
+        }
+        out.write(':');
+        afterName = true;
+    }
+
+    @Override
+    protected void beforeValue() throws IOException
+    {
+        if (afterName)
+        {
+            afterName = false;
+            out.write(' ');
+        }
+        else if (inArray())
+        {
+            startItem();
+        }
+        else if (depth > 0)
+        {
+            throw new IllegalStateException("Value within object must be preceded by a name");
+        }
+        else
+        {
+            out.write("--- ");
+        }
+    }
+
+    /**
+     * Writes the indicator for a new item within the current array.
+     *
+     * @throws IOException
+     */
+    private void startItem() throws IOException
+    {
+        if (!inArray())
+        {
+            throw new IllegalStateException("Value within object must be preceded by a name");
+        }
+        counts[depth - 1]++;
+        newLine();
+        out.write("- ");
+    }
+
+    /**
+     * Starts a new line indented for the current container unless this is
+     * the first entry of an array item.
+     *
+     * @throws IOException
+     */
+    private void newLine() throws IOException
+    {
+        if (inline)
+        {
+            inline = false;
+        }
+        else
+        {
+            out.write('\n');
+            indent(depth - 1);
+        }
+    }
+
+    /**
+     * Returns whether the given name can be written as a plain, unquoted
+     * scalar, i.e. consists only of letters, digits, underscores, hyphens
+     * and inner spaces, starts with a letter or underscore and is not a word
+     * that would be read as a boolean or null.
+     *
+     * @param name the name
+     * @return
+     */
+    private boolean isPlain(String name)
+    {
+        int length = name.length();
+        if (length == 0) return false;
+        char first = name.charAt(0);
+        if (!Character.isLetter(first) && first != '_') return false;
+        if (name.charAt(length - 1) == ' ') return false;
+        for (int i = 1; i < length; i++)
+        {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != ' ') return false;
+        }
+        for (String word : RESERVED_WORDS)
+        {
+            if (word.equalsIgnoreCase(name)) return false;
+        }
+        return true;
+    }
+}
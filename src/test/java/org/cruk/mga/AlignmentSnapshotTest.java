@@ -0,0 +1,339 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the aggregated alignments saved in an alignment snapshot are
+ * read back unchanged, regardless of how the datasets are partitioned when
+ * writing and reading the snapshot.
+ */
+public class AlignmentSnapshotTest
+{
+    private static final List<String> DATASET_IDS = Arrays.asList("D1", "D2", "D3", "\u00c9chantillon 4", "D5");
+    private static final int[] SAMPLED_COUNTS = { 300, 120, 0, 450, 200 };
+    private static final List<String> REFERENCE_GENOME_IDS = Arrays.asList("hsapiens", "mmusculus", "ecoli", "phix");
+
+    private static final IdDictionary REFERENCE_GENOMES = new IdDictionary(REFERENCE_GENOME_IDS);
+
+    private File directory;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("mga").toFile();
+        snapshotFile = new File(directory, "R.snapshot");
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException
+    {
+        testWriteAndRead(new int[][] { { 0, 5 } }, new int[][] { { 0, 5 } });
+    }
+
+    @Test
+    public void testWriteAndReadPartitions() throws IOException
+    {
+        testWriteAndRead(new int[][] { { 0, 2 }, { 2, 5 } }, new int[][] { { 0, 2 }, { 2, 5 } });
+    }
+
+    @Test
+    public void testReadWithDifferentPartitions() throws IOException
+    {
+        testWriteAndRead(new int[][] { { 0, 2 }, { 2, 5 } }, new int[][] { { 0, 1 }, { 1, 4 }, { 4, 5 } });
+        testWriteAndRead(new int[][] { { 0, 5 } }, new int[][] { { 0, 3 }, { 3, 5 } });
+        testWriteAndRead(new int[][] { { 0, 1 }, { 1, 2 }, { 2, 3 }, { 3, 4 }, { 4, 5 } }, new int[][] { { 0, 5 } });
+    }
+
+    @Test
+    public void testNoAlignments() throws IOException
+    {
+        AlignmentAggregator aggregator = createAggregator(REFERENCE_GENOMES);
+        aggregator.aggregate(1);
+        try (AlignmentSnapshotWriter writer = new AlignmentSnapshotWriter(new FileOutputStream(snapshotFile), createDatasetSummaries(), REFERENCE_GENOMES, 1))
+        {
+            writer.writePartition(aggregator);
+        }
+
+        AlignmentAggregator actual = createAggregator(REFERENCE_GENOMES);
+        new AlignmentSnapshotReader(snapshotFile).merge(actual);
+        for (int datasetIndex = 0; datasetIndex < DATASET_IDS.size(); datasetIndex++)
+        {
+            for (int sequenceId = 1; sequenceId <= SAMPLED_COUNTS[datasetIndex]; sequenceId++)
+            {
+                assertFalse(actual.isAligned(datasetIndex, sequenceId));
+            }
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMissingPartition() throws IOException
+    {
+        // header only, missing the partition
+        new AlignmentSnapshotWriter(new FileOutputStream(snapshotFile), createDatasetSummaries(), REFERENCE_GENOMES, 1).close();
+        new AlignmentSnapshotReader(snapshotFile).merge(createAggregator(REFERENCE_GENOMES));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncatedPartition() throws IOException
+    {
+        writeSnapshot(writeAlignmentFiles(1, 6L), new int[][] { { 0, 5 } });
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw"))
+        {
+            file.setLength(file.length() - 100);
+        }
+        new AlignmentSnapshotReader(snapshotFile).merge(createAggregator(REFERENCE_GENOMES));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncatedHeader() throws IOException
+    {
+        writeSnapshot(writeAlignmentFiles(1, 7L), new int[][] { { 0, 5 } });
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw"))
+        {
+            file.setLength(20);
+        }
+        new AlignmentSnapshotReader(snapshotFile);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnrecognizedFormat() throws IOException
+    {
+        try (OutputStream outputStream = new FileOutputStream(snapshotFile))
+        {
+            outputStream.write(new byte[] { 'M', 'G', 'A', 'S', 0, 0, 0, 1 });
+        }
+        new AlignmentSnapshotReader(snapshotFile);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnexpectedDataset() throws IOException
+    {
+        writeSnapshot(writeAlignmentFiles(1, 8L), new int[][] { { 0, 5 } });
+
+        // an aggregator for a run without the last dataset
+        AlignmentAggregator actual = new AlignmentAggregator(new IdDictionary(DATASET_IDS.subList(0, 4)), SAMPLED_COUNTS, REFERENCE_GENOMES);
+        new AlignmentSnapshotReader(snapshotFile).merge(actual);
+    }
+
+    /**
+     * Writes a snapshot, aggregating the alignments for each of the given
+     * partitions of the datasets in turn, and reads it back for each of a
+     * different set of partitions, checking that the best alignments and
+     * totals match those from aggregating all the alignments at once.
+     *
+     * @param writePartitions the dataset index ranges for which alignments are aggregated when writing
+     * @param readPartitions the dataset index ranges for which alignments are merged when reading
+     * @throws IOException
+     */
+    private void testWriteAndRead(int[][] writePartitions, int[][] readPartitions) throws IOException
+    {
+        List<String> alignmentFiles = writeAlignmentFiles(2, 5L);
+
+        AlignmentAggregator expected = createAggregator(REFERENCE_GENOMES);
+        addAlignmentFiles(expected, alignmentFiles);
+        expected.aggregate(2);
+
+        MultiGenomeAlignmentSummary[] datasetSummaries = writeSnapshot(alignmentFiles, writePartitions);
+
+        AlignmentSnapshotReader reader = new AlignmentSnapshotReader(snapshotFile);
+
+        assertEquals(REFERENCE_GENOME_IDS, reader.getReferenceGenomeIds());
+        List<MultiGenomeAlignmentSummary> readSummaries = reader.getMultiGenomeAlignmentSummaries();
+        assertEquals(datasetSummaries.length, readSummaries.size());
+        for (int i = 0; i < datasetSummaries.length; i++)
+        {
+            assertEquals(datasetSummaries[i].getDatasetId(), readSummaries.get(i).getDatasetId());
+            assertEquals(datasetSummaries[i].getSequenceCount(), readSummaries.get(i).getSequenceCount());
+            assertEquals(datasetSummaries[i].getSampledCount(), readSummaries.get(i).getSampledCount());
+            assertEquals(datasetSummaries[i].getAdapterCount(), readSummaries.get(i).getAdapterCount());
+        }
+
+        IdDictionary referenceGenomes = new IdDictionary(reader.getReferenceGenomeIds());
+        AlignmentAggregator actual = createAggregator(referenceGenomes);
+        for (int[] partition : readPartitions)
+        {
+            actual.setDatasetRange(partition[0], partition[1]);
+            reader.merge(actual);
+            assertSameAlignments(expected, actual, referenceGenomes, partition[0], partition[1]);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the alignments in the given files, aggregated
+     * for each of the given partitions of the datasets in turn.
+     */
+    private MultiGenomeAlignmentSummary[] writeSnapshot(List<String> alignmentFiles, int[][] partitions) throws IOException
+    {
+        MultiGenomeAlignmentSummary[] datasetSummaries = createDatasetSummaries();
+        AlignmentAggregator aggregator = createAggregator(REFERENCE_GENOMES);
+        addAlignmentFiles(aggregator, alignmentFiles);
+        try (AlignmentSnapshotWriter writer = new AlignmentSnapshotWriter(new FileOutputStream(snapshotFile), datasetSummaries, REFERENCE_GENOMES, partitions.length))
+        {
+            for (int[] partition : partitions)
+            {
+                aggregator.setDatasetRange(partition[0], partition[1]);
+                aggregator.aggregate(2);
+                writer.writePartition(aggregator);
+            }
+        }
+        return datasetSummaries;
+    }
+
+    /**
+     * Writes alignment files in the compact binary format for each chunk of
+     * sequences and reference genome, assigning sequence identifiers to
+     * chunks in turn.
+     */
+    private List<String> writeAlignmentFiles(int chunkCount, long seed) throws IOException
+    {
+        List<String> files = new ArrayList<String>();
+        Random random = new Random(seed);
+        for (int chunk = 0; chunk < chunkCount; chunk++)
+        {
+            for (String referenceGenomeId : REFERENCE_GENOME_IDS)
+            {
+                File file = new File(directory, "R." + (chunk + 1) + "." + referenceGenomeId + AlignmentAggregator.ALIGNMENT_FILE_SUFFIX + BinaryAlignmentWriter.FILE_EXTENSION);
+                try (BinaryAlignmentWriter writer = new BinaryAlignmentWriter(new FileOutputStream(file)))
+                {
+                    for (int d = 0; d < DATASET_IDS.size(); d++)
+                    {
+                        writer.setDatasetId(DATASET_IDS.get(d));
+                        for (int sequenceId = chunk + 1; sequenceId <= SAMPLED_COUNTS[d]; sequenceId += chunkCount)
+                        {
+                            int alignmentCount = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(2);
+                            for (int i = 0; i < alignmentCount; i++)
+                            {
+                                writer.write(sequenceId, 30 + random.nextInt(20), random.nextInt(4));
+                            }
+                        }
+                    }
+                }
+                files.add(file.getPath());
+            }
+        }
+        return files;
+    }
+
+    private static void addAlignmentFiles(AlignmentAggregator aggregator, List<String> files)
+    {
+        for (int i = 0; i < files.size(); i++)
+        {
+            String chunk = Integer.toString(i / REFERENCE_GENOME_IDS.size() + 1);
+            aggregator.addAlignmentFile(files.get(i), REFERENCE_GENOMES.getCode(REFERENCE_GENOME_IDS.get(i % REFERENCE_GENOME_IDS.size())), chunk);
+        }
+    }
+
+    private static AlignmentAggregator createAggregator(IdDictionary referenceGenomes)
+    {
+        return new AlignmentAggregator(new IdDictionary(DATASET_IDS), SAMPLED_COUNTS, referenceGenomes);
+    }
+
+    private static MultiGenomeAlignmentSummary[] createDatasetSummaries()
+    {
+        MultiGenomeAlignmentSummary[] datasetSummaries = new MultiGenomeAlignmentSummary[DATASET_IDS.size()];
+        for (int i = 0; i < datasetSummaries.length; i++)
+        {
+            datasetSummaries[i] = new MultiGenomeAlignmentSummary();
+            datasetSummaries[i].setDatasetId(DATASET_IDS.get(i));
+            datasetSummaries[i].setSequenceCount(1000000000L * (i + 1) + i);
+            datasetSummaries[i].setSampledCount(SAMPLED_COUNTS[i]);
+            datasetSummaries[i].setAdapterCount(7 * i);
+        }
+        return datasetSummaries;
+    }
+
+    /**
+     * Checks that two aggregators hold the same best alignments and totals
+     * for the datasets in the given range, mapping reference genomes by
+     * identifier where these are indexed differently.
+     */
+    private static void assertSameAlignments(AlignmentAggregator expected, AlignmentAggregator actual,
+            IdDictionary actualReferenceGenomes, int start, int end)
+    {
+        for (int datasetIndex = start; datasetIndex < end; datasetIndex++)
+        {
+            String datasetId = DATASET_IDS.get(datasetIndex);
+            for (int sequenceId = 1; sequenceId <= SAMPLED_COUNTS[datasetIndex]; sequenceId++)
+            {
+                String sequence = datasetId + "_" + sequenceId;
+                boolean aligned = expected.isAligned(datasetIndex, sequenceId);
+                assertEquals(sequence, aligned, actual.isAligned(datasetIndex, sequenceId));
+                if (!aligned) continue;
+                assertEquals(sequence, expected.getBestMismatchCount(datasetIndex, sequenceId), actual.getBestMismatchCount(datasetIndex, sequenceId));
+                assertEquals(sequence, expected.getAlignedLength(datasetIndex, sequenceId), actual.getAlignedLength(datasetIndex, sequenceId));
+                for (String referenceGenomeId : REFERENCE_GENOME_IDS)
+                {
+                    assertEquals(sequence + " " + referenceGenomeId,
+                            isBestAligned(expected, REFERENCE_GENOMES.getCode(referenceGenomeId), datasetIndex, sequenceId),
+                            isBestAligned(actual, actualReferenceGenomes.getCode(referenceGenomeId), datasetIndex, sequenceId));
+                }
+            }
+
+            for (String referenceGenomeId : REFERENCE_GENOME_IDS)
+            {
+                for (int metric = 0; metric < AlignmentSummaryMatrix.METRIC_COUNT; metric++)
+                {
+                    assertEquals(datasetId + " " + referenceGenomeId + " metric " + metric,
+                            expected.getTotals().get(datasetIndex, REFERENCE_GENOMES.getCode(referenceGenomeId), metric),
+                            actual.getTotals().get(datasetIndex, actualReferenceGenomes.getCode(referenceGenomeId), metric));
+                }
+            }
+        }
+    }
+
+    private static boolean isBestAligned(AlignmentAggregator aggregator, int referenceGenomeIndex, int datasetIndex, int sequenceId)
+    {
+        return (aggregator.getBestGenomeMask(datasetIndex, sequenceId, referenceGenomeIndex >>> 6) & (1L << referenceGenomeIndex)) != 0;
+    }
+}
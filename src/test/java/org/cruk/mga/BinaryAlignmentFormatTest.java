@@ -0,0 +1,237 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for the compact binary alignment format written by
+ * {@link BinaryAlignmentWriter} and read by {@link BinaryAlignmentParser}.
+ */
+public class BinaryAlignmentFormatTest
+{
+    private static final String[] DATASET_IDS = { "D1", "SLX-1234.i701", "\u00c9chantillon 3" };
+
+    @Test
+    public void testWriteAndRead() throws IOException
+    {
+        // interleave datasets and use values spanning several varint bytes,
+        // writing enough records to fill the write and read buffers several
+        // times over
+        int recordCount = 50000;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BinaryAlignmentWriter writer = new BinaryAlignmentWriter(outputStream);
+        for (int i = 0; i < recordCount; i++)
+        {
+            writer.setDatasetId(getDatasetId(i));
+            writer.write(getSequenceId(i), getAlignedLength(i), getMismatchCount(i));
+        }
+        writer.close();
+
+        BinaryAlignmentParser parser = new BinaryAlignmentParser(new ByteArrayInputStream(outputStream.toByteArray()), "test");
+        for (int i = 0; i < recordCount; i++)
+        {
+            assertTrue(parser.next());
+            assertEquals(i % 7 == 0, parser.isNewDataset());
+            assertEquals(getDatasetId(i), parser.getDatasetId());
+            assertEquals(getSequenceId(i), parser.getSequenceId());
+            assertEquals(getAlignedLength(i), parser.getAlignedLength());
+            assertEquals(getMismatchCount(i), parser.getMismatchCount());
+            assertEquals(i + 1, parser.getLineNumber());
+        }
+        assertFalse(parser.next());
+        parser.close();
+    }
+
+    @Test
+    public void testNonAsciiDatasetIds() throws IOException
+    {
+        // dataset ids are written as UTF-8 within read names when sampling
+        String datasetId1 = "\u00c9chantillon";
+        String datasetId2 = "D\u00e9j\u00e0 vu \u4e00";
+        String alignments =
+            datasetId1 + "_1\t+\thsapiens\t100\tACGTACGTAC\tIIIIIIIIII\t0\t\n" +
+            datasetId1 + "_2\t-\thsapiens\t200\tACGTACGT\tIIIIIIII\t0\t3:A>C,5:G>T\n" +
+            datasetId2 + "_3\t+\tmmusculus\t300\tACGTAC\tIIIIII\t0\t\n";
+
+        IdDictionary datasets = new IdDictionary(Arrays.asList(datasetId2, datasetId1));
+
+        BowtieAlignmentParser bowtieParser = new BowtieAlignmentParser(new ByteArrayInputStream(alignments.getBytes("UTF-8")), "test");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BinaryAlignmentWriter writer = new BinaryAlignmentWriter(outputStream);
+        while (bowtieParser.next())
+        {
+            if (bowtieParser.isNewDataset()) writer.setDatasetId(bowtieParser.getDatasetId());
+            writer.write(bowtieParser.getSequenceId(), bowtieParser.getAlignedLength(), bowtieParser.getMismatchCount());
+        }
+        bowtieParser.close();
+        writer.close();
+
+        String[] expectedDatasetIds = { datasetId1, datasetId1, datasetId2 };
+        int[] expectedAlignedLengths = { 10, 8, 6 };
+        int[] expectedMismatchCounts = { 0, 2, 0 };
+
+        AlignmentParser[] parsers = {
+            new BowtieAlignmentParser(new ByteArrayInputStream(alignments.getBytes("UTF-8")), "test"),
+            new BinaryAlignmentParser(new ByteArrayInputStream(outputStream.toByteArray()), "test")
+        };
+        for (AlignmentParser parser : parsers)
+        {
+            for (int i = 0; i < expectedDatasetIds.length; i++)
+            {
+                assertTrue(parser.next());
+                assertEquals(expectedDatasetIds[i], parser.getDatasetId());
+                assertEquals(datasets.getCode(expectedDatasetIds[i]), parser.getDatasetCode(datasets));
+                assertEquals(i + 1, parser.getSequenceId());
+                assertEquals(expectedAlignedLengths[i], parser.getAlignedLength());
+                assertEquals(expectedMismatchCounts[i], parser.getMismatchCount());
+            }
+            assertFalse(parser.next());
+            parser.close();
+        }
+    }
+
+    @Test
+    public void testNoAlignments() throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new BinaryAlignmentWriter(outputStream).close();
+
+        byte[] bytes = outputStream.toByteArray();
+        assertTrue(BinaryAlignmentWriter.isBinaryAlignmentFormat(new BufferedInputStream(new ByteArrayInputStream(bytes))));
+
+        BinaryAlignmentParser parser = new BinaryAlignmentParser(new ByteArrayInputStream(bytes), "test");
+        assertFalse(parser.next());
+        parser.close();
+    }
+
+    @Test
+    public void testFormatDetection() throws IOException
+    {
+        byte[] bytes = "D1_1\t+\thsapiens\t100\tACGT\tIIII\t0\t\n".getBytes("ISO-8859-1");
+        assertFalse(BinaryAlignmentWriter.isBinaryAlignmentFormat(new BufferedInputStream(new ByteArrayInputStream(bytes))));
+        assertFalse(BinaryAlignmentWriter.isBinaryAlignmentFormat(new BufferedInputStream(new ByteArrayInputStream(new byte[0]))));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnrecognizedFormat() throws IOException
+    {
+        new BinaryAlignmentParser(new ByteArrayInputStream("D1_1\t+\thsapiens\n".getBytes("ISO-8859-1")), "test");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncatedRecord() throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BinaryAlignmentWriter writer = new BinaryAlignmentWriter(outputStream);
+        writer.setDatasetId("D1");
+        writer.write(1000000, 36, 2);
+        writer.close();
+
+        byte[] bytes = outputStream.toByteArray();
+        BinaryAlignmentParser parser = new BinaryAlignmentParser(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 2)), "test");
+        parser.next();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDatasetOrdinalOutOfRange() throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new BinaryAlignmentWriter(outputStream).close();
+        outputStream.write(new byte[] { 3, 1, 36, 0 });
+
+        BinaryAlignmentParser parser = new BinaryAlignmentParser(new ByteArrayInputStream(outputStream.toByteArray()), "test");
+        parser.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void testNegativeDatasetIdLength() throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new BinaryAlignmentWriter(outputStream).close();
+        outputStream.write(new byte[] { 0, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x0f });
+
+        BinaryAlignmentParser parser = new BinaryAlignmentParser(new ByteArrayInputStream(outputStream.toByteArray()), "test");
+        parser.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void testDatasetIdLengthTooLarge() throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new BinaryAlignmentWriter(outputStream).close();
+        outputStream.write(new byte[] { 0, (byte)0xff, (byte)0xff, (byte)0xff, 0x7f });
+
+        BinaryAlignmentParser parser = new BinaryAlignmentParser(new ByteArrayInputStream(outputStream.toByteArray()), "test");
+        parser.next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDatasetIdTooLong() throws IOException
+    {
+        char[] datasetId = new char[BinaryAlignmentWriter.MAX_DATASET_ID_LENGTH + 1];
+        Arrays.fill(datasetId, 'D');
+        BinaryAlignmentWriter writer = new BinaryAlignmentWriter(new ByteArrayOutputStream());
+        writer.setDatasetId(new String(datasetId));
+        writer.write(1, 36, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeValue() throws IOException
+    {
+        BinaryAlignmentWriter writer = new BinaryAlignmentWriter(new ByteArrayOutputStream());
+        writer.setDatasetId("D1");
+        writer.write(1, -1, 0);
+    }
+
+    private static String getDatasetId(int i)
+    {
+        return DATASET_IDS[(i / 7) % DATASET_IDS.length];
+    }
+
+    private static int getSequenceId(int i)
+    {
+        return i * 4099 + 1;
+    }
+
+    private static int getAlignedLength(int i)
+    {
+        return 20 + i % 300;
+    }
+
+    private static int getMismatchCount(int i)
+    {
+        return i % 5;
+    }
+}
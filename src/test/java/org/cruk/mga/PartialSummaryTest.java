@@ -0,0 +1,312 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.mga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that partial alignment summaries written by an
+ * {@link AlignmentAggregator} are merged back to give the same best
+ * alignments and totals as aggregating the alignment files directly.
+ */
+public class PartialSummaryTest
+{
+    private static final List<String> DATASET_IDS = Arrays.asList("D1", "D2", "\u00c9chantillon 3", "D4");
+    private static final int[] SAMPLED_COUNTS = { 300, 120, 0, 450 };
+    private static final List<String> REFERENCE_GENOME_IDS = Arrays.asList("hsapiens", "mmusculus", "ecoli", "phix");
+
+    private static final IdDictionary REFERENCE_GENOMES = new IdDictionary(REFERENCE_GENOME_IDS);
+
+    // the same reference genomes indexed in a different order
+    private static final IdDictionary REORDERED_REFERENCE_GENOMES = new IdDictionary(Arrays.asList("phix", "ecoli", "hsapiens", "mmusculus"));
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("mga").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testWriteAndMergeSummary() throws IOException
+    {
+        List<List<String>> chunkFiles = writeAlignmentFiles(2, 1L);
+        AlignmentAggregator expected = aggregate(chunkFiles);
+
+        AlignmentAggregator actual = createAggregator(REORDERED_REFERENCE_GENOMES, false);
+        actual.addSummaryFile(writeSummary(expected, "R.summary"), "1");
+        actual.aggregate(1);
+
+        assertSameAlignments(expected, REFERENCE_GENOMES, actual, REORDERED_REFERENCE_GENOMES);
+    }
+
+    @Test
+    public void testMergeChunkSummaryFiles() throws IOException
+    {
+        List<List<String>> chunkFiles = writeAlignmentFiles(3, 2L);
+        AlignmentAggregator expected = aggregate(chunkFiles);
+
+        // summarize each chunk separately, as when running the pipeline,
+        // and aggregate the partial summary files in parallel
+        AlignmentAggregator actual = createAggregator(REORDERED_REFERENCE_GENOMES, false);
+        for (int chunk = 0; chunk < chunkFiles.size(); chunk++)
+        {
+            AlignmentAggregator chunkAggregator = createAggregator(REFERENCE_GENOMES, true);
+            addAlignmentFiles(chunkAggregator, chunkFiles.get(chunk), chunk);
+            chunkAggregator.aggregate(1);
+            actual.addSummaryFile(writeSummary(chunkAggregator, "R." + (chunk + 1) + AlignmentAggregator.SUMMARY_FILE_SUFFIX), Integer.toString(chunk + 1));
+        }
+        actual.aggregate(2);
+
+        assertSameAlignments(expected, REFERENCE_GENOMES, actual, REORDERED_REFERENCE_GENOMES);
+    }
+
+    @Test
+    public void testEmptySummary() throws IOException
+    {
+        AlignmentAggregator empty = createAggregator(REFERENCE_GENOMES, true);
+        empty.aggregate(1);
+
+        AlignmentAggregator actual = createAggregator(REFERENCE_GENOMES, false);
+        actual.addSummaryFile(writeSummary(empty, "R.summary"), "1");
+        actual.aggregate(1);
+
+        for (int datasetIndex = 0; datasetIndex < DATASET_IDS.size(); datasetIndex++)
+        {
+            for (int sequenceId = 1; sequenceId <= SAMPLED_COUNTS[datasetIndex]; sequenceId++)
+            {
+                assertFalse(actual.isAligned(datasetIndex, sequenceId));
+            }
+            for (int referenceGenomeIndex = 0; referenceGenomeIndex < REFERENCE_GENOMES.size(); referenceGenomeIndex++)
+            {
+                assertEquals(0L, actual.getTotals().get(datasetIndex, referenceGenomeIndex, AlignmentSummaryMatrix.ALIGNED_COUNT));
+            }
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncatedSummary() throws IOException
+    {
+        String summaryFile = writeSummary(aggregate(writeAlignmentFiles(1, 4L)), "R.summary");
+        try (RandomAccessFile file = new RandomAccessFile(summaryFile, "rw"))
+        {
+            file.setLength(file.length() / 2);
+        }
+
+        AlignmentAggregator actual = createAggregator(REFERENCE_GENOMES, false);
+        actual.addSummaryFile(summaryFile, "1");
+        actual.aggregate(1);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnrecognizedSummaryFormat() throws IOException
+    {
+        File summaryFile = new File(directory, "R.summary");
+        try (OutputStream outputStream = new FileOutputStream(summaryFile))
+        {
+            outputStream.write(new byte[] { 'M', 'G', 'A', 'B', 0, 0, 0, 1 });
+        }
+
+        AlignmentAggregator actual = createAggregator(REFERENCE_GENOMES, false);
+        actual.addSummaryFile(summaryFile.getPath(), "1");
+        actual.aggregate(1);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnexpectedReferenceGenome() throws IOException
+    {
+        String summaryFile = writeSummary(aggregate(writeAlignmentFiles(1, 5L)), "R.summary");
+
+        AlignmentAggregator actual = createAggregator(new IdDictionary(REFERENCE_GENOME_IDS.subList(0, 3)), false);
+        actual.addSummaryFile(summaryFile, "1");
+        actual.aggregate(1);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnexpectedDataset() throws IOException
+    {
+        String summaryFile = writeSummary(aggregate(writeAlignmentFiles(1, 6L)), "R.summary");
+
+        AlignmentAggregator actual = new AlignmentAggregator(new IdDictionary(DATASET_IDS.subList(0, 3)), SAMPLED_COUNTS, REFERENCE_GENOMES);
+        actual.addSummaryFile(summaryFile, "1");
+        actual.aggregate(1);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testSequenceIdOutOfRange() throws IOException
+    {
+        String summaryFile = writeSummary(aggregate(writeAlignmentFiles(1, 7L)), "R.summary");
+
+        // fewer sampled sequences than those aligned in the summary
+        int[] sampledCounts = SAMPLED_COUNTS.clone();
+        sampledCounts[0] = 100;
+        AlignmentAggregator actual = new AlignmentAggregator(new IdDictionary(DATASET_IDS), sampledCounts, REFERENCE_GENOMES);
+        actual.addSummaryFile(summaryFile, "1");
+        actual.aggregate(1);
+    }
+
+    /**
+     * Writes alignment files in the compact binary format for each chunk of
+     * sequences and reference genome, assigning sequence identifiers to
+     * chunks in turn.
+     */
+    private List<List<String>> writeAlignmentFiles(int chunkCount, long seed) throws IOException
+    {
+        List<List<String>> chunkFiles = new ArrayList<List<String>>();
+        Random random = new Random(seed);
+        for (int chunk = 0; chunk < chunkCount; chunk++)
+        {
+            List<String> files = new ArrayList<String>();
+            for (String referenceGenomeId : REFERENCE_GENOME_IDS)
+            {
+                File file = new File(directory, "R." + (chunk + 1) + "." + referenceGenomeId + AlignmentAggregator.ALIGNMENT_FILE_SUFFIX + BinaryAlignmentWriter.FILE_EXTENSION);
+                try (BinaryAlignmentWriter writer = new BinaryAlignmentWriter(new FileOutputStream(file)))
+                {
+                    for (int d = 0; d < DATASET_IDS.size(); d++)
+                    {
+                        writer.setDatasetId(DATASET_IDS.get(d));
+                        for (int sequenceId = chunk + 1; sequenceId <= SAMPLED_COUNTS[d]; sequenceId += chunkCount)
+                        {
+                            // bowtie reports several alignments for some sequences
+                            int alignmentCount = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(2);
+                            for (int i = 0; i < alignmentCount; i++)
+                            {
+                                writer.write(sequenceId, 30 + random.nextInt(20), random.nextInt(4));
+                            }
+                        }
+                    }
+                }
+                files.add(file.getPath());
+            }
+            chunkFiles.add(files);
+        }
+        return chunkFiles;
+    }
+
+    private static void addAlignmentFiles(AlignmentAggregator aggregator, List<String> files, int chunk)
+    {
+        for (int i = 0; i < files.size(); i++)
+        {
+            aggregator.addAlignmentFile(files.get(i), REFERENCE_GENOMES.getCode(REFERENCE_GENOME_IDS.get(i)), Integer.toString(chunk + 1));
+        }
+    }
+
+    private static AlignmentAggregator aggregate(List<List<String>> chunkFiles) throws IOException
+    {
+        AlignmentAggregator aggregator = createAggregator(REFERENCE_GENOMES, false);
+        for (int chunk = 0; chunk < chunkFiles.size(); chunk++)
+        {
+            addAlignmentFiles(aggregator, chunkFiles.get(chunk), chunk);
+        }
+        aggregator.aggregate(1);
+        return aggregator;
+    }
+
+    private static AlignmentAggregator createAggregator(IdDictionary referenceGenomes, boolean allocateOnDemand)
+    {
+        return new AlignmentAggregator(new IdDictionary(DATASET_IDS), SAMPLED_COUNTS, referenceGenomes, allocateOnDemand);
+    }
+
+    private String writeSummary(AlignmentAggregator aggregator, String fileName) throws IOException
+    {
+        File summaryFile = new File(directory, fileName);
+        try (OutputStream outputStream = new FileOutputStream(summaryFile))
+        {
+            aggregator.writeSummary(outputStream);
+        }
+        return summaryFile.getPath();
+    }
+
+    /**
+     * Checks that two aggregators hold the same best alignments and totals,
+     * mapping reference genomes by identifier where these are indexed
+     * differently.
+     */
+    private static void assertSameAlignments(AlignmentAggregator expected, IdDictionary expectedReferenceGenomes,
+            AlignmentAggregator actual, IdDictionary actualReferenceGenomes)
+    {
+        for (int datasetIndex = 0; datasetIndex < DATASET_IDS.size(); datasetIndex++)
+        {
+            String datasetId = DATASET_IDS.get(datasetIndex);
+            for (int sequenceId = 1; sequenceId <= SAMPLED_COUNTS[datasetIndex]; sequenceId++)
+            {
+                String sequence = datasetId + "_" + sequenceId;
+                boolean aligned = expected.isAligned(datasetIndex, sequenceId);
+                assertEquals(sequence, aligned, actual.isAligned(datasetIndex, sequenceId));
+                if (!aligned) continue;
+                assertEquals(sequence, expected.getBestMismatchCount(datasetIndex, sequenceId), actual.getBestMismatchCount(datasetIndex, sequenceId));
+                assertEquals(sequence, expected.getAlignedLength(datasetIndex, sequenceId), actual.getAlignedLength(datasetIndex, sequenceId));
+                for (String referenceGenomeId : REFERENCE_GENOME_IDS)
+                {
+                    assertEquals(sequence + " " + referenceGenomeId,
+                            isBestAligned(expected, expectedReferenceGenomes.getCode(referenceGenomeId), datasetIndex, sequenceId),
+                            isBestAligned(actual, actualReferenceGenomes.getCode(referenceGenomeId), datasetIndex, sequenceId));
+                }
+            }
+
+            for (String referenceGenomeId : REFERENCE_GENOME_IDS)
+            {
+                for (int metric = 0; metric < AlignmentSummaryMatrix.METRIC_COUNT; metric++)
+                {
+                    assertEquals(datasetId + " " + referenceGenomeId + " metric " + metric,
+                            expected.getTotals().get(datasetIndex, expectedReferenceGenomes.getCode(referenceGenomeId), metric),
+                            actual.getTotals().get(datasetIndex, actualReferenceGenomes.getCode(referenceGenomeId), metric));
+                }
+            }
+        }
+    }
+
+    private static boolean isBestAligned(AlignmentAggregator aggregator, int referenceGenomeIndex, int datasetIndex, int sequenceId)
+    {
+        return (aggregator.getBestGenomeMask(datasetIndex, sequenceId, referenceGenomeIndex >>> 6) & (1L << referenceGenomeIndex)) != 0;
+    }
+}
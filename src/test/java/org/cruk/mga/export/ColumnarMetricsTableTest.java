@@ -0,0 +1,200 @@
+package org.cruk.mga.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.cruk.util.CompressionUtils;
+import org.junit.Test;
+
+/**
+ * Tests that metrics tables written in the columnar format are read back
+ * unchanged.
+ */
+public class ColumnarMetricsTableTest
+{
+    private static final String[] COLUMN_NAMES = { "DatasetId", "ReferenceGenomeId", "Code", "AlignedCount", "ErrorRate" };
+
+    private static final byte[] COLUMN_TYPES = {
+        ColumnarMetricsTable.STRING_TYPE, ColumnarMetricsTable.STRING_TYPE, ColumnarMetricsTable.STRING_TYPE,
+        ColumnarMetricsTable.LONG_TYPE, ColumnarMetricsTable.FLOAT_TYPE
+    };
+
+    @Test
+    public void testWriteAndReadCompressed() throws IOException
+    {
+        testWriteAndRead(true);
+    }
+
+    @Test
+    public void testWriteAndReadUncompressed() throws IOException
+    {
+        testWriteAndRead(false);
+    }
+
+    @Test
+    public void testEmptyTable() throws IOException
+    {
+        File file = File.createTempFile("mga", ".metrics.mgat");
+        try
+        {
+            write(new ColumnarMetricsTable(COLUMN_NAMES, COLUMN_TYPES), file, true);
+            ColumnarMetricsTable table = ColumnarMetricsTable.read(file);
+            assertEquals(0, table.getRowCount());
+            assertArrayEquals(COLUMN_NAMES, table.getColumnNames());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnrecognizedFormat() throws IOException
+    {
+        File file = File.createTempFile("mga", ".metrics.mgat");
+        try
+        {
+            Files.write(file.toPath(), "RunId\tDatasetId\n".getBytes("UTF-8"));
+            ColumnarMetricsTable.read(file);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTruncatedCompressedFile() throws IOException
+    {
+        testTruncatedFile(true);
+    }
+
+    @Test
+    public void testTruncatedUncompressedFile() throws IOException
+    {
+        testTruncatedFile(false);
+    }
+
+    private void testTruncatedFile(boolean compress) throws IOException
+    {
+        ColumnarMetricsTable table = new ColumnarMetricsTable(COLUMN_NAMES, COLUMN_TYPES);
+        for (int row = 0; row < 1000; row++)
+        {
+            table.add(0, getDatasetId(row));
+            table.add(1, getReferenceGenomeId(row));
+            table.add(2, getCode(row));
+            table.add(3, getAlignedCount(row));
+            table.add(4, getErrorRate(row));
+            table.endRow();
+        }
+
+        File file = File.createTempFile("mga", ".metrics.mgat");
+        try
+        {
+            write(table, file, compress);
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+            try
+            {
+                ColumnarMetricsTable.read(file);
+                fail("Expected an error reading a truncated metrics table");
+            }
+            catch (RuntimeException e)
+            {
+                assertTrue(e.getMessage(), e.getMessage().contains(file.getPath()));
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes and reads a table with enough rows to grow each column and with
+     * string columns having few, several hundred and more than 65536 distinct
+     * values, so that each width of dictionary code is used.
+     *
+     * @param compress whether to compress the table
+     * @throws IOException
+     */
+    private void testWriteAndRead(boolean compress) throws IOException
+    {
+        int rowCount = 70000;
+        ColumnarMetricsTable table = new ColumnarMetricsTable(COLUMN_NAMES, COLUMN_TYPES);
+        for (int row = 0; row < rowCount; row++)
+        {
+            table.add(0, getDatasetId(row));
+            table.add(1, getReferenceGenomeId(row));
+            table.add(2, getCode(row));
+            table.add(3, getAlignedCount(row));
+            table.add(4, getErrorRate(row));
+            table.endRow();
+        }
+
+        File file = File.createTempFile("mga", ".metrics.mgat");
+        try
+        {
+            write(table, file, compress);
+            ColumnarMetricsTable read = ColumnarMetricsTable.read(file);
+
+            assertEquals(rowCount, read.getRowCount());
+            assertArrayEquals(COLUMN_NAMES, read.getColumnNames());
+            assertEquals(3, read.getColumnIndex("AlignedCount"));
+            assertEquals(-1, read.getColumnIndex("Unknown"));
+            for (int row = 0; row < rowCount; row++)
+            {
+                assertEquals(getDatasetId(row), read.getString(0, row));
+                assertEquals(getReferenceGenomeId(row), read.getString(1, row));
+                assertEquals(getCode(row), read.getString(2, row));
+                assertEquals(getAlignedCount(row), read.getLong(3, row));
+                assertEquals(getErrorRate(row), read.getFloat(4, row), 0.0);
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static void write(ColumnarMetricsTable table, File file, boolean compress) throws IOException
+    {
+        try (OutputStream outputStream = CompressionUtils.openOutputStream(file, compress))
+        {
+            table.write(outputStream);
+        }
+    }
+
+    private static String getDatasetId(int row)
+    {
+        return "D" + (row / 4) % 500;
+    }
+
+    private static String getReferenceGenomeId(int row)
+    {
+        return row % 4 == 0 ? "" : "genome" + row % 4;
+    }
+
+    private static String getCode(int row)
+    {
+        return "Code \u00e9" + row;
+    }
+
+    private static long getAlignedCount(int row)
+    {
+        return row % 3 == 0 ? Long.MAX_VALUE - row : row * 1000003L;
+    }
+
+    private static float getErrorRate(int row)
+    {
+        return row / 70000.0f;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Cancer Research UK Cambridge Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.cruk.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * Tests that values written to run manifest files are read back unchanged
+ * and that incomplete, corrupt or duplicate records are reported as errors.
+ */
+public class RunManifestTest
+{
+    @Test
+    public void testWriteAndRead() throws IOException
+    {
+        File directory = Files.createTempDirectory("mga").toFile();
+        try
+        {
+            String[] datasetIds = { "D1", "D2", "Sample \u00e9 10" };
+            long[] sequenceCounts = { 0L, 123456789012L, Long.MAX_VALUE };
+            long[] sampledCounts = { 0L, 100000L, -1L };
+
+            RunManifest manifest = new RunManifest();
+            for (int i = 0; i < datasetIds.length; i++)
+            {
+                File countFile = new File(directory, "R." + i + ".count" + RunManifest.FILE_EXTENSION);
+                File sampledFile = new File(directory, "R." + i + ".sampled" + RunManifest.FILE_EXTENSION);
+                RunManifest.write(countFile, datasetIds[i], RunManifest.SEQUENCE_COUNT, sequenceCounts[i]);
+                RunManifest.write(sampledFile, datasetIds[i], RunManifest.SAMPLED_COUNT, sampledCounts[i]);
+                manifest.read(countFile);
+                manifest.read(sampledFile);
+            }
+
+            assertEquals(new HashSet<String>(Arrays.asList(datasetIds)), manifest.getDatasetIds());
+            for (int i = 0; i < datasetIds.length; i++)
+            {
+                assertEquals(Long.valueOf(sequenceCounts[i]), manifest.getValue(datasetIds[i], RunManifest.SEQUENCE_COUNT));
+                assertEquals(Long.valueOf(sampledCounts[i]), manifest.getValue(datasetIds[i], RunManifest.SAMPLED_COUNT));
+            }
+            assertNull(manifest.getValue("D1", "Unknown"));
+            assertNull(manifest.getValue("D4", RunManifest.SEQUENCE_COUNT));
+
+            // no temporary files are left behind
+            for (File file : directory.listFiles())
+            {
+                assertFalse(file.getName().endsWith(CommandLineUtility.TEMPORARY_FILE_EXTENSION));
+            }
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testRewriteReplacesValue() throws IOException
+    {
+        File directory = Files.createTempDirectory("mga").toFile();
+        try
+        {
+            File file = new File(directory, "R.D1.count" + RunManifest.FILE_EXTENSION);
+            RunManifest.write(file, "D1", RunManifest.SEQUENCE_COUNT, 10L);
+            RunManifest.write(file, "D1", RunManifest.SEQUENCE_COUNT, 20L);
+
+            RunManifest manifest = new RunManifest();
+            manifest.read(file);
+            assertEquals(Long.valueOf(20L), manifest.getValue("D1", RunManifest.SEQUENCE_COUNT));
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testMultipleRecordsInFile() throws IOException
+    {
+        File directory = Files.createTempDirectory("mga").toFile();
+        try
+        {
+            File file1 = new File(directory, "R.D1.count" + RunManifest.FILE_EXTENSION);
+            File file2 = new File(directory, "R.D1.sampled" + RunManifest.FILE_EXTENSION);
+            RunManifest.write(file1, "D1", RunManifest.SEQUENCE_COUNT, 10L);
+            RunManifest.write(file2, "D1", RunManifest.SAMPLED_COUNT, 5L);
+
+            File combined = new File(directory, "R" + RunManifest.FILE_EXTENSION);
+            Files.write(combined.toPath(), concatenate(Files.readAllBytes(file1.toPath()), Files.readAllBytes(file2.toPath())));
+
+            RunManifest manifest = new RunManifest();
+            manifest.read(combined);
+            assertEquals(Long.valueOf(10L), manifest.getValue("D1", RunManifest.SEQUENCE_COUNT));
+            assertEquals(Long.valueOf(5L), manifest.getValue("D1", RunManifest.SAMPLED_COUNT));
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testWriteCombinedManifest() throws IOException
+    {
+        File directory = Files.createTempDirectory("mga").toFile();
+        try
+        {
+            String[] datasetIds = { "D2", "D1", "Sample \u00e9 10" };
+            RunManifest manifest = new RunManifest();
+            for (int i = 0; i < datasetIds.length; i++)
+            {
+                File countFile = new File(directory, "R." + i + ".count" + RunManifest.FILE_EXTENSION);
+                File sampledFile = new File(directory, "R." + i + ".sampled" + RunManifest.FILE_EXTENSION);
+                RunManifest.write(countFile, datasetIds[i], RunManifest.SEQUENCE_COUNT, 1000L * i);
+                RunManifest.write(sampledFile, datasetIds[i], RunManifest.SAMPLED_COUNT, i);
+                manifest.read(countFile);
+                manifest.read(sampledFile);
+            }
+
+            File combined = new File(directory, "R" + RunManifest.FILE_EXTENSION);
+            try (OutputStream outputStream = new FileOutputStream(combined))
+            {
+                manifest.write(outputStream);
+            }
+
+            RunManifest combinedManifest = new RunManifest();
+            combinedManifest.read(combined);
+            assertEquals(manifest.getDatasetIds(), combinedManifest.getDatasetIds());
+            for (int i = 0; i < datasetIds.length; i++)
+            {
+                assertEquals(Long.valueOf(1000L * i), combinedManifest.getValue(datasetIds[i], RunManifest.SEQUENCE_COUNT));
+                assertEquals(Long.valueOf(i), combinedManifest.getValue(datasetIds[i], RunManifest.SAMPLED_COUNT));
+            }
+
+            // the combined manifest contains the same records as those for each dataset,
+            // ordered by dataset identifier and name
+            byte[] records = new byte[0];
+            for (String datasetId : new String[] { "D1", "D2", "Sample \u00e9 10" })
+            {
+                int i = Arrays.asList(datasetIds).indexOf(datasetId);
+                records = concatenate(records, Files.readAllBytes(new File(directory, "R." + i + ".sampled" + RunManifest.FILE_EXTENSION).toPath()));
+                records = concatenate(records, Files.readAllBytes(new File(directory, "R." + i + ".count" + RunManifest.FILE_EXTENSION).toPath()));
+            }
+            assertArrayEquals(records, Files.readAllBytes(combined.toPath()));
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException
+    {
+        File directory = Files.createTempDirectory("mga").toFile();
+        try
+        {
+            File file = new File(directory, "R" + RunManifest.FILE_EXTENSION);
+            Files.write(file.toPath(), new byte[0]);
+
+            RunManifest manifest = new RunManifest();
+            manifest.read(file);
+            assertTrue(manifest.getDatasetIds().isEmpty());
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncatedRecord() throws IOException
+    {
+        File directory = Files.createTempDirectory("mga").toFile();
+        try
+        {
+            File file = new File(directory, "R.D1.count" + RunManifest.FILE_EXTENSION);
+            RunManifest.write(file, "D1", RunManifest.SEQUENCE_COUNT, 10L);
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+
+            new RunManifest().read(file);
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCorruptRecord() throws IOException
+    {
+        File directory = Files.createTempDirectory("mga").toFile();
+        try
+        {
+            File file = new File(directory, "R.D1.count" + RunManifest.FILE_EXTENSION);
+            RunManifest.write(file, "D1", RunManifest.SEQUENCE_COUNT, 10L);
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            bytes[bytes.length - 5] ^= 1;
+            Files.write(file.toPath(), bytes);
+
+            new RunManifest().read(file);
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDuplicateValue() throws IOException
+    {
+        File directory = Files.createTempDirectory("mga").toFile();
+        try
+        {
+            File file1 = new File(directory, "R.D1.count" + RunManifest.FILE_EXTENSION);
+            File file2 = new File(directory, "R.D1.copy.count" + RunManifest.FILE_EXTENSION);
+            RunManifest.write(file1, "D1", RunManifest.SEQUENCE_COUNT, 10L);
+            RunManifest.write(file2, "D1", RunManifest.SEQUENCE_COUNT, 10L);
+
+            RunManifest manifest = new RunManifest();
+            manifest.read(file1);
+            manifest.read(file2);
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    private static byte[] concatenate(byte[] bytes1, byte[] bytes2)
+    {
+        byte[] bytes = Arrays.copyOf(bytes1, bytes1.length + bytes2.length);
+        System.arraycopy(bytes2, 0, bytes, bytes1.length, bytes2.length);
+        return bytes;
+    }
+
+    private static void delete(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+}